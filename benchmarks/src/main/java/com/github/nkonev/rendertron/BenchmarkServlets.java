@@ -0,0 +1,152 @@
+package com.github.nkonev.rendertron;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Servlet request and response for the benchmarks, without a container and without mocks: the methods the filter
+ * calls are implemented, the rest return defaults.
+ */
+final class BenchmarkServlets {
+
+    static final String HUMAN = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/66.0.3359.181 Safari/537.36";
+    static final String CRAWLER = "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)";
+
+    private BenchmarkServlets() {
+    }
+
+    /**
+     * @param headers request headers, they are looked up case-insensitively
+     */
+    static HttpServletRequest request(final String url, Map<String, String> headers) {
+        final TreeMap<String, String> headerMap = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        headerMap.putAll(headers);
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        final int query = url.indexOf('?');
+        final String requestUrl = query >= 0 ? url.substring(0, query) : url;
+        final String queryString = query >= 0 ? url.substring(query + 1) : null;
+        final String requestUri = requestUrl.substring(requestUrl.indexOf('/', requestUrl.indexOf("//") + 2));
+        return new HttpServletRequestWrapper(stub(HttpServletRequest.class)) {
+            @Override
+            public String getMethod() {
+                return "GET";
+            }
+
+            @Override
+            public StringBuffer getRequestURL() {
+                return new StringBuffer(requestUrl);
+            }
+
+            @Override
+            public String getRequestURI() {
+                return requestUri;
+            }
+
+            @Override
+            public String getQueryString() {
+                return queryString;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                return headerMap.get(name);
+            }
+
+            @Override
+            public Enumeration getHeaderNames() {
+                return Collections.enumeration(headerMap.keySet());
+            }
+
+            @Override
+            public Enumeration getHeaders(String name) {
+                final String value = headerMap.get(name);
+                return Collections.enumeration(value != null ?
+                        Collections.singletonList(value) : Collections.<String>emptyList());
+            }
+
+            @Override
+            public Object getAttribute(String name) {
+                return attributes.get(name);
+            }
+
+            @Override
+            public void setAttribute(String name, Object o) {
+                attributes.put(name, o);
+            }
+
+            @Override
+            public void removeAttribute(String name) {
+                attributes.remove(name);
+            }
+        };
+    }
+
+    /**
+     * @return response which discards the body and the headers
+     */
+    static HttpServletResponse response() {
+        final ServletOutputStream outputStream = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        final PrintWriter writer = new PrintWriter(new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return new HttpServletResponseWrapper(stub(HttpServletResponse.class)) {
+            @Override
+            public ServletOutputStream getOutputStream() {
+                return outputStream;
+            }
+
+            @Override
+            public PrintWriter getWriter() {
+                return writer;
+            }
+        };
+    }
+
+    private static <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                final Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class) {
+                    return Boolean.FALSE;
+                } else if (returnType == int.class) {
+                    return 0;
+                } else if (returnType == long.class) {
+                    return 0L;
+                }
+                return null;
+            }
+        }));
+    }
+}
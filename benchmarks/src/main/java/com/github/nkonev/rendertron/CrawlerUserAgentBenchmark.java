@@ -0,0 +1,69 @@
+package com.github.nkonev.rendertron;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Linear per-token search against {@link CrawlerUserAgentMatcher} with and without the verdict cache,
+ * for a human User-Agent (worst case: nothing matches) and a few hundred configured tokens.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CrawlerUserAgentBenchmark {
+
+    private static final String HUMAN = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/66.0.3359.181 Safari/537.36";
+
+    @Param({"18", "300"})
+    public int tokens;
+
+    private List<String> list;
+    private CrawlerUserAgentMatcher automaton;
+    private CrawlerUserAgentMatcher cached;
+
+    @Setup
+    public void setUp() {
+        list = new ArrayList<String>(new Config(new java.util.HashMap<String, String>()).getCrawlerUserAgents());
+        for (int i = list.size(); i < tokens; i++) {
+            list.add("somebot" + i);
+        }
+        automaton = new CrawlerUserAgentMatcher(list, 0);
+        cached = new CrawlerUserAgentMatcher(list, 1024);
+    }
+
+    @Benchmark
+    public boolean linear() {
+        for (String item : list) {
+            if (HUMAN.toLowerCase().contains(item.toLowerCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean automaton() {
+        return automaton.matches(HUMAN);
+    }
+
+    @Benchmark
+    public boolean cached() {
+        return cached.matches(HUMAN);
+    }
+}
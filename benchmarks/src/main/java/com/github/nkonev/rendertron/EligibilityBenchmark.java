@@ -0,0 +1,76 @@
+package com.github.nkonev.rendertron;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link EligibilityMatcher} with the per-request list rebuilding and regex compiling it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EligibilityBenchmark {
+
+    private static final String HUMAN = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/66.0.3359.181 Safari/537.36";
+    private static final String CRAWLER = "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)";
+
+    @Param({"0", "20"})
+    public int listSize;
+
+    @Param({"human", "crawler"})
+    public String userAgentKind;
+
+    private String userAgent;
+    private final String url = "https://mysite.example.com/catalog/item/42";
+    private final String referer = "https://www.google.com/";
+
+    private EligibilityMatcher matcher;
+    private LegacyEligibility legacy;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> configuration = new HashMap<String, String>();
+        if (listSize > 0) {
+            configuration.put(Constants.InitFilterParams.WHITELIST, regexes("https://mysite.example.com/catalog/.*", listSize));
+            configuration.put(Constants.InitFilterParams.BLACKLIST, regexes("https://mysite.example.com/admin/.*", listSize));
+        }
+        Config config = new Config(configuration);
+        matcher = new EligibilityMatcher(config);
+        legacy = new LegacyEligibility(config);
+        userAgent = "crawler".equals(userAgentKind) ? CRAWLER : HUMAN;
+    }
+
+    private static String regexes(String last, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i < count; i++) {
+            sb.append("https://mysite.example.com/section").append(i).append("/.*,");
+        }
+        return sb.append(last).toString();
+    }
+
+    @Benchmark
+    public boolean legacy() {
+        return legacy.matches("GET", url, referer, userAgent);
+    }
+
+    @Benchmark
+    public boolean matcher() {
+        return matcher.matches("GET", url, referer, userAgent);
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.nkonev.rendertron;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@link SeoFilter} costs the requests it doesn't render: a human passing through
+ * {@link SeoService#renderIfEligible}, and the eligibility checks of a crawler with large white and black lists.
+ * Run with {@code -prof gc}, the pass-through should not allocate beyond the request itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterOverheadBenchmark {
+
+    private static final String URL = "https://mysite.example.com/catalog/item/42?color=red";
+
+    @Param({"0", "100", "1000"})
+    public int listSize;
+
+    private SeoService seoService;
+    private HttpServletRequest human;
+    private HttpServletRequest crawler;
+    private HttpServletRequest blacklisted;
+    private HttpServletResponse response;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> configuration = new HashMap<String, String>();
+        if (listSize > 0) {
+            configuration.put(Constants.InitFilterParams.WHITELIST, regexes("https://mysite.example.com/catalog/.*"));
+            configuration.put(Constants.InitFilterParams.BLACKLIST, regexes("https://mysite.example.com/admin/.*"));
+        }
+        seoService = new SeoService(configuration);
+        human = BenchmarkServlets.request(URL, headers(BenchmarkServlets.HUMAN));
+        crawler = BenchmarkServlets.request(URL, headers(BenchmarkServlets.CRAWLER));
+        blacklisted = BenchmarkServlets.request("https://mysite.example.com/admin/users",
+                headers(BenchmarkServlets.CRAWLER));
+        response = BenchmarkServlets.response();
+    }
+
+    @TearDown
+    public void tearDown() {
+        seoService.destroy();
+    }
+
+    private String regexes(String last) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i < listSize; i++) {
+            sb.append("https://mysite.example.com/section").append(i).append("/.*,");
+        }
+        return sb.append(last).toString();
+    }
+
+    private static Map<String, String> headers(String userAgent) {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("User-Agent", userAgent);
+        headers.put("Accept", "text/html,application/xhtml+xml");
+        headers.put("Accept-Encoding", "gzip, deflate");
+        return headers;
+    }
+
+    @Benchmark
+    public boolean humanPassThrough() {
+        return seoService.renderIfEligible(human, response);
+    }
+
+    @Benchmark
+    public boolean crawlerEligible() {
+        return seoService.shouldShowRenderedPage(crawler);
+    }
+
+    @Benchmark
+    public boolean crawlerBlacklisted() {
+        return seoService.renderIfEligible(blacklisted, response);
+    }
+}
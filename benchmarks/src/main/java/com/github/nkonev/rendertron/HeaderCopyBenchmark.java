@@ -0,0 +1,95 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying the headers of the crawler request to the Rendertron request, and the headers of the Rendertron response
+ * (with a small body) to the servlet response, for typical and header-heavy requests.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HeaderCopyBenchmark {
+
+    private static final String URL = "https://mysite.example.com/catalog/item/42";
+
+    @Param({"8", "32"})
+    public int headers;
+
+    private SeoService seoService;
+    private RendertronBackend backend;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private HttpResponse rendertronResponse;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(Constants.InitFilterParams.RENDERTRON_SERVICE_URL, "http://127.0.0.1:3000/render/");
+        seoService = new SeoService(configuration);
+        backend = seoService.acquireRender(URL);
+
+        Map<String, String> requestHeaders = new HashMap<String, String>();
+        requestHeaders.put("User-Agent", BenchmarkServlets.CRAWLER);
+        requestHeaders.put("Host", "mysite.example.com");
+        requestHeaders.put("Connection", "keep-alive");
+        requestHeaders.put("If-None-Match", "\"etag\"");
+        for (int i = requestHeaders.size(); i < headers; i++) {
+            requestHeaders.put("X-Header-" + i, "value-" + i);
+        }
+        request = BenchmarkServlets.request(URL, requestHeaders);
+        response = BenchmarkServlets.response();
+
+        rendertronResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        rendertronResponse.addHeader("Content-Type", "text/html; charset=UTF-8");
+        rendertronResponse.addHeader("Content-Length", "13");
+        rendertronResponse.addHeader("Connection", "keep-alive");
+        for (int i = 3; i < headers; i++) {
+            rendertronResponse.addHeader("X-Header-" + i, "value-" + i);
+        }
+        rendertronResponse.setEntity(new ByteArrayEntity("<html></html>".getBytes(), ContentType.TEXT_HTML));
+    }
+
+    @TearDown
+    public void tearDown() {
+        seoService.releaseRender(backend, System.nanoTime(), 200);
+        seoService.destroy();
+    }
+
+    @Benchmark
+    public HttpGet requestHeaders() {
+        return seoService.getRenderRequest(request, backend, URL);
+    }
+
+    @Benchmark
+    public RenderedPage responseHeaders() throws IOException {
+        return seoService.responseRendered(request, response, URL, rendertronResponse);
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.client.methods.HttpGet;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Eligibility checks exactly as {@link SeoService} made them before {@link EligibilityMatcher}:
+ * lists are rebuilt from {@link Config} and regexes are compiled on every call. Kept only as a baseline.
+ */
+public class LegacyEligibility {
+    private final Config config;
+
+    public LegacyEligibility(Config config) {
+        this.config = config;
+    }
+
+    public boolean matches(String method, String url, String referer, String userAgent) {
+        if (!HttpGet.METHOD_NAME.equals(method)) {
+            return false;
+        }
+        if (isInResources(url)) {
+            return false;
+        }
+        final List<String> whiteList = config.getWhitelist();
+        if (whiteList != null && !isInWhiteList(url, whiteList)) {
+            return false;
+        }
+        final List<String> blacklist = config.getBlacklist();
+        if (blacklist != null && isInBlackList(url, referer, blacklist)) {
+            return false;
+        }
+        if (StringUtils.isBlank(userAgent)) {
+            return false;
+        }
+        return isInSearchUserAgent(userAgent);
+    }
+
+    private boolean isInBlackList(final String url, final String referer, List<String> blacklist) {
+        for (String regex: blacklist) {
+            final Pattern pattern = Pattern.compile(regex);
+            if (pattern.matcher(url).matches() ||
+                    (!StringUtils.isBlank(referer) && pattern.matcher(referer).matches())){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isInSearchUserAgent(final String userAgent) {
+        for(String item: config.getCrawlerUserAgents()){
+            if (userAgent.toLowerCase().contains(item.toLowerCase())){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isInResources(final String url) {
+        for(String item: config.getExtensionsToIgnore()){
+            if ((url.indexOf('?') >= 0 ? url.substring(0, url.indexOf('?')) : url)
+                    .toLowerCase().endsWith(item)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isInWhiteList(final String url, List<String> whitelist) {
+        for (String regex: whitelist) {
+            if (Pattern.compile(regex).matcher(url).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.nkonev.rendertron;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end render proxying of a crawler request against a stub Rendertron on an in-process HTTP server, which
+ * answers with canned HTML right away, so the numbers are the overhead of the filter and the http client.
+ * With {@code renderCacheMaxBytes} set every request after the first one is a render cache hit.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RenderProxyBenchmark {
+
+    @Param({"4", "64", "512"})
+    public int bodyKilobytes;
+
+    @Param({"0", "67108864"})
+    public long renderCacheMaxBytes;
+
+    private HttpServer rendertron;
+    private ExecutorService rendertronExecutor;
+    private SeoService seoService;
+
+    @Setup
+    public void setUp() throws IOException {
+        final byte[] html = html(bodyKilobytes * 1024);
+        rendertron = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        rendertron.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+                exchange.sendResponseHeaders(200, html.length);
+                final OutputStream body = exchange.getResponseBody();
+                body.write(html);
+                body.close();
+            }
+        });
+        rendertronExecutor = Executors.newFixedThreadPool(8);
+        rendertron.setExecutor(rendertronExecutor);
+        rendertron.start();
+
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(Constants.InitFilterParams.RENDERTRON_SERVICE_URL,
+                "http://127.0.0.1:" + rendertron.getAddress().getPort() + "/render/");
+        if (renderCacheMaxBytes > 0) {
+            configuration.put(Constants.InitFilterParams.RENDER_CACHE_MAX_BYTES, String.valueOf(renderCacheMaxBytes));
+        }
+        seoService = new SeoService(configuration);
+    }
+
+    @TearDown
+    public void tearDown() {
+        seoService.destroy();
+        rendertron.stop(0);
+        rendertronExecutor.shutdownNow();
+    }
+
+    private static byte[] html(int length) {
+        final StringBuilder html = new StringBuilder(length + 64).append("<html><body>");
+        int i = 0;
+        while (html.length() < length) {
+            html.append("<p>Rendered paragraph ").append(i++).append("</p>");
+        }
+        return html.append("</body></html>").toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * The servlet objects are per thread, like in a container.
+     */
+    @State(Scope.Thread)
+    public static class Exchange {
+        HttpServletRequest request;
+        HttpServletResponse response;
+
+        @Setup
+        public void setUp() {
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put("User-Agent", BenchmarkServlets.CRAWLER);
+            headers.put("Accept", "text/html");
+            request = BenchmarkServlets.request("https://mysite.example.com/catalog/item/42", headers);
+            response = BenchmarkServlets.response();
+        }
+    }
+
+    @Benchmark
+    public boolean render(Exchange exchange) {
+        return seoService.renderIfEligible(exchange.request, exchange.response);
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.nkonev.rendertron;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for Rendertron: answers {@code /render/<url>} with canned HTML after a latency drawn from a
+ * {@link LatencyDistribution}, or with an error status at the configured rate. The waiting requests are parked in
+ * async mode, so the fake itself never runs out of threads and the latency is what the filter sees.
+ */
+class FakeRendertron {
+
+    private final LatencyDistribution latency;
+    private final double failureRate;
+    private final int errorStatus;
+    private final byte[] html;
+    private final Server server = new Server();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    FakeRendertron(LatencyDistribution latency, double failureRate, int errorStatus, int bodyBytes) {
+        this.latency = latency;
+        this.failureRate = failureRate;
+        this.errorStatus = errorStatus;
+        this.html = html(bodyBytes);
+    }
+
+    private static byte[] html(int length) {
+        final StringBuilder html = new StringBuilder(length + 64).append("<html><body>");
+        int i = 0;
+        while (html.length() < length) {
+            html.append("<p>Rendered paragraph ").append(i++).append("</p>");
+        }
+        return html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    void start() throws Exception {
+        final ServerConnector connector = new ServerConnector(server);
+        connector.setHost("127.0.0.1");
+        server.addConnector(connector);
+        final ServletContextHandler context = new ServletContextHandler();
+        final ServletHolder render = new ServletHolder(new RenderServlet());
+        render.setAsyncSupported(true);
+        context.addServlet(render, "/render/*");
+        server.setHandler(context);
+        server.start();
+    }
+
+    void stop() throws Exception {
+        scheduler.shutdownNow();
+        server.stop();
+    }
+
+    /**
+     * @return serviceUrl of the filter
+     */
+    String getServiceUrl() {
+        return "http://127.0.0.1:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/render/";
+    }
+
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @return most renders which were waited for at once, bounded by the connection pool of the filter
+     */
+    int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    private class RenderServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) {
+            requests.incrementAndGet();
+            final int current = inFlight.incrementAndGet();
+            int max;
+            while (current > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, current)) {
+                // retry
+            }
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final boolean fail = random.nextDouble() < failureRate;
+            final AsyncContext asyncContext = request.startAsync();
+            asyncContext.setTimeout(0);
+            final Runnable respond = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (fail) {
+                            failures.incrementAndGet();
+                            response.setStatus(errorStatus);
+                        } else {
+                            response.setContentType("text/html;charset=UTF-8");
+                            response.setContentLength(html.length);
+                            response.getOutputStream().write(html);
+                        }
+                    } catch (IOException e) {
+                        // the filter gave up on the render
+                    } finally {
+                        inFlight.decrementAndGet();
+                        asyncContext.complete();
+                    }
+                }
+            };
+            // the scheduler only times the renders, the body is written on a container thread
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    asyncContext.start(respond);
+                }
+            }, latency.nextMillis(random), TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.nkonev.rendertron;
+
+import java.util.Random;
+
+/**
+ * Render latency of {@link FakeRendertron}, parsed from a spec:
+ * <ul>
+ *     <li>{@code fixed:200} - always 200 ms</li>
+ *     <li>{@code uniform:100-800} - uniform between 100 and 800 ms</li>
+ *     <li>{@code exponential:300} - exponential with a mean of 300 ms</li>
+ *     <li>{@code lognormal:300:3000} - log-normal with a median of 300 ms and a p99 of 3000 ms, the long tail of
+ *     real headless Chrome renders</li>
+ * </ul>
+ */
+abstract class LatencyDistribution {
+
+    /**
+     * z-score of the 99th percentile of the standard normal distribution.
+     */
+    private static final double Z_99 = 2.326;
+
+    private final String spec;
+
+    private LatencyDistribution(String spec) {
+        this.spec = spec;
+    }
+
+    abstract long nextMillis(Random random);
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    static LatencyDistribution parse(final String spec) {
+        final String[] parts = spec.trim().split(":");
+        final String kind = parts[0];
+        try {
+            if ("fixed".equals(kind)) {
+                final long millis = Long.parseLong(parts[1]);
+                return new LatencyDistribution(spec) {
+                    @Override
+                    long nextMillis(Random random) {
+                        return millis;
+                    }
+                };
+            } else if ("uniform".equals(kind)) {
+                final String[] bounds = parts[1].split("-");
+                final long min = Long.parseLong(bounds[0]);
+                final long max = Long.parseLong(bounds[1]);
+                return new LatencyDistribution(spec) {
+                    @Override
+                    long nextMillis(Random random) {
+                        return min + (long) (random.nextDouble() * (max - min));
+                    }
+                };
+            } else if ("exponential".equals(kind)) {
+                final double mean = Double.parseDouble(parts[1]);
+                return new LatencyDistribution(spec) {
+                    @Override
+                    long nextMillis(Random random) {
+                        return (long) (-mean * Math.log(1 - random.nextDouble()));
+                    }
+                };
+            } else if ("lognormal".equals(kind)) {
+                final double mu = Math.log(Double.parseDouble(parts[1]));
+                final double sigma = (Math.log(Double.parseDouble(parts[2])) - mu) / Z_99;
+                return new LatencyDistribution(spec) {
+                    @Override
+                    long nextMillis(Random random) {
+                        return (long) Math.exp(mu + sigma * random.nextGaussian());
+                    }
+                };
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid latency distribution " + spec, e);
+        }
+        throw new IllegalArgumentException("Unknown latency distribution " + spec);
+    }
+}
@@ -0,0 +1,325 @@
+package com.github.nkonev.rendertron;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.http.pool.PoolStats;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterConfig;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Boots {@link SeoFilter} in embedded Jetty in front of a plain servlet, points it at a {@link FakeRendertron} and
+ * drives mixed human and crawler traffic at it. Prints throughput and latency percentiles per kind of traffic, what
+ * Rendertron and the connection pool went through, and exits with 1 if a gate is exceeded, so a run can be a
+ * regression check in CI.
+ * <p>
+ * Options are {@code name=value} arguments:
+ * <ul>
+ *     <li>{@code duration=30}, {@code warmup=5} - seconds of measurement and of warm-up before it</li>
+ *     <li>{@code threads=16} - concurrent clients</li>
+ *     <li>{@code rate=0} - requests per second of all clients, 0 to send the next request as soon as the previous
+ *     one is answered. With a rate, latency counts from the planned send time, so a stall is not hidden by the
+ *     clients waiting for it (coordinated omission)</li>
+ *     <li>{@code crawlerRatio=0.1} - share of the requests from crawlers</li>
+ *     <li>{@code pages=1000} - distinct urls</li>
+ *     <li>{@code latency=lognormal:300:2000} - render latency of Rendertron, see {@link LatencyDistribution}</li>
+ *     <li>{@code failureRate=0}, {@code errorStatus=503} - share of the renders which fail, and their status</li>
+ *     <li>{@code bodyBytes=32768} - size of the rendered page</li>
+ *     <li>{@code appThreads=200} - thread pool of the application server</li>
+ *     <li>{@code filter.<name>=<value>} - init parameter of the filter, e.g. {@code filter.maxConnections=4}</li>
+ *     <li>{@code maxCrawlerP99Millis}, {@code maxHumanP99Millis}, {@code maxErrorRate} - gates</li>
+ *     <li>{@code logLevel=off} - level of the slf4j-simple log, the render errors are counted in the report anyway</li>
+ * </ul>
+ */
+public class LoadTest {
+
+    private static final String HUMAN = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/66.0.3359.181 Safari/537.36";
+    private static final String CRAWLER = "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)";
+    private static final String FILTER_PREFIX = "filter.";
+    /**
+     * Set by the application servlet, so a crawler which got the unrendered page is told apart.
+     */
+    private static final String APP_HEADER = "X-Load-Test-App";
+
+    private final Map<String, String> options;
+    private final Traffic crawlers = new Traffic("crawler");
+    private final Traffic humans = new Traffic("human");
+    private volatile boolean running = true;
+    private SeoService seoService;
+
+    LoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected name=value, got " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", get(options, "logLevel", "off"));
+        System.exit(new LoadTest(options).run() ? 0 : 1);
+    }
+
+    private static String get(Map<String, String> options, String name, String defaultValue) {
+        final String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private String get(String name, String defaultValue) {
+        return get(options, name, defaultValue);
+    }
+
+    private int getInt(String name, int defaultValue) {
+        return Integer.parseInt(get(name, String.valueOf(defaultValue)));
+    }
+
+    private double getDouble(String name, double defaultValue) {
+        return Double.parseDouble(get(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * @return false if a gate is exceeded
+     */
+    boolean run() throws Exception {
+        final LatencyDistribution latency = LatencyDistribution.parse(get("latency", "lognormal:300:2000"));
+        final FakeRendertron rendertron = new FakeRendertron(latency, getDouble("failureRate", 0),
+                getInt("errorStatus", 503), getInt("bodyBytes", 32768));
+        rendertron.start();
+        final Server app = startApp(rendertron.getServiceUrl());
+        final String baseUrl = "http://127.0.0.1:" + ((ServerConnector) app.getConnectors()[0]).getLocalPort();
+        final int threads = getInt("threads", 16);
+        final HttpClient client = new HttpClient();
+        client.setMaxConnectionsPerDestination(threads);
+        client.start();
+        try {
+            final List<Thread> clients = startClients(client, baseUrl, threads);
+            TimeUnit.SECONDS.sleep(getInt("warmup", 5));
+            crawlers.reset();
+            humans.reset();
+            final long rendertronRequests = rendertron.getRequestCount();
+            final long rendertronFailures = rendertron.getFailureCount();
+            final long startedAt = System.nanoTime();
+            TimeUnit.SECONDS.sleep(getInt("duration", 30));
+            // under load, not after it
+            final PoolStats pool = seoService.getConnectionPoolStats();
+            running = false;
+            for (Thread thread : clients) {
+                thread.join();
+            }
+            final double seconds = (System.nanoTime() - startedAt) / 1e9;
+            final Histogram crawlerLatencies = crawlers.recorder.getIntervalHistogram();
+            final Histogram humanLatencies = humans.recorder.getIntervalHistogram();
+
+            System.out.printf("%d threads, %s, %.0f%% crawlers, Rendertron latency %s, failure rate %s%n",
+                    threads, getInt("rate", 0) > 0 ? get("rate", null) + " req/s" : "closed loop",
+                    getDouble("crawlerRatio", 0.1) * 100, latency, get("failureRate", "0"));
+            System.out.printf("%-8s %9s %9s %9s %9s %9s %9s %8s %8s%n",
+                    "traffic", "requests", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors", "app");
+            crawlers.print(crawlerLatencies, seconds);
+            humans.print(humanLatencies, seconds);
+            System.out.printf("Rendertron: %d renders, %d failed, at most %d at once%n",
+                    rendertron.getRequestCount() - rendertronRequests,
+                    rendertron.getFailureCount() - rendertronFailures, rendertron.getMaxInFlight());
+            System.out.printf("Connection pool under load: leased=%d pending=%d available=%d max=%d%n",
+                    pool.getLeased(), pool.getPending(), pool.getAvailable(), pool.getMax());
+            printFilterMetrics();
+
+            return checkGates(crawlerLatencies, humanLatencies);
+        } finally {
+            client.stop();
+            app.stop();
+            rendertron.stop();
+        }
+    }
+
+    private Server startApp(String serviceUrl) throws Exception {
+        final Server server = new Server(new QueuedThreadPool(getInt("appThreads", 200)));
+        final ServerConnector connector = new ServerConnector(server);
+        connector.setHost("127.0.0.1");
+        server.addConnector(connector);
+        final ServletContextHandler context = new ServletContextHandler();
+        final FilterHolder filter = new FilterHolder(new SeoFilter() {
+            @Override
+            public void init(FilterConfig filterConfig) {
+                seoService = new SeoService(toMap(filterConfig));
+                setSeoService(seoService);
+            }
+        });
+        filter.setInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL, serviceUrl);
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey().startsWith(FILTER_PREFIX)) {
+                filter.setInitParameter(option.getKey().substring(FILTER_PREFIX.length()), option.getValue());
+            }
+        }
+        context.addFilter(filter, "/*", EnumSet.of(DispatcherType.REQUEST));
+        context.addServlet(new ServletHolder(new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                response.setContentType("text/html;charset=UTF-8");
+                response.setHeader(APP_HEADER, "true");
+                response.getWriter().write("<html><body><div id=\"app\"></div><script src=\"/app.js\"></script></body></html>");
+            }
+        }), "/*");
+        server.setHandler(context);
+        server.start();
+        return server;
+    }
+
+    private List<Thread> startClients(final HttpClient client, final String baseUrl, int threads) {
+        final double crawlerRatio = getDouble("crawlerRatio", 0.1);
+        final int pages = getInt("pages", 1000);
+        final int rate = getInt("rate", 0);
+        final long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(threads) / rate : 0;
+        final List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long plannedAt = System.nanoTime();
+                    while (running) {
+                        final boolean crawler = random.nextDouble() < crawlerRatio;
+                        final String url = baseUrl + "/page/" + random.nextInt(pages);
+                        if (intervalNanos > 0) {
+                            final long wait = plannedAt - System.nanoTime();
+                            if (wait > 0) {
+                                sleepNanos(wait);
+                            }
+                        }
+                        final long startedAt = intervalNanos > 0 ? plannedAt : System.nanoTime();
+                        send(client, url, crawler ? crawlers : humans, startedAt);
+                        plannedAt += intervalNanos;
+                    }
+                }
+            }, "load-test-client-" + i);
+            thread.start();
+            clients.add(thread);
+        }
+        return clients;
+    }
+
+    private static void sleepNanos(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void send(HttpClient client, String url, Traffic traffic, long startedAt) {
+        boolean error;
+        boolean app = false;
+        try {
+            final ContentResponse response = client.newRequest(url)
+                    .agent(traffic.userAgent)
+                    .timeout(60, TimeUnit.SECONDS)
+                    .send();
+            error = response.getStatus() >= 400;
+            app = response.getHeaders().containsKey(APP_HEADER);
+        } catch (Exception e) {
+            error = true;
+        }
+        traffic.record(System.nanoTime() - startedAt, error, app);
+    }
+
+    private void printFilterMetrics() {
+        final RendertronMetrics metrics = seoService.getMetrics();
+        if (metrics instanceof SimpleRendertronMetrics) {
+            final SimpleRendertronMetrics simple = (SimpleRendertronMetrics) metrics;
+            System.out.printf("Filter renders (with warm-up): 2xx=%d 4xx=%d 5xx=%d failed=%d, errors=%d%n",
+                    simple.getRenderCount(2), simple.getRenderCount(4), simple.getRenderCount(5),
+                    simple.getRenderCount(0), simple.getErrorCount());
+        }
+    }
+
+    private boolean checkGates(Histogram crawlerLatencies, Histogram humanLatencies) {
+        boolean passed = checkP99("maxCrawlerP99Millis", crawlerLatencies);
+        passed &= checkP99("maxHumanP99Millis", humanLatencies);
+        final String maxErrorRate = options.get("maxErrorRate");
+        if (maxErrorRate != null) {
+            final long requests = crawlers.requests.sum() + humans.requests.sum();
+            final double errorRate = requests > 0 ? (double) (crawlers.errors.sum() + humans.errors.sum()) / requests : 0;
+            if (errorRate > Double.parseDouble(maxErrorRate)) {
+                System.out.printf("FAILED: error rate %.4f is above %s%n", errorRate, maxErrorRate);
+                passed = false;
+            }
+        }
+        return passed;
+    }
+
+    private boolean checkP99(String gate, Histogram latencies) {
+        final String max = options.get(gate);
+        if (max != null) {
+            final double p99 = latencies.getValueAtPercentile(99) / 1e6;
+            if (p99 > Double.parseDouble(max)) {
+                System.out.printf("FAILED: %s %.1f is above %s%n", gate, p99, max);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Traffic {
+        private final String name;
+        private final String userAgent;
+        private final Recorder recorder = new Recorder(3);
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder app = new LongAdder();
+
+        Traffic(String name) {
+            this.name = name;
+            this.userAgent = "crawler".equals(name) ? CRAWLER : HUMAN;
+        }
+
+        void record(long latencyNanos, boolean error, boolean fromApp) {
+            recorder.recordValue(latencyNanos);
+            requests.increment();
+            if (error) {
+                errors.increment();
+            }
+            if (fromApp) {
+                app.increment();
+            }
+        }
+
+        void reset() {
+            recorder.reset();
+            requests.reset();
+            errors.reset();
+            app.reset();
+        }
+
+        void print(Histogram latencies, double seconds) {
+            System.out.printf("%-8s %9d %9.1f %9.1f %9.1f %9.1f %9.1f %8d %8d%n", name,
+                    requests.sum(), requests.sum() / seconds,
+                    latencies.getValueAtPercentile(50) / 1e6, latencies.getValueAtPercentile(99) / 1e6,
+                    latencies.getValueAtPercentile(99.9) / 1e6, latencies.getMaxValue() / 1e6,
+                    errors.sum(), app.sum());
+        }
+    }
+}
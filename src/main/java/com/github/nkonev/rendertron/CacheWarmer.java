@@ -0,0 +1,358 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.Consts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Renders pages into the render cache ahead of crawlers, after a deploy or a cache flush.
+ * <p>
+ * Pages are read from sitemaps (sitemap indexes are followed) or from plain lists with one url per line;
+ * a source is a http, https or file url or a file path, gzipped if its name ends with {@code .gz}.
+ * Sitemaps of an index are followed only if they are http or https urls on the host and port of the index,
+ * so a sitemap can't make the warmer read local files or other hosts.
+ * Sources are read as a stream, the renders start while they are read. Pages rejected by the resource
+ * extensions, the whitelist or the blacklist and pages which are in the cache already are skipped.
+ */
+public class CacheWarmer {
+    private final static Logger log = LoggerFactory.getLogger(CacheWarmer.class);
+
+    /**
+     * How deep sitemap indexes are followed.
+     */
+    private static final int MAX_SITEMAP_DEPTH = 3;
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final int PROGRESS_INTERVAL = 100;
+
+    public enum Result {
+        RENDERED, SKIPPED, FAILED
+    }
+
+    private final SeoService seoService;
+    private final List<String> sources;
+    private final int concurrency;
+    private final long intervalNanos;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final Thread coordinator;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean cancelled;
+    private long nextRenderAt;
+
+    private final AtomicInteger discovered = new AtomicInteger();
+    private final AtomicInteger rendered = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong startedAt = new AtomicLong();
+    private final AtomicLong finishedAt = new AtomicLong();
+
+    /**
+     * @param sources sitemaps or url lists
+     * @param concurrency renders at the same time
+     * @param ratePerSecond renders started per second, 0 for no limit
+     */
+    public CacheWarmer(SeoService seoService, List<String> sources, int concurrency, double ratePerSecond) {
+        this.seoService = seoService;
+        this.sources = sources;
+        this.concurrency = concurrency;
+        this.intervalNanos = ratePerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond) : 0;
+        this.permits = new Semaphore(concurrency);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "rendertron-warmer-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.coordinator = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                warm();
+            }
+        }, "rendertron-warmer");
+        this.coordinator.setDaemon(true);
+    }
+
+    public void start() {
+        coordinator.start();
+    }
+
+    /**
+     * Stops reading the sources and interrupts the renders in progress.
+     */
+    public void cancel() {
+        cancelled = true;
+        coordinator.interrupt();
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return true if warming finished or was cancelled within the timeout
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void warm() {
+        startedAt.set(System.nanoTime());
+        nextRenderAt = startedAt.get();
+        try {
+            for (String source : sources) {
+                if (cancelled) {
+                    break;
+                }
+                read(source, 0);
+            }
+            // wait for the renders in progress
+            permits.acquire(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+            finishedAt.set(System.nanoTime());
+            log.info("Cache warming {}: {} pages rendered, {} skipped, {} failed of {} in {} s, {} pages/s",
+                    cancelled ? "cancelled" : "finished", rendered.get(), skipped.get(), failed.get(), discovered.get(),
+                    TimeUnit.NANOSECONDS.toSeconds(finishedAt.get() - startedAt.get()), String.format("%.1f", getThroughput()));
+            done.countDown();
+        }
+    }
+
+    private void read(String source, int depth) throws InterruptedException {
+        InputStream inputStream = null;
+        try {
+            inputStream = new BufferedInputStream(open(source));
+            inputStream.mark(1024);
+            int first = inputStream.read();
+            while (first != -1 && Character.isWhitespace(first)) {
+                first = inputStream.read();
+            }
+            inputStream.reset();
+            if (first == '<') {
+                readSitemap(source, inputStream, depth);
+            } else {
+                readList(inputStream);
+            }
+        } catch (IOException e) {
+            log.error("Cannot read cache warming source " + source, e);
+        } catch (XMLStreamException e) {
+            log.error("Cannot parse sitemap " + source, e);
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            log.error("Close cache warming source error", e);
+        }
+    }
+
+    private static InputStream open(String source) throws IOException {
+        final InputStream inputStream;
+        if (source.startsWith("http://") || source.startsWith("https://") || source.startsWith("file:")) {
+            final URLConnection connection = new URL(source).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            inputStream = connection.getInputStream();
+        } else {
+            inputStream = new FileInputStream(source);
+        }
+        return source.endsWith(".gz") ? new GZIPInputStream(inputStream) : inputStream;
+    }
+
+    private void readList(InputStream inputStream) throws IOException, InterruptedException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, Consts.UTF_8));
+        String line;
+        while (!cancelled && (line = reader.readLine()) != null) {
+            if (!isBlank(line) && !line.trim().startsWith("#")) {
+                submit(line.trim());
+            }
+        }
+    }
+
+    /**
+     * Urls of a {@code urlset} are rendered, sitemaps of a {@code sitemapindex} are read.
+     */
+    private void readSitemap(String source, InputStream inputStream, int depth) throws XMLStreamException, InterruptedException {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        final XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
+        try {
+            boolean index = false;
+            while (!cancelled && reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                final String name = reader.getLocalName();
+                if ("sitemapindex".equals(name)) {
+                    index = true;
+                } else if ("loc".equals(name)) {
+                    final String loc = reader.getElementText().trim();
+                    if (!index) {
+                        submit(loc);
+                    } else if (depth >= MAX_SITEMAP_DEPTH) {
+                        log.warn("Sitemap {} is nested too deep and is skipped", loc);
+                    } else if (!isOnSameHost(source, loc)) {
+                        log.warn("Sitemap {} is not a http(s) url on the host of {} and is skipped", loc, source);
+                    } else {
+                        read(loc, depth + 1);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return true if both are http or https urls with the same host and port
+     */
+    static boolean isOnSameHost(String index, String sitemap) {
+        try {
+            final URL indexUrl = new URL(index);
+            final URL sitemapUrl = new URL(sitemap);
+            return isHttp(indexUrl) && isHttp(sitemapUrl)
+                    && indexUrl.getHost().equalsIgnoreCase(sitemapUrl.getHost())
+                    && (indexUrl.getPort() == sitemapUrl.getPort()
+                    || getEffectivePort(indexUrl) == getEffectivePort(sitemapUrl));
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    private static boolean isHttp(URL url) {
+        return "http".equalsIgnoreCase(url.getProtocol()) || "https".equalsIgnoreCase(url.getProtocol());
+    }
+
+    private static int getEffectivePort(URL url) {
+        return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+    private void submit(final String url) throws InterruptedException {
+        discovered.incrementAndGet();
+        permits.acquire();
+        if (intervalNanos > 0) {
+            final long wait = nextRenderAt - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            nextRenderAt = Math.max(nextRenderAt, System.nanoTime() - intervalNanos) + intervalNanos;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Result result = Result.FAILED;
+                    try {
+                        result = seoService.warmUpPage(url);
+                    } catch (RuntimeException e) {
+                        log.error("Cache warming error", e);
+                    } finally {
+                        count(result);
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the executor is shut down by cancel()
+            permits.release();
+        }
+    }
+
+    private void count(Result result) {
+        switch (result) {
+            case RENDERED:
+                rendered.incrementAndGet();
+                break;
+            case SKIPPED:
+                skipped.incrementAndGet();
+                break;
+            default:
+                failed.incrementAndGet();
+        }
+        final int processed = rendered.get() + skipped.get() + failed.get();
+        if (processed % PROGRESS_INTERVAL == 0) {
+            log.info("Cache warming: {} pages processed, {} rendered, {} pages/s", processed, rendered.get(),
+                    String.format("%.1f", getThroughput()));
+        }
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return pages read from the sources so far
+     */
+    public int getDiscoveredCount() {
+        return discovered.get();
+    }
+
+    public int getRenderedCount() {
+        return rendered.get();
+    }
+
+    /**
+     * @return pages which were not rendered because they are not eligible or were cached already
+     */
+    public int getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * @return pages which failed to render or were shed
+     */
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return processed pages per second since the start
+     */
+    public double getThroughput() {
+        if (startedAt.get() == 0) {
+            return 0;
+        }
+        final long end = finishedAt.get() != 0 ? finishedAt.get() : System.nanoTime();
+        final long elapsedNanos = Math.max(1, end - startedAt.get());
+        return (rendered.get() + skipped.get() + failed.get()) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+}
@@ -0,0 +1,199 @@
+package com.github.nkonev.rendertron;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops calling Rendertron while it is unhealthy, so crawler requests fall through right away instead of
+ * waiting for the socket timeout each.
+ * <p>
+ * The outcomes of the last renders are kept in a sliding window; a render fails when Rendertron answers with
+ * a server error, doesn't answer, or answers slower than the slow call threshold. When the window is full and
+ * the failure rate reaches the threshold, the breaker opens and rejects renders for the open period. After
+ * that one render is let through as a probe (half-open): its success closes the breaker, its failure opens it again.
+ * A probe which doesn't complete within the slow call threshold, or the open period without one, counts as failed.
+ */
+public class CircuitBreaker {
+    private final static Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureRateThreshold;
+    private final long slowCallNanos;
+    private final long openMillis;
+    private final long probeTimeoutMillis;
+    private final List<CircuitBreakerListener> listeners = new CopyOnWriteArrayList<CircuitBreakerListener>();
+    private final AtomicLong rejected = new AtomicLong();
+
+    // guarded by this
+    private final boolean[] window;
+    private int windowCount;
+    private int windowIndex;
+    private int windowFailures;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probeInFlight;
+    private long probeStartedAt;
+
+    /**
+     * @param windowSize how many last renders are considered
+     * @param failureRateThreshold percentage of failed renders in the window which opens the breaker
+     * @param slowCallMillis renders slower than this count as failed, 0 to ignore latency
+     * @param openMillis how long renders are rejected before a probe
+     */
+    public CircuitBreaker(int windowSize, int failureRateThreshold, long slowCallMillis, long openMillis) {
+        this.window = new boolean[windowSize];
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallMillis * 1000000L;
+        this.openMillis = openMillis;
+        this.probeTimeoutMillis = slowCallMillis > 0 ? slowCallMillis : openMillis;
+    }
+
+    public void addListener(CircuitBreakerListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return false if the render has to be skipped; otherwise {@link #onResult} or {@link #cancel} must follow
+     */
+    public boolean tryAcquire() {
+        final State from;
+        final State to;
+        final boolean acquired;
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return true;
+            }
+            from = state;
+            if (state == State.HALF_OPEN) {
+                if (!probeInFlight) {
+                    startProbe();
+                    return true;
+                }
+                if (currentTimeMillis() - probeStartedAt >= probeTimeoutMillis) {
+                    // the probe hangs, nothing else would ever end the half-open state
+                    probeInFlight = false;
+                    open();
+                }
+                rejected.incrementAndGet();
+                acquired = false;
+            } else if (currentTimeMillis() - openedAt < openMillis) {
+                rejected.incrementAndGet();
+                return false;
+            } else {
+                state = State.HALF_OPEN;
+                startProbe();
+                acquired = true;
+            }
+            to = state;
+        }
+        if (from != to) {
+            stateChanged(from, to);
+        }
+        return acquired;
+    }
+
+    private void startProbe() {
+        probeInFlight = true;
+        probeStartedAt = currentTimeMillis();
+    }
+
+    /**
+     * The acquired render was not done after all.
+     */
+    public synchronized void cancel() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    /**
+     * @param latencyNanos how long Rendertron took
+     * @param succeeded false if Rendertron failed
+     */
+    public void onResult(long latencyNanos, boolean succeeded) {
+        final boolean failed = !succeeded || (slowCallNanos > 0 && latencyNanos > slowCallNanos);
+        final State from;
+        final State to;
+        synchronized (this) {
+            from = state;
+            if (state == State.HALF_OPEN) {
+                probeInFlight = false;
+                if (failed) {
+                    open();
+                } else {
+                    state = State.CLOSED;
+                }
+            } else if (state == State.CLOSED) {
+                record(failed);
+                if (windowCount == window.length && windowFailures * 100 >= failureRateThreshold * windowCount) {
+                    open();
+                }
+            }
+            // a render which started before the breaker opened doesn't change anything
+            to = state;
+        }
+        if (from != to) {
+            stateChanged(from, to);
+        }
+    }
+
+    private void record(boolean failed) {
+        if (windowCount == window.length) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = failed;
+        if (failed) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = currentTimeMillis();
+        windowCount = 0;
+        windowIndex = 0;
+        windowFailures = 0;
+    }
+
+    private void stateChanged(State from, State to) {
+        if (to == State.OPEN) {
+            log.warn("Rendertron circuit breaker is open, renders are skipped for {} ms", openMillis);
+        } else {
+            log.info("Rendertron circuit breaker is {}", to);
+        }
+        for (CircuitBreakerListener listener : listeners) {
+            try {
+                listener.onStateChange(from, to);
+            } catch (RuntimeException e) {
+                log.error("Circuit breaker listener error", e);
+            }
+        }
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return how many renders were skipped because the breaker was open
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
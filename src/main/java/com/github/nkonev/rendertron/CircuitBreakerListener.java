@@ -0,0 +1,10 @@
+package com.github.nkonev.rendertron;
+
+/**
+ * Gets the state changes of the {@link CircuitBreaker}. An {@link EventHandler} which implements
+ * this interface is registered automatically.
+ */
+public interface CircuitBreakerListener {
+
+    void onStateChange(CircuitBreaker.State from, CircuitBreaker.State to);
+}
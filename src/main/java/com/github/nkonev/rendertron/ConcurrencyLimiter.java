@@ -0,0 +1,99 @@
+package com.github.nkonev.rendertron;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive limit of concurrent renders (AIMD). A render which succeeds about as fast as usual, while
+ * the limit is actually used, raises the limit by one; a failed render or one much slower than the
+ * smoothed baseline latency cuts it by 10%, so the limit follows what Rendertron can currently take.
+ * Renders over the limit are rejected right away instead of being queued.
+ */
+public class ConcurrencyLimiter {
+    private static final double BACKOFF_RATIO = 0.9;
+    /**
+     * A render slower than the baseline times this is a sign of overload.
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    /**
+     * Weight of a sample in the exponential moving average of the latency.
+     */
+    private static final double BASELINE_SMOOTHING = 0.05;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong shed = new AtomicLong();
+    private volatile int limit;
+
+    // guarded by this
+    private double estimatedLimit;
+    private double baselineLatencyNanos;
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+    }
+
+    /**
+     * @return false if the limit is reached; otherwise {@link #release} must be called when the render is done
+     */
+    public boolean tryAcquire() {
+        for (;;) {
+            final int current = inFlight.get();
+            if (current >= limit) {
+                shed.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param latencyNanos how long Rendertron took
+     * @param succeeded false if the render failed
+     */
+    public void release(long latencyNanos, boolean succeeded) {
+        final int inFlightBefore = inFlight.getAndDecrement();
+        synchronized (this) {
+            if (!succeeded) {
+                backOff();
+                return;
+            }
+            final boolean slow = baselineLatencyNanos > 0 && latencyNanos > baselineLatencyNanos * LATENCY_TOLERANCE;
+            baselineLatencyNanos = baselineLatencyNanos == 0 ? latencyNanos :
+                    baselineLatencyNanos + BASELINE_SMOOTHING * (latencyNanos - baselineLatencyNanos);
+            if (slow) {
+                backOff();
+            } else if (inFlightBefore * 2 >= estimatedLimit) {
+                // grow only when the limit is used, otherwise a quiet period would raise it without evidence
+                estimatedLimit = Math.min(maxLimit, estimatedLimit + 1);
+                limit = (int) estimatedLimit;
+            }
+        }
+    }
+
+    private void backOff() {
+        estimatedLimit = Math.max(minLimit, estimatedLimit * BACKOFF_RATIO);
+        limit = (int) estimatedLimit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return how many renders were rejected because the limit was reached
+     */
+    public long getShedCount() {
+        return shed.get();
+    }
+}
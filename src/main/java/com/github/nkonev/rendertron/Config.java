@@ -1,25 +1,42 @@
 package com.github.nkonev.rendertron;
 
 
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 public class Config {
     private final static Logger log = LoggerFactory.getLogger(Config.class);
+    /**
+     * Socket timeout assumed for a parked render when {@link Constants.InitFilterParams#SOCKET_TIMEOUT} is not set
+     */
+    public static final long DEFAULT_ASYNC_RENDER_MILLIS = 60000;
+    private static final long ASYNC_TIMEOUT_MARGIN_MILLIS = 5000;
     private Map<String, String> config;
 
     public Config(Map<String, String> config) {
@@ -38,35 +55,247 @@ public class Config {
         return null;
     }
 
+    /**
+     * @return metrics of the class set by {@link Constants.InitFilterParams#METRICS}, {@link SimpleRendertronMetrics}
+     * if it is not set or can't be created
+     */
+    public RendertronMetrics getMetrics() {
+        final String metrics = config.get(Constants.InitFilterParams.METRICS);
+        if (isNotBlank(metrics)) {
+            try {
+                return (RendertronMetrics) Class.forName(metrics.trim()).newInstance();
+            } catch (Exception e) {
+                log.error("RendertronMetrics class not find or can not new a instance", e);
+            }
+        }
+        return new SimpleRendertronMetrics();
+    }
+
+    /**
+     * @return true if rendered pages get the Server-Timing header
+     */
+    public boolean isServerTiming() {
+        final String serverTiming = config.get(Constants.InitFilterParams.SERVER_TIMING);
+        return isNotBlank(serverTiming) && Boolean.parseBoolean(serverTiming.trim());
+    }
+
+    /**
+     * @return rendered requests which take longer are logged, or null if they are not logged
+     */
+    public Long getSlowRenderMillis() {
+        return getLong(Constants.InitFilterParams.SLOW_RENDER_MILLIS);
+    }
+
+    /**
+     * @return listener of the class set by {@link Constants.InitFilterParams#RENDER_TRACE_LISTENER} or null
+     */
+    public RenderTraceListener getRenderTraceListener() {
+        final String listener = config.get(Constants.InitFilterParams.RENDER_TRACE_LISTENER);
+        if (isNotBlank(listener)) {
+            try {
+                return (RenderTraceListener) Class.forName(listener.trim()).newInstance();
+            } catch (Exception e) {
+                log.error("RenderTraceListener class not find or can not new a instance", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return handlers in the configured order, handlers which can't be created are skipped
+     */
+    public List<StreamingEventHandler> getStreamingEventHandlers() {
+        final List<StreamingEventHandler> handlers = new ArrayList<StreamingEventHandler>();
+        final String classNames = config.get(Constants.InitFilterParams.STREAMING_EVENT_HANDLERS);
+        if (isNotBlank(classNames)) {
+            for (String className : classNames.trim().split(",")) {
+                if (isBlank(className)) {
+                    continue;
+                }
+                try {
+                    handlers.add((StreamingEventHandler) Class.forName(className.trim()).newInstance());
+                } catch (Exception e) {
+                    log.error("StreamingEventHandler class not find or can not new a instance", e);
+                }
+            }
+        }
+        return handlers;
+    }
+
     public CloseableHttpClient getHttpClient() {
+        return getHttpClient(getConnectionManager());
+    }
+
+    public CloseableHttpClient getHttpClient(PoolingHttpClientConnectionManager connectionManager) {
         HttpClientBuilder builder = HttpClients.custom()
-                .setConnectionManager(new PoolingHttpClientConnectionManager())
+                .setConnectionManager(connectionManager)
                 .disableRedirectHandling();
 
         configureProxy(builder);
         configureTimeout(builder);
+        configureKeepAlive(builder);
+        configureEviction(builder);
+        configureTracing(builder);
         return builder.build();
     }
 
+    /**
+     * @return pool of connections to Rendertron with the configured limits
+     */
+    public PoolingHttpClientConnectionManager getConnectionManager() {
+        final Long timeToLive = getLong(Constants.InitFilterParams.CONNECTION_TIME_TO_LIVE);
+        final PoolingHttpClientConnectionManager connectionManager = timeToLive != null ?
+                new PoolingHttpClientConnectionManager(timeToLive, TimeUnit.MILLISECONDS) :
+                new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(getMaxConnectionsPerRoute());
+        final Integer validateAfterInactivity = getInteger(Constants.InitFilterParams.VALIDATE_AFTER_INACTIVITY);
+        if (validateAfterInactivity != null) {
+            connectionManager.setValidateAfterInactivity(validateAfterInactivity);
+        }
+        return connectionManager;
+    }
+
+    public int getMaxConnections() {
+        final Integer maxConnections = getInteger(Constants.InitFilterParams.MAX_CONNECTIONS);
+        return maxConnections != null ? maxConnections : 20;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        final Integer maxConnectionsPerRoute = getInteger(Constants.InitFilterParams.MAX_CONNECTIONS_PER_ROUTE);
+        return maxConnectionsPerRoute != null ? maxConnectionsPerRoute : 20;
+    }
+
+    /**
+     * @return timeouts of requests to Rendertron, -1 (not set) means the system default
+     */
+    public RequestConfig getRequestConfig() {
+        final RequestConfig.Builder requestConfig = RequestConfig.custom();
+        final String socketTimeout = getSocketTimeout();
+        if (isNotBlank(socketTimeout)) {
+            requestConfig.setSocketTimeout(Integer.parseInt(socketTimeout.trim()));
+        }
+        final Integer connectTimeout = getInteger(Constants.InitFilterParams.CONNECT_TIMEOUT);
+        if (connectTimeout != null) {
+            requestConfig.setConnectTimeout(connectTimeout);
+        }
+        final Integer connectionRequestTimeout = getInteger(Constants.InitFilterParams.CONNECTION_REQUEST_TIMEOUT);
+        if (connectionRequestTimeout != null) {
+            requestConfig.setConnectionRequestTimeout(connectionRequestTimeout);
+        }
+        return requestConfig.build();
+    }
+
+    /**
+     * @return milliseconds a render parked by {@code AsyncSeoFilter} may take: {@link Constants.InitFilterParams#ASYNC_TIMEOUT},
+     * or the timeouts of {@link #getRequestConfig()} plus a margin, with {@link #DEFAULT_ASYNC_RENDER_MILLIS} for the
+     * socket timeout if it is not set
+     */
+    public long getAsyncTimeout() {
+        final Long asyncTimeout = getLong(Constants.InitFilterParams.ASYNC_TIMEOUT);
+        if (asyncTimeout != null) {
+            return asyncTimeout;
+        }
+        final RequestConfig requestConfig = getRequestConfig();
+        long timeout = requestConfig.getSocketTimeout() > 0 ? requestConfig.getSocketTimeout() : DEFAULT_ASYNC_RENDER_MILLIS;
+        if (requestConfig.getConnectTimeout() > 0) {
+            timeout += requestConfig.getConnectTimeout();
+        }
+        if (requestConfig.getConnectionRequestTimeout() > 0) {
+            timeout += requestConfig.getConnectionRequestTimeout();
+        }
+        return timeout + ASYNC_TIMEOUT_MARGIN_MILLIS;
+    }
+
+    /**
+     * @return biggest rendered page in bytes which {@code AsyncSeoFilter} buffers, 10 MiB by default
+     */
+    public int getRenderMaxBodyBytes() {
+        final Integer maxBodyBytes = getInteger(Constants.InitFilterParams.RENDER_MAX_BODY_BYTES);
+        return maxBodyBytes != null ? maxBodyBytes : 10 * 1024 * 1024;
+    }
+
     private HttpClientBuilder configureProxy(HttpClientBuilder builder) {
+        final HttpHost proxy = getProxy();
+        if (proxy != null) {
+            DefaultProxyRoutePlanner routePlanner = new DefaultProxyRoutePlanner(proxy);
+            builder.setRoutePlanner(routePlanner);
+        }
+        return builder;
+    }
+
+    /**
+     * @return proxy to Rendertron or null if it is not configured
+     */
+    public HttpHost getProxy() {
         final String proxy = config.get(Constants.InitFilterParams.PROXY);
         if (isNotBlank(proxy)) {
             final int proxyPort = Integer.parseInt(config.get(Constants.InitFilterParams.PROXY_PORT));
-            DefaultProxyRoutePlanner routePlanner = new DefaultProxyRoutePlanner(new HttpHost(proxy, proxyPort));
-            builder.setRoutePlanner(routePlanner);
+            return new HttpHost(proxy, proxyPort);
         }
-        return builder;
+        return null;
     }
 
     private HttpClientBuilder configureTimeout(HttpClientBuilder builder) {
-        final String socketTimeout = getSocketTimeout();
-        if (socketTimeout != null) {
-            RequestConfig config = RequestConfig.custom().setSocketTimeout(Integer.parseInt(socketTimeout)).build();
-            builder.setDefaultRequestConfig(config);
+        builder.setDefaultRequestConfig(getRequestConfig());
+        return builder;
+    }
+
+    /**
+     * Connections are kept alive as long as Rendertron tells in the Keep-Alive header, or for the configured time.
+     */
+    private HttpClientBuilder configureKeepAlive(HttpClientBuilder builder) {
+        final Long keepAlive = getLong(Constants.InitFilterParams.CONNECTION_KEEP_ALIVE);
+        if (keepAlive != null) {
+            builder.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+                @Override
+                public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                    final long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return duration > 0 ? duration : keepAlive;
+                }
+            });
+        }
+        return builder;
+    }
+
+    /**
+     * Starts the background thread of the client which closes expired connections and connections idle for too long.
+     */
+    private HttpClientBuilder configureEviction(HttpClientBuilder builder) {
+        final Long maxIdleTime = getLong(Constants.InitFilterParams.EVICT_IDLE_CONNECTIONS);
+        if (maxIdleTime != null) {
+            builder.evictExpiredConnections().evictIdleConnections(maxIdleTime.longValue(), TimeUnit.MILLISECONDS);
         }
         return builder;
     }
 
+    /**
+     * The request executor runs once the connection is leased and connected, which ends {@link RenderTrace.Phase#CONNECT}.
+     */
+    private HttpClientBuilder configureTracing(HttpClientBuilder builder) {
+        return builder.setRequestExecutor(new HttpRequestExecutor() {
+            @Override
+            public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context)
+                    throws IOException, HttpException {
+                final Object trace = context.getAttribute(RenderTrace.ATTRIBUTE);
+                if (trace instanceof RenderTrace) {
+                    ((RenderTrace) trace).connected();
+                }
+                return super.execute(request, conn, context);
+            }
+        });
+    }
+
+    private Integer getInteger(String name) {
+        final String value = config.get(name);
+        return isNotBlank(value) ? Integer.valueOf(value.trim()) : null;
+    }
+
+    private Long getLong(String name) {
+        final String value = config.get(name);
+        return isNotBlank(value) ? Long.valueOf(value.trim()) : null;
+    }
+
     public String getSocketTimeout() {
         return config.get(Constants.InitFilterParams.SOCKET_TIMEOUT);
     }
@@ -92,6 +321,11 @@ public class Config {
         return crawlerUserAgents;
     }
 
+    public int getCrawlerUserAgentsCacheSize() {
+        final String cacheSize = config.get(Constants.InitFilterParams.CRAWLER_USER_AGENTS_CACHE_SIZE);
+        return isNotBlank(cacheSize) ? Integer.parseInt(cacheSize.trim()) : 1024;
+    }
+
     public List<String> getExtensionsToIgnore() {
         List<String> extensionsToIgnore = new ArrayList<String>(Arrays.asList(".js", ".json", ".css", ".xml", ".less", ".png", ".jpg",
                 ".jpeg", ".gif", ".pdf", ".doc", ".txt", ".ico", ".rss", ".zip", ".mp3", ".rar", ".exe", ".wmv",
@@ -121,6 +355,34 @@ public class Config {
         return null;
     }
 
+    /**
+     * @return names of the only client headers forwarded to Rendertron, or null to forward all of them
+     */
+    public List<String> getHeaderWhitelist() {
+        return getHeaderNames(Constants.InitFilterParams.HEADER_WHITELIST);
+    }
+
+    /**
+     * @return names of the client headers which are not forwarded to Rendertron, or null
+     */
+    public List<String> getHeaderBlacklist() {
+        return getHeaderNames(Constants.InitFilterParams.HEADER_BLACKLIST);
+    }
+
+    private List<String> getHeaderNames(String name) {
+        final String headerNames = config.get(name);
+        if (isNotBlank(headerNames)) {
+            final List<String> names = new ArrayList<String>();
+            for (String headerName : headerNames.split(",")) {
+                if (isNotBlank(headerName)) {
+                    names.add(headerName.trim());
+                }
+            }
+            return names;
+        }
+        return null;
+    }
+
     public String getServiceUrl() {
         final String serviceUrl = config.get(Constants.InitFilterParams.RENDERTRON_SERVICE_URL);
         if (isBlank(serviceUrl)){
@@ -129,6 +391,211 @@ public class Config {
         return serviceUrl;
     }
 
+    /**
+     * @return urls of the Rendertron instances, {@link Constants.InitFilterParams#RENDERTRON_SERVICE_URL} is a comma separated list
+     */
+    public List<String> getServiceUrls() {
+        final List<String> serviceUrls = new ArrayList<String>();
+        for (String serviceUrl : getServiceUrl().trim().split(",")) {
+            if (isNotBlank(serviceUrl)) {
+                serviceUrls.add(serviceUrl.trim());
+            }
+        }
+        return serviceUrls;
+    }
+
+    /**
+     * @return canonicalizer of the urls which are rendered and cached or null if {@link Constants.InitFilterParams#CANONICALIZE_URLS}
+     * is not set
+     */
+    public UrlCanonicalizer getUrlCanonicalizer() {
+        final String canonicalize = config.get(Constants.InitFilterParams.CANONICALIZE_URLS);
+        if (isBlank(canonicalize) || !Boolean.parseBoolean(canonicalize.trim())) {
+            return null;
+        }
+        return new UrlCanonicalizer(getIgnoredQueryParameters());
+    }
+
+    /**
+     * @return query parameters removed by {@link UrlCanonicalizer}, utm_*, gclid and fbclid by default
+     */
+    public List<String> getIgnoredQueryParameters() {
+        final String ignoredParameters = config.get(Constants.InitFilterParams.IGNORED_QUERY_PARAMETERS);
+        if (ignoredParameters == null) {
+            return UrlCanonicalizer.DEFAULT_IGNORED_PARAMETERS;
+        }
+        final List<String> parameters = new ArrayList<String>();
+        for (String parameter : ignoredParameters.trim().split(",")) {
+            if (isNotBlank(parameter)) {
+                parameters.add(parameter.trim());
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * @return balancer over {@link #getServiceUrls()} or null if {@link Constants.InitFilterParams#RENDERTRON_SERVICE_URL} is not set
+     */
+    public RendertronLoadBalancer getLoadBalancer() {
+        if (isBlank(config.get(Constants.InitFilterParams.RENDERTRON_SERVICE_URL))) {
+            return null;
+        }
+        final String strategy = config.get(Constants.InitFilterParams.LOAD_BALANCING);
+        final Integer maxFailures = getInteger(Constants.InitFilterParams.BACKEND_MAX_FAILURES);
+        final Long ejectionMillis = getLong(Constants.InitFilterParams.BACKEND_EJECTION_MILLIS);
+        return new RendertronLoadBalancer(getServiceUrls(),
+                isNotBlank(strategy) ? RendertronLoadBalancer.Strategy.valueOf(strategy.trim().toUpperCase(Locale.ROOT)) :
+                        RendertronLoadBalancer.Strategy.POWER_OF_TWO_CHOICES,
+                maxFailures != null ? maxFailures : 5,
+                ejectionMillis != null ? ejectionMillis : TimeUnit.SECONDS.toMillis(30));
+    }
+
+    /**
+     * @return cache of rendered pages or null if neither {@link Constants.InitFilterParams#RENDER_CACHE_MAX_BYTES}
+     * nor {@link Constants.InitFilterParams#RENDER_CACHE_DIRECTORY} is set
+     */
+    public RenderCache getRenderCache() {
+        final long ttlMillis = TimeUnit.SECONDS.toMillis(getRenderCacheTtlSeconds());
+        final Long staleSeconds = getRenderCacheStaleSeconds();
+        RenderCache memoryCache = null;
+        final String maxBytes = config.get(Constants.InitFilterParams.RENDER_CACHE_MAX_BYTES);
+        if (isNotBlank(maxBytes) && Long.parseLong(maxBytes.trim()) > 0) {
+            memoryCache = staleSeconds != null ?
+                    new InMemoryRenderCache(Long.parseLong(maxBytes.trim()), ttlMillis, TimeUnit.SECONDS.toMillis(staleSeconds)) :
+                    new InMemoryRenderCache(Long.parseLong(maxBytes.trim()), ttlMillis);
+        }
+        RenderCache fileCache = null;
+        final String directory = config.get(Constants.InitFilterParams.RENDER_CACHE_DIRECTORY);
+        if (isNotBlank(directory)) {
+            try {
+                fileCache = new MappedFileRenderCache(new File(directory.trim()), getRenderCacheDirectoryMaxBytes(),
+                        getRenderCacheSegmentBytes(), ttlMillis,
+                        staleSeconds != null ? TimeUnit.SECONDS.toMillis(staleSeconds) : 0, TimeUnit.MINUTES.toMillis(1));
+            } catch (IOException e) {
+                log.error("Render cache directory can not be used, pages won't be cached off-heap", e);
+            }
+        }
+        if (memoryCache != null && fileCache != null) {
+            return new TieredRenderCache(memoryCache, fileCache);
+        }
+        return memoryCache != null ? memoryCache : fileCache;
+    }
+
+    public long getRenderCacheDirectoryMaxBytes() {
+        final String maxBytes = config.get(Constants.InitFilterParams.RENDER_CACHE_DIRECTORY_MAX_BYTES);
+        return isNotBlank(maxBytes) ? Long.parseLong(maxBytes.trim()) : 1024L * 1024 * 1024;
+    }
+
+    public int getRenderCacheSegmentBytes() {
+        final String segmentBytes = config.get(Constants.InitFilterParams.RENDER_CACHE_SEGMENT_BYTES);
+        return isNotBlank(segmentBytes) ? Integer.parseInt(segmentBytes.trim()) : 64 * 1024 * 1024;
+    }
+
+    public long getRenderCacheTtlSeconds() {
+        final String ttl = config.get(Constants.InitFilterParams.RENDER_CACHE_TTL_SECONDS);
+        return isNotBlank(ttl) ? Long.parseLong(ttl.trim()) : 3600;
+    }
+
+    /**
+     * @return true if rendered pages are cached gzipped
+     */
+    public boolean isRenderCacheGzip() {
+        final String gzip = config.get(Constants.InitFilterParams.RENDER_CACHE_GZIP);
+        return isNotBlank(gzip) && Boolean.parseBoolean(gzip.trim());
+    }
+
+    /**
+     * @return how long after {@link #getRenderCacheTtlSeconds()} an expired page is served while it is re-rendered
+     * in the background, or null if expired pages are rendered again by the request
+     */
+    public Long getRenderCacheStaleSeconds() {
+        return getLong(Constants.InitFilterParams.RENDER_CACHE_STALE_SECONDS);
+    }
+
+    /**
+     * @return pool of background re-renders or null if {@link Constants.InitFilterParams#RENDER_CACHE_STALE_SECONDS} is not set
+     */
+    public RenderRevalidator getRenderRevalidator() {
+        if (getRenderCacheStaleSeconds() == null) {
+            return null;
+        }
+        final Integer threads = getInteger(Constants.InitFilterParams.REVALIDATION_THREADS);
+        final Integer queueSize = getInteger(Constants.InitFilterParams.REVALIDATION_QUEUE_SIZE);
+        return new RenderRevalidator(threads != null ? threads : 2, queueSize != null ? queueSize : 100);
+    }
+
+    /**
+     * @return sitemaps or url lists to warm the render cache from after the start, empty if warming is not configured
+     */
+    public List<String> getWarmUpUrls() {
+        final List<String> sources = new ArrayList<String>();
+        final String warmUpUrls = config.get(Constants.InitFilterParams.WARM_UP_URLS);
+        if (isNotBlank(warmUpUrls)) {
+            for (String source : warmUpUrls.trim().split(",")) {
+                if (isNotBlank(source)) {
+                    sources.add(source.trim());
+                }
+            }
+        }
+        return sources;
+    }
+
+    public int getWarmUpConcurrency() {
+        final Integer concurrency = getInteger(Constants.InitFilterParams.WARM_UP_CONCURRENCY);
+        return concurrency != null ? concurrency : 2;
+    }
+
+    /**
+     * @return warming renders started per second, 0 for no limit
+     */
+    public double getWarmUpRate() {
+        final String rate = config.get(Constants.InitFilterParams.WARM_UP_RATE);
+        return isNotBlank(rate) ? Double.parseDouble(rate.trim()) : 0;
+    }
+
+    /**
+     * @return how long in milliseconds a request waits for a concurrent render of the same page,
+     * or null if renders are not coalesced
+     */
+    public Long getRenderCoalescingTimeout() {
+        final String timeout = config.get(Constants.InitFilterParams.RENDER_COALESCING_TIMEOUT);
+        return isNotBlank(timeout) ? Long.valueOf(timeout.trim()) : null;
+    }
+
+    /**
+     * @return upper bound of the adaptive limit of concurrent renders, 0 if renders are not limited
+     */
+    public int getRenderConcurrencyLimit() {
+        final String limit = config.get(Constants.InitFilterParams.RENDER_CONCURRENCY_LIMIT);
+        return isNotBlank(limit) ? Integer.parseInt(limit.trim()) : 0;
+    }
+
+    /**
+     * @return circuit breaker in front of Rendertron or null if {@link Constants.InitFilterParams#CIRCUIT_BREAKER_FAILURE_RATE} is not set
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        final String failureRate = config.get(Constants.InitFilterParams.CIRCUIT_BREAKER_FAILURE_RATE);
+        if (isBlank(failureRate)) {
+            return null;
+        }
+        final String windowSize = config.get(Constants.InitFilterParams.CIRCUIT_BREAKER_WINDOW_SIZE);
+        final String slowCallMillis = config.get(Constants.InitFilterParams.CIRCUIT_BREAKER_SLOW_CALL_MILLIS);
+        final String openMillis = config.get(Constants.InitFilterParams.CIRCUIT_BREAKER_OPEN_MILLIS);
+        return new CircuitBreaker(
+                isNotBlank(windowSize) ? Integer.parseInt(windowSize.trim()) : 20,
+                Integer.parseInt(failureRate.trim()),
+                isNotBlank(slowCallMillis) ? Long.parseLong(slowCallMillis.trim()) : 0,
+                isNotBlank(openMillis) ? Long.parseLong(openMillis.trim()) : TimeUnit.SECONDS.toMillis(30));
+    }
+
+    /**
+     * @return true if AsyncSeoFilter has to call Rendertron with the blocking client on virtual threads
+     */
+    public boolean isRenderOnVirtualThreads() {
+        final String virtualThreads = config.get(Constants.InitFilterParams.RENDER_ON_VIRTUAL_THREADS);
+        return isNotBlank(virtualThreads) && Boolean.parseBoolean(virtualThreads.trim());
+    }
+
     public String getForwardedURLPrefix() {
         return config.get(Constants.InitFilterParams.FORWARDED_URL_PREFIX);
     }
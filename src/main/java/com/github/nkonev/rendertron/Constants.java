@@ -4,17 +4,59 @@ public class Constants {
 
     public static class InitFilterParams {
         public static final String RENDERTRON_EVENT_HANDLER = "eventHandler";
+        public static final String STREAMING_EVENT_HANDLERS = "streamingEventHandlers";
         public static final String PROXY = "proxy";
         public static final String PROXY_PORT = "proxyPort";
+        public static final String ASYNC_TIMEOUT = "asyncTimeout";
+        public static final String RENDER_MAX_BODY_BYTES = "renderMaxBodyBytes";
         public static final String SOCKET_TIMEOUT = "socketTimeout";
+        public static final String CONNECT_TIMEOUT = "connectTimeout";
+        public static final String CONNECTION_REQUEST_TIMEOUT = "connectionRequestTimeout";
+        public static final String MAX_CONNECTIONS = "maxConnections";
+        public static final String MAX_CONNECTIONS_PER_ROUTE = "maxConnectionsPerRoute";
+        public static final String CONNECTION_TIME_TO_LIVE = "connectionTimeToLive";
+        public static final String CONNECTION_KEEP_ALIVE = "connectionKeepAlive";
+        public static final String VALIDATE_AFTER_INACTIVITY = "validateAfterInactivity";
+        public static final String EVICT_IDLE_CONNECTIONS = "evictIdleConnections";
 
         public static final String FORWARDED_URL_HEADER = "forwardedURLHeader";
         public static final String FORWARDED_URL_PREFIX_HEADER = "forwardedURLPrefixHeader";
         public static final String FORWARDED_URL_PREFIX = "forwardedURLPrefix";
         public static final String CRAWLER_USER_AGENTS = "crawlerUserAgents";
+        public static final String CRAWLER_USER_AGENTS_CACHE_SIZE = "crawlerUserAgentsCacheSize";
         public static final String EXTENSIONS_TO_IGNORE = "extensionsToIgnore";
         public static final String WHITELIST = "whitelist";
         public static final String BLACKLIST = "blacklist";
+        public static final String HEADER_WHITELIST = "headerWhitelist";
+        public static final String HEADER_BLACKLIST = "headerBlacklist";
         public static final String RENDERTRON_SERVICE_URL = "serviceUrl";
+        public static final String CANONICALIZE_URLS = "canonicalizeUrls";
+        public static final String METRICS = "metrics";
+        public static final String SERVER_TIMING = "serverTiming";
+        public static final String SLOW_RENDER_MILLIS = "slowRenderMillis";
+        public static final String RENDER_TRACE_LISTENER = "renderTraceListener";
+        public static final String IGNORED_QUERY_PARAMETERS = "ignoredQueryParameters";
+        public static final String LOAD_BALANCING = "loadBalancing";
+        public static final String BACKEND_MAX_FAILURES = "backendMaxFailures";
+        public static final String BACKEND_EJECTION_MILLIS = "backendEjectionMillis";
+        public static final String RENDER_CACHE_MAX_BYTES = "renderCacheMaxBytes";
+        public static final String RENDER_CACHE_TTL_SECONDS = "renderCacheTtlSeconds";
+        public static final String RENDER_CACHE_STALE_SECONDS = "renderCacheStaleSeconds";
+        public static final String RENDER_CACHE_GZIP = "renderCacheGzip";
+        public static final String REVALIDATION_THREADS = "revalidationThreads";
+        public static final String REVALIDATION_QUEUE_SIZE = "revalidationQueueSize";
+        public static final String WARM_UP_URLS = "warmUpUrls";
+        public static final String WARM_UP_CONCURRENCY = "warmUpConcurrency";
+        public static final String WARM_UP_RATE = "warmUpRate";
+        public static final String RENDER_CACHE_DIRECTORY = "renderCacheDirectory";
+        public static final String RENDER_CACHE_DIRECTORY_MAX_BYTES = "renderCacheDirectoryMaxBytes";
+        public static final String RENDER_CACHE_SEGMENT_BYTES = "renderCacheSegmentBytes";
+        public static final String RENDER_COALESCING_TIMEOUT = "renderCoalescingTimeout";
+        public static final String RENDER_ON_VIRTUAL_THREADS = "renderOnVirtualThreads";
+        public static final String RENDER_CONCURRENCY_LIMIT = "renderConcurrencyLimit";
+        public static final String CIRCUIT_BREAKER_FAILURE_RATE = "circuitBreakerFailureRate";
+        public static final String CIRCUIT_BREAKER_WINDOW_SIZE = "circuitBreakerWindowSize";
+        public static final String CIRCUIT_BREAKER_SLOW_CALL_MILLIS = "circuitBreakerSlowCallMillis";
+        public static final String CIRCUIT_BREAKER_OPEN_MILLIS = "circuitBreakerOpenMillis";
     }
 }
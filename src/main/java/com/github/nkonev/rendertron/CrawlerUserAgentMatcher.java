@@ -0,0 +1,197 @@
+package com.github.nkonev.rendertron;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+
+/**
+ * Finds out whether a User-Agent contains any of the crawler tokens, ignoring case.
+ * All ASCII tokens are compiled into one Aho-Corasick automaton, so the User-Agent is scanned
+ * once no matter how many tokens are configured. Verdicts are remembered in a bounded
+ * {@link UserAgentVerdictCache} because real traffic reuses a small set of User-Agent strings.
+ * Neither a cache hit nor the automaton scan allocates.
+ */
+public class CrawlerUserAgentMatcher {
+    private static final int ROOT = 0;
+    /**
+     * Longer User-Agents are still matched but are not cached, so the cache memory stays bounded.
+     */
+    private static final int MAX_CACHED_USER_AGENT_LENGTH = 512;
+
+    /**
+     * Maps a case folded ASCII char to its column in {@link #transitions}. Chars which are not used
+     * by any token share column 0, which always leads back to the root.
+     */
+    private final int[] charClasses = new int[128];
+    private final int alphabetSize;
+    /**
+     * Complete DFA: {@code transitions[state * alphabetSize + charClass]} is the next state.
+     */
+    private final int[] transitions;
+    /**
+     * True for states where some token ends, directly or through the failure links.
+     */
+    private final boolean[] matching;
+    /**
+     * Tokens with non ASCII chars can't be put into the automaton and are searched one by one.
+     */
+    private final String[] nonAsciiTokens;
+    private final boolean matchesAnything;
+    private final UserAgentVerdictCache cache;
+
+    public CrawlerUserAgentMatcher(List<String> tokens, int cacheSize) {
+        final List<String> asciiTokens = new ArrayList<String>();
+        final List<String> otherTokens = new ArrayList<String>();
+        boolean empty = false;
+        for (String token : tokens) {
+            final String lowerCaseToken = token.toLowerCase(Locale.ENGLISH);
+            if (lowerCaseToken.length() == 0) {
+                empty = true;
+            } else if (isAscii(lowerCaseToken)) {
+                asciiTokens.add(lowerCaseToken);
+            } else {
+                otherTokens.add(lowerCaseToken);
+            }
+        }
+        this.matchesAnything = empty;
+        this.nonAsciiTokens = otherTokens.toArray(new String[otherTokens.size()]);
+
+        int classes = 1;
+        for (String token : asciiTokens) {
+            for (int i = 0; i < token.length(); i++) {
+                final char c = token.charAt(i);
+                if (charClasses[c] == 0) {
+                    charClasses[c] = classes++;
+                }
+            }
+        }
+        this.alphabetSize = classes;
+
+        // goto function of the trie, -1 is "no edge"
+        final List<int[]> trie = new ArrayList<int[]>();
+        final List<Boolean> ends = new ArrayList<Boolean>();
+        trie.add(newRow());
+        ends.add(Boolean.FALSE);
+        for (String token : asciiTokens) {
+            int state = ROOT;
+            for (int i = 0; i < token.length(); i++) {
+                final int charClass = charClasses[token.charAt(i)];
+                if (trie.get(state)[charClass] < 0) {
+                    trie.get(state)[charClass] = trie.size();
+                    trie.add(newRow());
+                    ends.add(Boolean.FALSE);
+                }
+                state = trie.get(state)[charClass];
+            }
+            ends.set(state, Boolean.TRUE);
+        }
+
+        final int states = trie.size();
+        this.transitions = new int[states * alphabetSize];
+        this.matching = new boolean[states];
+        final int[] failure = new int[states];
+
+        // breadth first, so the failure state of a node is always complete before the node itself
+        final Queue<Integer> queue = new LinkedList<Integer>();
+        for (int charClass = 0; charClass < alphabetSize; charClass++) {
+            final int next = trie.get(ROOT)[charClass];
+            if (next > 0) {
+                failure[next] = ROOT;
+                transitions[charClass] = next;
+                queue.add(next);
+            } else {
+                transitions[charClass] = ROOT;
+            }
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            matching[state] = ends.get(state) || matching[failure[state]];
+            for (int charClass = 0; charClass < alphabetSize; charClass++) {
+                final int next = trie.get(state)[charClass];
+                if (next > 0) {
+                    failure[next] = transitions[failure[state] * alphabetSize + charClass];
+                    transitions[state * alphabetSize + charClass] = next;
+                    queue.add(next);
+                } else {
+                    transitions[state * alphabetSize + charClass] = transitions[failure[state] * alphabetSize + charClass];
+                }
+            }
+        }
+
+        this.cache = cacheSize > 0 ? new UserAgentVerdictCache(cacheSize) : null;
+    }
+
+    private int[] newRow() {
+        final int[] row = new int[alphabetSize];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    /**
+     * @return true if the User-Agent contains one of the crawler tokens
+     */
+    public boolean matches(String userAgent) {
+        if (cache == null || userAgent.length() > MAX_CACHED_USER_AGENT_LENGTH) {
+            return scan(userAgent);
+        }
+        final int cached = cache.get(userAgent);
+        if (cached != UserAgentVerdictCache.UNKNOWN) {
+            return cached == UserAgentVerdictCache.CRAWLER;
+        }
+        final boolean verdict = scan(userAgent);
+        cache.put(userAgent, verdict);
+        return verdict;
+    }
+
+    private boolean scan(String userAgent) {
+        if (matchesAnything) {
+            return true;
+        }
+        int state = ROOT;
+        for (int i = 0, length = userAgent.length(); i < length; i++) {
+            state = transitions[state * alphabetSize + charClass(userAgent.charAt(i))];
+            if (matching[state]) {
+                return true;
+            }
+        }
+        for (String token : nonAsciiTokens) {
+            if (containsIgnoreCase(userAgent, token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int charClass(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return charClasses[c + ('a' - 'A')];
+        }
+        if (c < 128) {
+            return charClasses[c];
+        }
+        final char lowerCase = Character.toLowerCase(c);
+        return lowerCase < 128 ? charClasses[lowerCase] : 0;
+    }
+
+    private static boolean isAscii(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(String str, String lowerCaseToken) {
+        final int length = lowerCaseToken.length();
+        for (int i = 0, last = str.length() - length; i <= last; i++) {
+            if (str.regionMatches(true, i, lowerCaseToken, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
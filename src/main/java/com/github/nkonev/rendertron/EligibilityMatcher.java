@@ -0,0 +1,131 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.client.methods.HttpGet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Precompiled, immutable form of the eligibility rules from {@link Config}.
+ * It is built once per {@link SeoService}, so the checks made on every request
+ * neither rebuild the lists nor compile the whitelist/blacklist regexes.
+ */
+public class EligibilityMatcher {
+    private final CrawlerUserAgentMatcher crawlerUserAgents;
+    private final ExtensionMatcher extensionsToIgnore;
+    /**
+     * Whitelist (blacklist) regexes joined into one alternation, so one {@link java.util.regex.Matcher}
+     * is needed per check instead of one per regex, followed by the regexes which refer to their own groups
+     * and can't be joined. {@code null} means the list is not configured.
+     */
+    private final Pattern[] whitelist;
+    private final Pattern[] blacklist;
+
+    public EligibilityMatcher(Config config) {
+        this.crawlerUserAgents = new CrawlerUserAgentMatcher(config.getCrawlerUserAgents(),
+                config.getCrawlerUserAgentsCacheSize());
+        this.extensionsToIgnore = new ExtensionMatcher(config.getExtensionsToIgnore());
+        this.whitelist = compile(config.getWhitelist());
+        this.blacklist = compile(config.getBlacklist());
+    }
+
+    /**
+     * @return true if a request with these attributes should be answered with the rendered page
+     */
+    public boolean matches(String method, String url, String referer, String userAgent) {
+        return isGet(method)
+                && isCrawler(userAgent)
+                && !isResource(url)
+                && isInWhitelist(url)
+                && !isInBlacklist(url, referer);
+    }
+
+    public boolean isGet(String method) {
+        return HttpGet.METHOD_NAME.equals(method);
+    }
+
+    public boolean isCrawler(String userAgent) {
+        return !isBlank(userAgent) && crawlerUserAgents.matches(userAgent);
+    }
+
+    public boolean isResource(String url) {
+        return extensionsToIgnore.matches(url);
+    }
+
+    /**
+     * @return true if the whitelist is not configured or the url matches one of its regexes
+     */
+    public boolean isInWhitelist(String url) {
+        return whitelist == null || matches(whitelist, url);
+    }
+
+    /**
+     * @return true if the blacklist is configured and the url or the referer matches one of its regexes
+     */
+    public boolean isInBlacklist(String url, String referer) {
+        return blacklist != null &&
+                (matches(blacklist, url) || (!isBlank(referer) && matches(blacklist, referer)));
+    }
+
+    private static boolean matches(Pattern[] patterns, String input) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(input).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Pattern[] compile(List<String> regexes) {
+        if (regexes == null) {
+            return null;
+        }
+        final StringBuilder alternation = new StringBuilder();
+        final List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String regex : regexes) {
+            if (hasGroupReferences(regex)) {
+                patterns.add(Pattern.compile(regex));
+                continue;
+            }
+            if (alternation.length() > 0) {
+                alternation.append('|');
+            }
+            alternation.append("(?:").append(regex).append(')');
+        }
+        if (alternation.length() > 0 || patterns.isEmpty()) {
+            patterns.add(0, Pattern.compile(alternation.toString()));
+        }
+        return patterns.toArray(new Pattern[patterns.size()]);
+    }
+
+    /**
+     * Groups are renumbered in an alternation and group names must be unique in it, so a regex with
+     * a back reference like {@code \1} or a named group can't be joined with the others.
+     */
+    static boolean hasGroupReferences(String regex) {
+        boolean quoted = false;
+        for (int i = 0; i < regex.length() - 1; i++) {
+            final char c = regex.charAt(i);
+            final char next = regex.charAt(i + 1);
+            if (quoted) {
+                if (c == '\\' && next == 'E') {
+                    quoted = false;
+                    i++;
+                }
+            } else if (c == '\\') {
+                if ((next >= '1' && next <= '9') || next == 'k') {
+                    return true;
+                }
+                quoted = next == 'Q';
+                i++;
+            } else if (c == '(' && regex.startsWith("(?<", i) && i + 3 < regex.length()
+                    && regex.charAt(i + 3) != '=' && regex.charAt(i + 3) != '!') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.nkonev.rendertron;
+
+/**
+ * Stages of the eligibility check in the order {@link SeoService} runs them, cheapest first.
+ * A request is rendered only if no stage rejects it.
+ */
+public enum EligibilityStage {
+    /**
+     * Request is not HTTP GET.
+     */
+    METHOD,
+    /**
+     * User-Agent is blank or is not a crawler.
+     */
+    USER_AGENT,
+    /**
+     * Request is for a static resource, see {@link Constants.InitFilterParams#EXTENSIONS_TO_IGNORE}.
+     */
+    RESOURCE,
+    /**
+     * Whitelist is configured and the url is not in it.
+     */
+    WHITELIST,
+    /**
+     * Blacklist is configured and the url or the referer is in it.
+     */
+    BLACKLIST
+}
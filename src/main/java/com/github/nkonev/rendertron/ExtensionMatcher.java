@@ -0,0 +1,151 @@
+package com.github.nkonev.rendertron;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Finds out whether the path of an url ends with one of the ignored extensions, ignoring case.
+ * The extensions are stored reversed in a trie, so the url is walked once backwards from the end
+ * of its path (the first {@code ?} or {@code #}), folding case on the fly and without allocation.
+ * The walk stops as soon as no extension can match any more, usually within the last path segment.
+ */
+public class ExtensionMatcher {
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    /**
+     * Maps a case folded ASCII char to its column in {@link #children}; 0 means no extension contains the char.
+     */
+    private final int[] charClasses = new int[128];
+    private final int alphabetSize;
+    /**
+     * {@code children[node * alphabetSize + charClass]} is the child node or {@link #NONE}.
+     */
+    private final int[] children;
+    private final boolean[] terminal;
+    private final String[] nonAsciiExtensions;
+    private final boolean matchesAnything;
+
+    public ExtensionMatcher(List<String> extensions) {
+        final List<String> asciiExtensions = new ArrayList<String>();
+        final List<String> otherExtensions = new ArrayList<String>();
+        boolean empty = false;
+        for (String extension : extensions) {
+            final String lowerCaseExtension = extension.toLowerCase(Locale.ENGLISH);
+            if (lowerCaseExtension.length() == 0) {
+                empty = true;
+            } else if (isAscii(lowerCaseExtension)) {
+                asciiExtensions.add(lowerCaseExtension);
+            } else {
+                otherExtensions.add(lowerCaseExtension);
+            }
+        }
+        this.matchesAnything = empty;
+        this.nonAsciiExtensions = otherExtensions.toArray(new String[otherExtensions.size()]);
+
+        int classes = 1;
+        for (String extension : asciiExtensions) {
+            for (int i = 0; i < extension.length(); i++) {
+                final char c = extension.charAt(i);
+                if (charClasses[c] == 0) {
+                    charClasses[c] = classes++;
+                }
+            }
+        }
+        this.alphabetSize = classes;
+
+        final List<int[]> nodes = new ArrayList<int[]>();
+        final List<Boolean> ends = new ArrayList<Boolean>();
+        nodes.add(newNode());
+        ends.add(Boolean.FALSE);
+        for (String extension : asciiExtensions) {
+            int node = ROOT;
+            for (int i = extension.length() - 1; i >= 0; i--) {
+                final int charClass = charClasses[extension.charAt(i)];
+                if (nodes.get(node)[charClass] == NONE) {
+                    nodes.get(node)[charClass] = nodes.size();
+                    nodes.add(newNode());
+                    ends.add(Boolean.FALSE);
+                }
+                node = nodes.get(node)[charClass];
+            }
+            ends.set(node, Boolean.TRUE);
+        }
+
+        this.children = new int[nodes.size() * alphabetSize];
+        this.terminal = new boolean[nodes.size()];
+        for (int node = 0; node < nodes.size(); node++) {
+            System.arraycopy(nodes.get(node), 0, children, node * alphabetSize, alphabetSize);
+            terminal[node] = ends.get(node);
+        }
+    }
+
+    private int[] newNode() {
+        final int[] node = new int[alphabetSize];
+        Arrays.fill(node, NONE);
+        return node;
+    }
+
+    /**
+     * @return true if the path of the url (without query string and fragment) ends with one of the extensions
+     */
+    public boolean matches(String url) {
+        if (matchesAnything) {
+            return true;
+        }
+        final int end = pathEnd(url);
+        int node = ROOT;
+        for (int i = end - 1; i >= 0; i--) {
+            final int charClass = charClass(url.charAt(i));
+            if (charClass == 0) {
+                break;
+            }
+            node = children[node * alphabetSize + charClass];
+            if (node == NONE) {
+                break;
+            }
+            if (terminal[node]) {
+                return true;
+            }
+        }
+        for (String extension : nonAsciiExtensions) {
+            final int length = extension.length();
+            if (end >= length && url.regionMatches(true, end - length, extension, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int pathEnd(String url) {
+        for (int i = 0, length = url.length(); i < length; i++) {
+            final char c = url.charAt(i);
+            if (c == '?' || c == '#') {
+                return i;
+            }
+        }
+        return url.length();
+    }
+
+    private int charClass(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return charClasses[c + ('a' - 'A')];
+        }
+        if (c < 128) {
+            return charClasses[c];
+        }
+        final char lowerCase = Character.toLowerCase(c);
+        return lowerCase < 128 ? charClasses[lowerCase] : 0;
+    }
+
+    private static boolean isAscii(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
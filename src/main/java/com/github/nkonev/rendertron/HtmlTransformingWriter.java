@@ -0,0 +1,85 @@
+package com.github.nkonev.rendertron;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Base of the writers behind the built-in {@link StreamingEventHandler}s: html is fed char by char to
+ * {@link #process(char)}, which emits the transformed html into a small buffer in front of the downstream writer.
+ * Chars a transformer holds back until it knows what to do with them are emitted by {@link #finish()} on close.
+ */
+abstract class HtmlTransformingWriter extends FilterWriter {
+    private final char[] buffer = new char[1024];
+    private int buffered;
+
+    HtmlTransformingWriter(Writer out) {
+        super(out);
+    }
+
+    protected abstract void process(char c) throws IOException;
+
+    /**
+     * Called once on close, before the downstream writer is flushed and closed.
+     */
+    protected void finish() throws IOException {
+    }
+
+    protected void emit(char c) throws IOException {
+        if (buffered == buffer.length) {
+            drain();
+        }
+        buffer[buffered++] = c;
+    }
+
+    protected void emit(CharSequence chars) throws IOException {
+        for (int i = 0; i < chars.length(); i++) {
+            emit(chars.charAt(i));
+        }
+    }
+
+    private void drain() throws IOException {
+        out.write(buffer, 0, buffered);
+        buffered = 0;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        process((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int off, int len) throws IOException {
+        for (int i = off, end = off + len; i < end; i++) {
+            process(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for (int i = off, end = off + len; i < end; i++) {
+            process(str.charAt(i));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        drain();
+        out.close();
+    }
+
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.nkonev.rendertron;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Heap {@link RenderCache} bounded by a total byte budget, with a per-entry time to live.
+ * <p>
+ * Eviction is segmented LRU: new pages go to the probation segment and are promoted to the protected
+ * segment on their second hit. The protected segment takes at most 80% of the budget; pages pushed out
+ * of it fall back to probation. When the budget is exceeded, the least recently used probation pages are
+ * evicted first, so a crawl through many pages which are requested once doesn't flush the popular ones.
+ * <p>
+ * Expired pages are kept for {@link #getStale(String)} until they are evicted or, if a maximum staleness
+ * is set, until it is exceeded.
+ */
+public class InMemoryRenderCache implements RenderCache {
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final long maxBytes;
+    private final long maxProtectedBytes;
+    private final long ttlMillis;
+    private final long maxStaleMillis;
+
+    // both maps are kept in LRU order: the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Node> probation = new LinkedHashMap<String, Node>();
+    private final LinkedHashMap<String, Node> protectedSegment = new LinkedHashMap<String, Node>();
+    private long probationBytes;
+    private long protectedBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes total byte budget; a page heavier than the budget is never cached
+     * @param ttlMillis how long a page is served from the cache
+     */
+    public InMemoryRenderCache(long maxBytes, long ttlMillis) {
+        this(maxBytes, ttlMillis, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxBytes total byte budget; a page heavier than the budget is never cached
+     * @param ttlMillis how long a page is served from the cache
+     * @param maxStaleMillis how long after expiry a page is still served by {@link #getStale(String)}
+     */
+    public InMemoryRenderCache(long maxBytes, long ttlMillis, long maxStaleMillis) {
+        this.maxBytes = maxBytes;
+        this.maxProtectedBytes = maxBytes * PROTECTED_PERCENT / 100;
+        this.ttlMillis = ttlMillis;
+        this.maxStaleMillis = maxStaleMillis;
+    }
+
+    @Override
+    public synchronized RenderedPage get(String url) {
+        Node node = probation.get(url);
+        final boolean isProbation = node != null;
+        if (node == null) {
+            node = protectedSegment.get(url);
+        }
+        // an expired page keeps its place and ages out, it may still be served by getStale()
+        if (node == null || isExpired(node)) {
+            if (node != null && isDiscarded(node)) {
+                remove(url);
+            }
+            misses++;
+            return null;
+        }
+        if (isProbation) {
+            probation.remove(url);
+            probationBytes -= node.weight;
+        } else {
+            protectedSegment.remove(url);
+            protectedBytes -= node.weight;
+        }
+        addProtected(url, node);
+        hits++;
+        return node.page;
+    }
+
+    @Override
+    public synchronized RenderedPage getStale(String url) {
+        Node node = probation.get(url);
+        if (node == null) {
+            node = protectedSegment.get(url);
+        }
+        if (node != null && isDiscarded(node)) {
+            remove(url);
+            return null;
+        }
+        return node != null ? node.page : null;
+    }
+
+    @Override
+    public synchronized void put(String url, RenderedPage page) {
+        remove(url);
+        final Node node = new Node(page, page.getWeight(), currentTimeMillis() + ttlMillis);
+        if (node.weight > maxBytes) {
+            return;
+        }
+        probation.put(url, node);
+        probationBytes += node.weight;
+        evict();
+    }
+
+    @Override
+    public synchronized void destroy() {
+        probation.clear();
+        protectedSegment.clear();
+        probationBytes = 0;
+        protectedBytes = 0;
+    }
+
+    private void remove(String url) {
+        Node node = probation.remove(url);
+        if (node != null) {
+            probationBytes -= node.weight;
+        }
+        node = protectedSegment.remove(url);
+        if (node != null) {
+            protectedBytes -= node.weight;
+        }
+    }
+
+    private void addProtected(String url, Node node) {
+        protectedSegment.put(url, node);
+        protectedBytes += node.weight;
+        // demote the least recently used protected pages back to probation
+        final Iterator<Map.Entry<String, Node>> iterator = protectedSegment.entrySet().iterator();
+        while (protectedBytes > maxProtectedBytes && iterator.hasNext()) {
+            final Map.Entry<String, Node> eldest = iterator.next();
+            if (eldest.getValue() == node) {
+                break;
+            }
+            iterator.remove();
+            protectedBytes -= eldest.getValue().weight;
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationBytes += eldest.getValue().weight;
+        }
+    }
+
+    private void evict() {
+        evict(probation.entrySet().iterator(), true);
+        evict(protectedSegment.entrySet().iterator(), false);
+    }
+
+    private void evict(Iterator<Map.Entry<String, Node>> iterator, boolean isProbation) {
+        while (probationBytes + protectedBytes > maxBytes && iterator.hasNext()) {
+            final Node eldest = iterator.next().getValue();
+            iterator.remove();
+            if (isProbation) {
+                probationBytes -= eldest.weight;
+            } else {
+                protectedBytes -= eldest.weight;
+            }
+            evictions++;
+        }
+    }
+
+    private boolean isExpired(Node node) {
+        return node.expiresAt <= currentTimeMillis();
+    }
+
+    private boolean isDiscarded(Node node) {
+        // the maximum staleness may be "forever"
+        return node.expiresAt + maxStaleMillis > node.expiresAt && node.expiresAt + maxStaleMillis <= currentTimeMillis();
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getSizeBytes() {
+        return probationBytes + protectedBytes;
+    }
+
+    public synchronized int getSize() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    private static class Node {
+        final RenderedPage page;
+        final long weight;
+        final long expiresAt;
+
+        Node(RenderedPage page, long weight, long expiresAt) {
+            this.page = page;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
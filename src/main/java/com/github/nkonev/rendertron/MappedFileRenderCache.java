@@ -0,0 +1,503 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link RenderCache} which keeps rendered pages out of the Java heap, in append-only segment files
+ * mapped into memory. Only a compact index (url hash to segment, offset and expiry) is kept on the heap.
+ * <p>
+ * Pages returned by {@link #get(String)} point straight into the mapped segment, so a hit is written to the
+ * servlet output stream without copying the body to the heap. Segments are scanned on startup, so the cache
+ * survives restarts. A background task drops pages which are past their maximum staleness and compacts segments
+ * which are mostly occupied by replaced or dropped pages, and the oldest segments are dropped when the directory
+ * exceeds its byte budget. Until a page is dropped, {@link #getStale(String)} serves it.
+ * <p>
+ * Segment files are deleted while pages from them may still be in flight; this relies on the mapping staying
+ * valid after the file is unlinked, which holds on Linux and macOS but not on Windows.
+ */
+public class MappedFileRenderCache implements RenderCache {
+    private final static Logger log = LoggerFactory.getLogger(MappedFileRenderCache.class);
+
+    private static final int MAGIC = 0x52454e44;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    /**
+     * Segments whose live records take less than this share of the written bytes are compacted.
+     */
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    private final File directory;
+    private final long maxBytes;
+    private final int segmentBytes;
+    private final long ttlMillis;
+    private final long maxStaleMillis;
+
+    private final ConcurrentHashMap<Long, Slot> index = new ConcurrentHashMap<Long, Slot>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<Integer, Segment>();
+    /**
+     * Guards appending, segment rolling and removal. Reads don't lock.
+     */
+    private final Object writeLock = new Object();
+    private Segment active;
+    private final ScheduledExecutorService compactor;
+
+    /**
+     * @param directory where segment files are kept, created if missing
+     * @param maxBytes total size of the segment files
+     * @param segmentBytes size of one segment file, a page bigger than that is never cached
+     * @param ttlMillis how long a page is served from the cache
+     * @param compactionIntervalMillis how often segments are checked for compaction, 0 disables background compaction
+     */
+    public MappedFileRenderCache(File directory, long maxBytes, int segmentBytes, long ttlMillis,
+                                 long compactionIntervalMillis) throws IOException {
+        this(directory, maxBytes, segmentBytes, ttlMillis, 0, compactionIntervalMillis);
+    }
+
+    /**
+     * @param directory where segment files are kept, created if missing
+     * @param maxBytes total size of the segment files
+     * @param segmentBytes size of one segment file, a page bigger than that is never cached
+     * @param ttlMillis how long a page is served from the cache
+     * @param maxStaleMillis how long after expiry a page is kept for {@link #getStale(String)}, 0 keeps it until
+     *                       it is evicted
+     * @param compactionIntervalMillis how often segments are checked for compaction, 0 disables background compaction
+     */
+    public MappedFileRenderCache(File directory, long maxBytes, int segmentBytes, long ttlMillis, long maxStaleMillis,
+                                 long compactionIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        this.ttlMillis = ttlMillis;
+        this.maxStaleMillis = maxStaleMillis;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create render cache directory " + directory);
+        }
+        recover();
+        synchronized (writeLock) {
+            if (active == null) {
+                active = openSegment(segments.isEmpty() ? 0 : segments.lastKey() + 1);
+            }
+        }
+        if (compactionIntervalMillis > 0) {
+            compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "rendertron-cache-compactor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            compactor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (Exception e) {
+                        log.error("Render cache compaction error", e);
+                    }
+                }
+            }, compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            compactor = null;
+        }
+    }
+
+    @Override
+    public RenderedPage get(String url) {
+        final Long key = hash(url);
+        final Slot slot = index.get(key);
+        if (slot == null) {
+            return null;
+        }
+        if (slot.expiresAt <= currentTimeMillis()) {
+            // kept for getStale() until compaction drops it
+            return null;
+        }
+        return readPage(slot, url);
+    }
+
+    @Override
+    public RenderedPage getStale(String url) {
+        final Slot slot = index.get(hash(url));
+        if (slot == null) {
+            return null;
+        }
+        if (isTooStale(slot.expiresAt, currentTimeMillis())) {
+            // too stale to be served, even if compaction didn't drop it yet
+            return null;
+        }
+        return readPage(slot, url);
+    }
+
+    private RenderedPage readPage(Slot slot, String url) {
+        final Segment segment = segments.get(slot.segmentId);
+        if (segment == null) {
+            return null;
+        }
+        return readPage(segment.buffer, slot.offset, url);
+    }
+
+    @Override
+    public void put(String url, RenderedPage page) {
+        final byte[] urlBytes = url.getBytes(Consts.UTF_8);
+        final byte[] charset = page.getCharset() != null ? page.getCharset().getBytes(Consts.UTF_8) : null;
+        final Header[] headers = page.getHeaders();
+        final byte[][] headerBytes = new byte[headers.length * 2][];
+        int length = 4 + 4 + 8 + 8 + 4 + 4 + urlBytes.length + 4 + (charset != null ? charset.length : 0) + 4;
+        for (int i = 0; i < headers.length; i++) {
+            headerBytes[2 * i] = headers[i].getName().getBytes(Consts.UTF_8);
+            headerBytes[2 * i + 1] = headers[i].getValue() != null ? headers[i].getValue().getBytes(Consts.UTF_8) : new byte[0];
+            length += 8 + headerBytes[2 * i].length + headerBytes[2 * i + 1].length;
+        }
+        length += 4 + page.getBodyLength();
+        if (length > segmentBytes) {
+            return;
+        }
+        final long expiresAt = currentTimeMillis() + ttlMillis;
+
+        synchronized (writeLock) {
+            if (active == null) {
+                return; // destroyed
+            }
+            final int offset;
+            try {
+                offset = reserve(length);
+            } catch (IOException e) {
+                log.error("Cannot open new render cache segment", e);
+                return;
+            }
+            final ByteBuffer buffer = active.buffer.duplicate();
+            buffer.position(offset + 8);
+            buffer.putLong(expiresAt);
+            buffer.putLong(page.getCreatedAt());
+            buffer.putInt(page.getStatus());
+            putBytes(buffer, urlBytes);
+            putBytes(buffer, charset);
+            buffer.putInt(headers.length);
+            for (byte[] bytes : headerBytes) {
+                putBytes(buffer, bytes);
+            }
+            buffer.putInt(page.getBodyLength());
+            buffer.put(page.getBody());
+            // the magic is written last, so a record torn by a crash is not recovered
+            active.buffer.putInt(offset + 4, length);
+            active.buffer.putInt(offset, MAGIC);
+            active.written = offset + length;
+            index(hash(url), new Slot(active.id, offset, length, expiresAt));
+        }
+        evictOverBudget();
+    }
+
+    @Override
+    public void destroy() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.close();
+            }
+            active = null;
+        }
+    }
+
+    private boolean isTooStale(long expiresAt, long now) {
+        return maxStaleMillis > 0 && expiresAt + maxStaleMillis <= now;
+    }
+
+    /**
+     * Drops pages past their maximum staleness, rewrites live records of mostly dead segments into the active
+     * segment and deletes those segments.
+     */
+    public void compact() {
+        final long now = currentTimeMillis();
+        for (Map.Entry<Long, Slot> entry : index.entrySet()) {
+            if (isTooStale(entry.getValue().expiresAt, now)) {
+                removeSlot(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Segment segment : new ArrayList<Segment>(segments.values())) {
+            if (segment == active || segment.live.get() > segment.written * COMPACTION_THRESHOLD) {
+                continue;
+            }
+            for (Map.Entry<Long, Slot> entry : index.entrySet()) {
+                final Slot slot = entry.getValue();
+                if (slot.segmentId == segment.id) {
+                    copyRecord(entry.getKey(), slot, segment);
+                }
+            }
+            dropSegment(segment);
+        }
+    }
+
+    private void copyRecord(Long key, Slot slot, Segment from) {
+        synchronized (writeLock) {
+            if (active == null || index.get(key) != slot) {
+                return;
+            }
+            final int offset;
+            try {
+                offset = reserve(slot.length);
+            } catch (IOException e) {
+                log.error("Cannot open new render cache segment", e);
+                return;
+            }
+            final ByteBuffer source = from.buffer.duplicate();
+            source.position(slot.offset).limit(slot.offset + slot.length);
+            final ByteBuffer target = active.buffer.duplicate();
+            target.position(offset);
+            target.put(source);
+            active.written = offset + slot.length;
+            index(key, new Slot(active.id, offset, slot.length, slot.expiresAt));
+        }
+    }
+
+    /**
+     * @return offset in the active segment where a record of this length fits, rolls to a new segment if needed
+     */
+    private int reserve(int length) throws IOException {
+        if (active.written + length > segmentBytes) {
+            active.buffer.force();
+            active = openSegment(active.id + 1);
+        }
+        return active.written;
+    }
+
+    private void index(Long key, Slot slot) {
+        segments.get(slot.segmentId).live.addAndGet(slot.length);
+        final Slot previous = index.put(key, slot);
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    private void removeSlot(Long key, Slot slot) {
+        if (index.remove(key, slot)) {
+            release(slot);
+        }
+    }
+
+    private void release(Slot slot) {
+        final Segment segment = segments.get(slot.segmentId);
+        if (segment != null) {
+            segment.live.addAndGet(-slot.length);
+        }
+    }
+
+    private void evictOverBudget() {
+        while ((long) segments.size() * segmentBytes > maxBytes && segments.size() > 1) {
+            final Segment oldest = segments.firstEntry().getValue();
+            if (oldest == active) {
+                return;
+            }
+            log.debug("Render cache directory is over budget, dropping segment {}", oldest.id);
+            for (Map.Entry<Long, Slot> entry : index.entrySet()) {
+                if (entry.getValue().segmentId == oldest.id) {
+                    index.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            dropSegment(oldest);
+        }
+    }
+
+    private void dropSegment(Segment segment) {
+        synchronized (writeLock) {
+            if (segment == active || segments.remove(segment.id) == null) {
+                return;
+            }
+            segment.close();
+            if (!segment.file.delete()) {
+                log.warn("Cannot delete render cache segment {}", segment.file);
+            }
+        }
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        final File file = new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        final Segment segment = new Segment(id, file, segmentBytes);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Rebuilds the index from the segment files, later records replace earlier ones for the same url.
+     */
+    private void recover() throws IOException {
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        final long now = currentTimeMillis();
+        for (File file : files) {
+            final int id = Integer.parseInt(file.getName().substring(SEGMENT_PREFIX.length(),
+                    file.getName().length() - SEGMENT_SUFFIX.length()));
+            if (file.length() != segmentBytes) {
+                log.warn("Render cache segment {} has unexpected size and is deleted", file);
+                file.delete();
+                continue;
+            }
+            final Segment segment = new Segment(id, file, segmentBytes);
+            segments.put(id, segment);
+            final MappedByteBuffer buffer = segment.buffer;
+            int offset = 0;
+            while (offset + 8 <= segmentBytes && buffer.getInt(offset) == MAGIC) {
+                final int length = buffer.getInt(offset + 4);
+                if (length <= 0 || offset + length > segmentBytes) {
+                    break;
+                }
+                final long expiresAt = buffer.getLong(offset + 8);
+                if (!isTooStale(expiresAt, now)) {
+                    index(hash(readUrl(buffer, offset)), new Slot(id, offset, length, expiresAt));
+                }
+                offset += length;
+            }
+            segment.written = offset;
+            active = segment;
+        }
+        if (!index.isEmpty()) {
+            log.info("Recovered {} rendered pages from {}", index.size(), directory);
+        }
+    }
+
+    private static String readUrl(ByteBuffer buffer, int offset) {
+        final ByteBuffer record = buffer.duplicate();
+        record.position(offset + 4 + 4 + 8 + 8 + 4);
+        return getString(record);
+    }
+
+    /**
+     * @return page of the record or null if the record belongs to another url with the same hash
+     */
+    private static RenderedPage readPage(ByteBuffer buffer, int offset, String url) {
+        final ByteBuffer record = buffer.duplicate();
+        record.position(offset + 8);
+        record.getLong(); // expiresAt
+        final long createdAt = record.getLong();
+        final int status = record.getInt();
+        if (!url.equals(getString(record))) {
+            return null;
+        }
+        final String charset = getString(record);
+        final Header[] headers = new Header[record.getInt()];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = new BasicHeader(getString(record), getString(record));
+        }
+        final int bodyLength = record.getInt();
+        record.limit(record.position() + bodyLength);
+        return new RenderedPage(status, headers, charset, record.slice(), createdAt);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, Consts.UTF_8);
+    }
+
+    /**
+     * 64 bit FNV-1a of the url chars. Collisions are detected by comparing the url stored in the record.
+     */
+    static long hash(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public int getSize() {
+        return index.size();
+    }
+
+    public long getSegmentCount() {
+        return segments.size();
+    }
+
+    private static class Slot {
+        final int segmentId;
+        final int offset;
+        final int length;
+        final long expiresAt;
+
+        Slot(int segmentId, int offset, int length, long expiresAt) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Segment {
+        final int id;
+        final File file;
+        final RandomAccessFile randomAccessFile;
+        final MappedByteBuffer buffer;
+        final AtomicLong live = new AtomicLong();
+        /**
+         * Only changed under the write lock.
+         */
+        volatile int written;
+
+        Segment(int id, File file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            this.randomAccessFile.setLength(size);
+            this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        void close() {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                log.error("Close render cache segment error", e);
+            }
+        }
+    }
+}
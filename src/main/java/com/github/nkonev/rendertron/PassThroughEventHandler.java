@@ -0,0 +1,13 @@
+package com.github.nkonev.rendertron;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * {@link EventHandler} which doesn't always need the rendered html. For requests where
+ * {@link #isAfterRenderRequired(HttpServletRequest)} returns false, {@link #afterRender} is not called and
+ * the rendered page is streamed to the client as is, without buffering and charset conversion.
+ */
+public interface PassThroughEventHandler extends EventHandler {
+
+    boolean isAfterRenderRequired(HttpServletRequest clientRequest);
+}
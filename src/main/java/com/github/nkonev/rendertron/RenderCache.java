@@ -0,0 +1,23 @@
+package com.github.nkonev.rendertron;
+
+/**
+ * Cache of rendered pages keyed by the full page url, consulted by {@link SeoService} before it calls Rendertron.
+ * Implementations must be thread safe.
+ */
+public interface RenderCache {
+
+    /**
+     * @return cached page or null if there is no fresh page for the url
+     */
+    RenderedPage get(String url);
+
+    /**
+     * Expired pages are kept until they are evicted, to be served when Rendertron is overloaded.
+     * @return cached page even if it is expired, or null if there is no page for the url
+     */
+    RenderedPage getStale(String url);
+
+    void put(String url, RenderedPage page);
+
+    void destroy();
+}
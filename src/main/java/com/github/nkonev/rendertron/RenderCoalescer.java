@@ -0,0 +1,117 @@
+package com.github.nkonev.rendertron;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-flight for renders: while one request renders a page, concurrent requests for the same page
+ * wait for its result instead of starting their own headless Chrome render.
+ * <pre>
+ * Flight flight = coalescer.join(url);
+ * if (flight == null) {
+ *     // we are the leader: render, then always
+ *     coalescer.complete(url, page);
+ * } else {
+ *     page = flight.await(timeout); // null on timeout or if the leader failed
+ * }
+ * </pre>
+ */
+public class RenderCoalescer {
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @return render in flight for the url to wait for, or null if the caller is the leader and has to render
+     * and then call {@link #complete(String, RenderedPage)}
+     */
+    public Flight join(String url) {
+        final Flight existing = flights.putIfAbsent(url, new Flight());
+        if (existing != null) {
+            coalesced.incrementAndGet();
+        }
+        return existing;
+    }
+
+    /**
+     * Publishes the result of the leader to the waiting requests.
+     * @param page rendered page or null if the render failed or can't be shared
+     */
+    public void complete(String url, RenderedPage page) {
+        final Flight flight = flights.remove(url);
+        if (flight != null) {
+            flight.complete(page);
+        }
+    }
+
+    /**
+     * @return how many requests waited for another request's render instead of rendering
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return how many renders are in flight now
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    /**
+     * Gets the result of the leader without blocking, on the thread which completes the flight.
+     */
+    public interface FlightListener {
+        /**
+         * @param page page rendered by the leader or null if the leader failed
+         */
+        void completed(RenderedPage page);
+    }
+
+    public static class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile RenderedPage page;
+        private List<FlightListener> listeners = new ArrayList<FlightListener>();
+
+        void complete(RenderedPage page) {
+            this.page = page;
+            final List<FlightListener> toNotify;
+            synchronized (this) {
+                toNotify = listeners;
+                listeners = null;
+            }
+            done.countDown();
+            for (FlightListener listener : toNotify) {
+                listener.completed(page);
+            }
+        }
+
+        /**
+         * Calls the listener when the leader completes, right away if it already has.
+         */
+        public void whenComplete(FlightListener listener) {
+            synchronized (this) {
+                if (listeners != null) {
+                    listeners.add(listener);
+                    return;
+                }
+            }
+            listener.completed(page);
+        }
+
+        /**
+         * @return page rendered by the leader or null if the leader failed or didn't finish in time
+         */
+        public RenderedPage await(long timeoutMillis) {
+            try {
+                return done.await(timeoutMillis, TimeUnit.MILLISECONDS) ? page : null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+}
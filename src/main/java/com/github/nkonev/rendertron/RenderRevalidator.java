@@ -0,0 +1,102 @@
+package com.github.nkonev.rendertron;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-renders expired pages in the background while their stale copies are served from the render cache.
+ * <p>
+ * At most one re-render per page is queued or running, and the queue is bounded: when it is full, the
+ * re-render is dropped and the stale page is served again until a later request queues it.
+ */
+public class RenderRevalidator {
+    private final static Logger log = LoggerFactory.getLogger(RenderRevalidator.class);
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, Boolean> pending = new ConcurrentHashMap<String, Boolean>();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param threads re-renders run at the same time
+     * @param queueSize re-renders waiting for a thread
+     */
+    public RenderRevalidator(int threads, int queueSize) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "rendertron-revalidator-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param url page to re-render
+     * @return false if a re-render of the page is already queued or the queue is full
+     */
+    public boolean submit(final String url, final Runnable render) {
+        if (pending.putIfAbsent(url, Boolean.TRUE) != null) {
+            return false;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        render.run();
+                        revalidated.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        log.error("Revalidation error", e);
+                    } finally {
+                        pending.remove(url);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pending.remove(url);
+            dropped.incrementAndGet();
+            log.debug("Revalidation queue is full, dropped:{}", url);
+            return false;
+        }
+    }
+
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return re-renders queued or running now
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return re-renders which were done
+     */
+    public long getRevalidatedCount() {
+        return revalidated.get();
+    }
+
+    /**
+     * @return re-renders dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,247 @@
+package com.github.nkonev.rendertron;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Where the time of a rendered request went. Phases are timed with {@link System#nanoTime()} into a fixed array,
+ * a phase which runs several times (like the reads of the body) adds up. The trace lives in a request attribute
+ * and is reported by {@link SeoService} when the request is done, see {@link RenderTraceListener}.
+ * <p>
+ * A request is handled by one thread at a time, so the trace is not synchronized; the asynchronous render hands it
+ * over between threads with the servlet container and the http client, which publish it safely.
+ */
+public class RenderTrace {
+
+    public static final String ATTRIBUTE = RenderTrace.class.getName();
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * Trace of requests which are not traced, records nothing.
+     */
+    static final RenderTrace DISABLED = new RenderTrace(false);
+
+    public enum Phase {
+        /**
+         * {@code beforeRender} of the event handler.
+         */
+        BEFORE_RENDER,
+        /**
+         * Render cache lookups.
+         */
+        CACHE,
+        /**
+         * Lease of a connection to Rendertron from the pool, and connect if the connection is new.
+         * Not measured by the asynchronous http client, it is a part of {@link #TTFB} there.
+         */
+        CONNECT,
+        /**
+         * From sending the request to Rendertron to its response headers.
+         */
+        TTFB,
+        /**
+         * Reads of the rendered body from Rendertron.
+         */
+        DOWNLOAD,
+        /**
+         * {@code afterRender} of the event handler.
+         */
+        AFTER_RENDER,
+        /**
+         * Writes to the client, with the transformations of {@link StreamingEventHandler}s.
+         */
+        WRITE;
+
+        private final String metricName = name().toLowerCase(Locale.ROOT).replace('_', '-');
+
+        /**
+         * @return name in the Server-Timing header and in the slow render log
+         */
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    private final boolean enabled;
+    private final long startedAt;
+    private final long startedAtMillis;
+    private final long[] nanos = new long[PHASES.length];
+    private int recorded;
+    private long requestStartedAt;
+    private long connectedAt;
+    private long finishedAt;
+    private String url;
+    private volatile boolean detached;
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    public RenderTrace() {
+        this(true);
+    }
+
+    private RenderTrace(boolean enabled) {
+        this.enabled = enabled;
+        this.startedAt = System.nanoTime();
+        this.startedAtMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return current {@link System#nanoTime()}, to pass to {@link #since}
+     */
+    public long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Adds the time from {@code startedAtNanos} to now to the phase.
+     * @return now, so the next phase can start from it
+     */
+    public long since(Phase phase, long startedAtNanos) {
+        if (!enabled) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        add(phase, now - startedAtNanos);
+        return now;
+    }
+
+    public void add(Phase phase, long phaseNanos) {
+        if (enabled) {
+            nanos[phase.ordinal()] += phaseNanos;
+            recorded |= 1 << phase.ordinal();
+        }
+    }
+
+    /**
+     * Called right before the request is sent to the http client.
+     */
+    void requestStarted() {
+        if (enabled) {
+            requestStartedAt = System.nanoTime();
+            connectedAt = 0;
+        }
+    }
+
+    /**
+     * Called by the http client when the connection to Rendertron is ready.
+     */
+    void connected() {
+        if (enabled && requestStartedAt != 0) {
+            connectedAt = System.nanoTime();
+            add(Phase.CONNECT, connectedAt - requestStartedAt);
+        }
+    }
+
+    /**
+     * Called when the response headers of Rendertron are received.
+     */
+    void responseReceived() {
+        if (enabled && requestStartedAt != 0) {
+            since(Phase.TTFB, connectedAt != 0 ? connectedAt : requestStartedAt);
+        }
+    }
+
+    /**
+     * @return true the first time only
+     */
+    boolean finish() {
+        if (!enabled || !finished.compareAndSet(false, true)) {
+            return false;
+        }
+        finishedAt = System.nanoTime();
+        return true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isRecorded(Phase phase) {
+        return (recorded & (1 << phase.ordinal())) != 0;
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * @return time from the start of the trace to its end, or to now if it is not finished yet
+     */
+    public long getTotalNanos() {
+        return (finishedAt != 0 ? finishedAt : System.nanoTime()) - startedAt;
+    }
+
+    /**
+     * @return wall clock time of the start in milliseconds
+     */
+    public long getStartedAtMillis() {
+        return startedAtMillis;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    void setUrl(String url) {
+        if (enabled) {
+            this.url = url;
+        }
+    }
+
+    /**
+     * Called when the request goes asynchronous, the trace is then finished by the thread which completes it.
+     */
+    void detach() {
+        if (enabled) {
+            detached = true;
+        }
+    }
+
+    boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * @return value of the Server-Timing header with the phases recorded so far, durations in milliseconds
+     */
+    public String toServerTiming() {
+        final StringBuilder serverTiming = new StringBuilder(128);
+        for (Phase phase : PHASES) {
+            if (isRecorded(phase)) {
+                if (serverTiming.length() > 0) {
+                    serverTiming.append(", ");
+                }
+                serverTiming.append(phase.getMetricName()).append(";dur=");
+                appendMillis(serverTiming, nanos[phase.ordinal()]);
+            }
+        }
+        return serverTiming.toString();
+    }
+
+    /**
+     * @return {@code key=value} pairs for the slow render log, durations in milliseconds
+     */
+    @Override
+    public String toString() {
+        final StringBuilder string = new StringBuilder(192).append("url=").append(url).append(" total=");
+        appendMillis(string, getTotalNanos());
+        for (Phase phase : PHASES) {
+            if (isRecorded(phase)) {
+                string.append(' ').append(phase.getMetricName()).append('=');
+                appendMillis(string, nanos[phase.ordinal()]);
+            }
+        }
+        return string.toString();
+    }
+
+    private static void appendMillis(StringBuilder builder, long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        builder.append(micros / 1000).append('.');
+        final long fraction = micros % 1000 / 10;
+        if (fraction < 10) {
+            builder.append('0');
+        }
+        builder.append(fraction);
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.nkonev.rendertron;
+
+/**
+ * Gets the {@link RenderTrace} of each rendered request when the request is done, set by
+ * {@link Constants.InitFilterParams#RENDER_TRACE_LISTENER}.
+ */
+public interface RenderTraceListener {
+
+    /**
+     * Called on the request thread, it should not block.
+     */
+    void onTrace(RenderTrace trace);
+}
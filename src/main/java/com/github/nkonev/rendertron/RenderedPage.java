@@ -0,0 +1,237 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.Header;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.message.BasicHeader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.apache.http.HttpHeaders.CONTENT_ENCODING;
+import static org.apache.http.HttpHeaders.ETAG;
+import static org.apache.http.HttpHeaders.LAST_MODIFIED;
+import static org.apache.http.HttpHeaders.VARY;
+
+/**
+ * Immutable result of a render: everything needed to replay the response to another crawler.
+ * The body is either a heap array or a region of a memory mapped file, see {@link MappedFileRenderCache}.
+ */
+public class RenderedPage {
+    public static final String GZIP = "gzip";
+
+    private final int status;
+    private final Header[] headers;
+    private final String charset;
+    private final ByteBuffer body;
+    private final long createdAt;
+
+    /**
+     * @param headers response headers without hop-by-hop headers and Content-Length
+     * @param charset charset of the body, may be null
+     * @param createdAt creation time in milliseconds
+     */
+    public RenderedPage(int status, Header[] headers, String charset, byte[] body, long createdAt) {
+        this(status, headers, charset, ByteBuffer.wrap(body), createdAt);
+    }
+
+    public RenderedPage(int status, Header[] headers, String charset, ByteBuffer body, long createdAt) {
+        this.status = status;
+        this.headers = headers;
+        this.charset = charset;
+        this.body = body;
+        this.createdAt = createdAt;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Header[] getHeaders() {
+        return headers;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return read only view of the body
+     */
+    public ByteBuffer getBody() {
+        return body.asReadOnlyBuffer();
+    }
+
+    public int getBodyLength() {
+        return body.remaining();
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return value of the Content-Encoding header or null if the body is not encoded
+     */
+    public String getContentEncoding() {
+        return getHeader(CONTENT_ENCODING);
+    }
+
+    /**
+     * @return strong entity tag of the body, with quotes, or null if it wasn't computed
+     */
+    public String getETag() {
+        return getHeader(ETAG);
+    }
+
+    public String getLastModified() {
+        return getHeader(LAST_MODIFIED);
+    }
+
+    private String getHeader(String name) {
+        for (Header header : headers) {
+            if (name.equalsIgnoreCase(header.getName())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The ETag of Rendertron, if any, is replaced: it is not guaranteed to change with the rendered html.
+     * @return copy of the page with an ETag computed from the body and a Last-Modified header, which is
+     * the creation time unless Rendertron sent one
+     */
+    public RenderedPage withValidators() {
+        final List<Header> validatedHeaders = new ArrayList<Header>(headers.length + 2);
+        for (Header header : headers) {
+            if (!ETAG.equalsIgnoreCase(header.getName())) {
+                validatedHeaders.add(header);
+            }
+        }
+        validatedHeaders.add(new BasicHeader(ETAG, computeETag()));
+        if (getLastModified() == null) {
+            validatedHeaders.add(new BasicHeader(LAST_MODIFIED, DateUtils.formatDate(new Date(createdAt))));
+        }
+        return new RenderedPage(status, validatedHeaders.toArray(new Header[validatedHeaders.size()]), charset,
+                body, createdAt);
+    }
+
+    private String computeETag() {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by the Java platform", e);
+        }
+        digest.update(body.duplicate());
+        final byte[] hash = digest.digest();
+        final StringBuilder etag = new StringBuilder(34).append('"');
+        // 128 bits are plenty to tell renders of one page apart
+        for (int i = 0; i < 16; i++) {
+            etag.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).append(Character.forDigit(hash[i] & 0xf, 16));
+        }
+        return etag.append('"').toString();
+    }
+
+    /**
+     * @return copy of the page with the body gzipped and Content-Encoding and Vary headers added,
+     * or this page if its body is encoded already
+     */
+    public RenderedPage gzip() throws IOException {
+        if (getContentEncoding() != null) {
+            return this;
+        }
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, getBodyLength() / 4));
+        // a page is compressed once and sent many times, so the slowest level pays off
+        final GZIPOutputStream outputStream = new GZIPOutputStream(compressed) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        };
+        writeBody(outputStream);
+        outputStream.close();
+        final Header[] gzipHeaders = new Header[headers.length + 2];
+        System.arraycopy(headers, 0, gzipHeaders, 0, headers.length);
+        gzipHeaders[headers.length] = new BasicHeader(CONTENT_ENCODING, GZIP);
+        gzipHeaders[headers.length + 1] = new BasicHeader(VARY, "Accept-Encoding");
+        return new RenderedPage(status, gzipHeaders, charset, compressed.toByteArray(), createdAt);
+    }
+
+    /**
+     * Writes the body without copying it to the heap first when it lives off-heap.
+     */
+    public void writeBody(OutputStream outputStream) throws IOException {
+        if (body.hasArray()) {
+            outputStream.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+            return;
+        }
+        final ByteBuffer buffer = body.duplicate();
+        final WritableByteChannel channel = Channels.newChannel(outputStream);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the gunzipped body, for clients which don't accept a gzipped page.
+     */
+    public void writeGunzippedBody(OutputStream outputStream) throws IOException {
+        final InputStream inputStream = new GZIPInputStream(new ByteBufferInputStream(body.duplicate()));
+        try {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @return approximate heap footprint in bytes, used for the cache byte budget
+     */
+    public long getWeight() {
+        long weight = 64 + (body.hasArray() ? body.remaining() : 0);
+        for (Header header : headers) {
+            weight += 48 + 2 * (header.getName().length() + (header.getValue() != null ? header.getValue().length() : 0));
+        }
+        return weight;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int read = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, read);
+            return read;
+        }
+    }
+}
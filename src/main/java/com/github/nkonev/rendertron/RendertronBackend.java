@@ -0,0 +1,113 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.utils.URIUtils;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One Rendertron instance behind the {@link RendertronLoadBalancer}, with its load and health metrics.
+ */
+public class RendertronBackend {
+    /**
+     * Weight of a sample in the exponential moving average of the latency.
+     */
+    private static final double LATENCY_SMOOTHING = 0.1;
+
+    private final String serviceUrl;
+    private final String hostHeader;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    // guarded by this
+    private double latencyNanos;
+    private int consecutiveFailures;
+    private long ejectedUntil;
+
+    public RendertronBackend(String serviceUrl) {
+        this.serviceUrl = serviceUrl.endsWith("/") ? serviceUrl : serviceUrl + "/";
+        final HttpHost host = URIUtils.extractHost(URI.create(serviceUrl));
+        this.hostHeader = host.getPort() != -1 ? host.getHostName() + ":" + host.getPort() : host.getHostName();
+    }
+
+    /**
+     * @return render url of the page on this instance
+     */
+    public String getApiUrl(String url) {
+        return serviceUrl + url;
+    }
+
+    public String getServiceUrl() {
+        return serviceUrl;
+    }
+
+    /**
+     * @return value of the Host header of requests to this instance
+     */
+    String getHostHeader() {
+        return hostHeader;
+    }
+
+    void acquire() {
+        outstanding.incrementAndGet();
+        requests.incrementAndGet();
+    }
+
+    /**
+     * @return true if this failure makes the instance ejected
+     */
+    synchronized boolean release(long latencyNanos, boolean succeeded, long now, int maxFailures, long ejectionMillis) {
+        outstanding.decrementAndGet();
+        this.latencyNanos = this.latencyNanos == 0 ? latencyNanos :
+                this.latencyNanos + LATENCY_SMOOTHING * (latencyNanos - this.latencyNanos);
+        if (succeeded) {
+            consecutiveFailures = 0;
+            return false;
+        }
+        errors.incrementAndGet();
+        if (++consecutiveFailures >= maxFailures) {
+            consecutiveFailures = 0;
+            ejectedUntil = now + ejectionMillis;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized boolean isEjected(long now) {
+        return ejectedUntil > now;
+    }
+
+    public boolean isEjected() {
+        return isEjected(System.currentTimeMillis());
+    }
+
+    /**
+     * @return renders sent to this instance and not answered yet
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * @return exponential moving average of the render latency
+     */
+    public synchronized double getLatencyMillis() {
+        return latencyNanos / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        return serviceUrl;
+    }
+}
@@ -0,0 +1,217 @@
+package com.github.nkonev.rendertron;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Spreads renders over several Rendertron instances.
+ * <p>
+ * An instance which fails several renders in a row is ejected for a while and gets no renders, unless all of
+ * the instances are ejected. Every {@link #select} must be followed by {@link #release} when the render is done.
+ */
+public class RendertronLoadBalancer {
+    private final static Logger log = LoggerFactory.getLogger(RendertronLoadBalancer.class);
+
+    /**
+     * Points of each instance on the hash ring, they even out the share of the pages per instance.
+     */
+    private static final int VIRTUAL_NODES = 160;
+
+    public enum Strategy {
+        /**
+         * The less loaded of two random instances, almost as good as least outstanding without scanning all of them.
+         */
+        POWER_OF_TWO_CHOICES,
+        /**
+         * The instance with the fewest renders in progress.
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * The same instance for the same page, as long as it is not ejected, so its own caches stay warm.
+         */
+        CONSISTENT_HASH
+    }
+
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private final List<RendertronBackend> backends;
+    private final Strategy strategy;
+    private final int maxFailures;
+    private final long ejectionMillis;
+    private final long[] ringHashes;
+    private final RendertronBackend[] ringBackends;
+
+    /**
+     * @param maxFailures failed renders in a row which eject an instance
+     * @param ejectionMillis how long an ejected instance gets no renders
+     */
+    public RendertronLoadBalancer(List<String> serviceUrls, Strategy strategy, int maxFailures, long ejectionMillis) {
+        if (serviceUrls.isEmpty()) {
+            throw new IllegalArgumentException("At least one Rendertron url is required");
+        }
+        final List<RendertronBackend> backends = new ArrayList<RendertronBackend>(serviceUrls.size());
+        for (String serviceUrl : serviceUrls) {
+            backends.add(new RendertronBackend(serviceUrl));
+        }
+        this.backends = Collections.unmodifiableList(backends);
+        this.strategy = strategy;
+        this.maxFailures = maxFailures;
+        this.ejectionMillis = ejectionMillis;
+        if (strategy == Strategy.CONSISTENT_HASH) {
+            final long[] points = new long[backends.size() * VIRTUAL_NODES];
+            final Long[] order = new Long[points.length];
+            for (int i = 0; i < backends.size(); i++) {
+                for (int j = 0; j < VIRTUAL_NODES; j++) {
+                    final int point = i * VIRTUAL_NODES + j;
+                    points[point] = hash(backends.get(i).getServiceUrl() + "#" + j);
+                    order[point] = (long) point;
+                }
+            }
+            Arrays.sort(order, new Comparator<Long>() {
+                @Override
+                public int compare(Long a, Long b) {
+                    final long hashA = points[a.intValue()];
+                    final long hashB = points[b.intValue()];
+                    return hashA < hashB ? -1 : (hashA == hashB ? 0 : 1);
+                }
+            });
+            this.ringHashes = new long[points.length];
+            this.ringBackends = new RendertronBackend[points.length];
+            for (int i = 0; i < order.length; i++) {
+                ringHashes[i] = points[order[i].intValue()];
+                ringBackends[i] = backends.get(order[i].intValue() / VIRTUAL_NODES);
+            }
+        } else {
+            this.ringHashes = null;
+            this.ringBackends = null;
+        }
+    }
+
+    /**
+     * @param url page to render
+     * @return instance to render the page on
+     */
+    public RendertronBackend select(String url) {
+        final RendertronBackend backend = backends.size() == 1 ? backends.get(0) : choose(url, currentTimeMillis());
+        backend.acquire();
+        return backend;
+    }
+
+    private RendertronBackend choose(String url, long now) {
+        switch (strategy) {
+            case CONSISTENT_HASH:
+                return chooseByHash(url, now);
+            case LEAST_OUTSTANDING:
+                return chooseLeastOutstanding(now);
+            default:
+                return choosePowerOfTwo(now);
+        }
+    }
+
+    private RendertronBackend choosePowerOfTwo(long now) {
+        final Random random = RendertronLoadBalancer.random.get();
+        final int size = backends.size();
+        // a few tries to find healthy instances, there are usually few of them ejected
+        RendertronBackend first = null;
+        RendertronBackend second = null;
+        for (int i = 0; i < size && second == null; i++) {
+            final int index = random.nextInt(size);
+            final RendertronBackend candidate = backends.get(index);
+            if (candidate.isEjected(now)) {
+                continue;
+            }
+            if (first == null) {
+                first = candidate;
+            } else if (candidate != first) {
+                second = candidate;
+            }
+        }
+        if (first == null) {
+            return chooseLeastOutstanding(now);
+        }
+        if (second == null) {
+            return first;
+        }
+        return second.getOutstanding() < first.getOutstanding() ? second : first;
+    }
+
+    private RendertronBackend chooseLeastOutstanding(long now) {
+        RendertronBackend best = null;
+        RendertronBackend bestEjected = null;
+        // start from a random instance, so ties don't always go to the first one
+        final int offset = random.get().nextInt(backends.size());
+        for (int i = 0; i < backends.size(); i++) {
+            final RendertronBackend candidate = backends.get((offset + i) % backends.size());
+            if (candidate.isEjected(now)) {
+                if (bestEjected == null || candidate.getOutstanding() < bestEjected.getOutstanding()) {
+                    bestEjected = candidate;
+                }
+            } else if (best == null || candidate.getOutstanding() < best.getOutstanding()) {
+                best = candidate;
+            }
+        }
+        return best != null ? best : bestEjected;
+    }
+
+    private RendertronBackend chooseByHash(String url, long now) {
+        int index = Arrays.binarySearch(ringHashes, hash(url));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        for (int i = 0; i < ringHashes.length; i++) {
+            final RendertronBackend candidate = ringBackends[(index + i) % ringHashes.length];
+            if (!candidate.isEjected(now)) {
+                return candidate;
+            }
+        }
+        return ringBackends[index % ringHashes.length];
+    }
+
+    /**
+     * @param latencyNanos how long the instance took
+     * @param succeeded false if the instance failed
+     */
+    public void release(RendertronBackend backend, long latencyNanos, boolean succeeded) {
+        if (backend.release(latencyNanos, succeeded, currentTimeMillis(), maxFailures, ejectionMillis)
+                && backends.size() > 1) {
+            log.warn("Rendertron {} failed {} renders in a row, it is ejected for {} ms", backend, maxFailures, ejectionMillis);
+        }
+    }
+
+    public List<RendertronBackend> getBackends() {
+        return backends;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * FNV-1a with a final mix, urls which differ only in the last characters still land far apart on the ring.
+     */
+    private static long hash(String value) {
+        long hash = MappedFileRenderCache.hash(value);
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * Gets the numbers of {@link SeoService}: eligibility decisions, Rendertron calls, the render cache,
+ * {@link EventHandler} callbacks and swallowed errors. {@link SimpleRendertronMetrics} is used by default,
+ * another implementation is set by {@link Constants.InitFilterParams#METRICS}.
+ * <p>
+ * Methods are called on the request threads. {@link #onRejected} is called for every request which is not
+ * rendered, most of them from humans, so it must not allocate or block.
+ */
+public interface RendertronMetrics {
+
+    /**
+     * Status passed to {@link #onRender} when Rendertron didn't respond.
+     */
+    int NO_RESPONSE = -1;
+
+    enum CacheResult {
+        HIT,
+        /**
+         * The page was expired and its stale copy was sent, after a {@link #MISS}.
+         */
+        STALE,
+        MISS
+    }
+
+    enum Callback {
+        BEFORE_RENDER, AFTER_RENDER
+    }
+
+    void onRejected(EligibilityStage stage);
+
+    void onCacheLookup(CacheResult result);
+
+    /**
+     * @param status status of the Rendertron response or {@link #NO_RESPONSE}
+     * @param latencyNanos time to the response headers
+     */
+    void onRender(int status, long latencyNanos);
+
+    /**
+     * @param length length of the rendered body sent to the crawler or cached, in bytes, or in chars
+     *               if the body was changed by an {@link EventHandler} or {@link StreamingEventHandler}s
+     */
+    void onRenderedBody(long length);
+
+    void onEventHandler(Callback callback, long nanos);
+
+    /**
+     * @param e error which was logged, the request was passed down the filter chain
+     */
+    void onError(Exception e);
+
+    /**
+     * Called once with the connection pool to Rendertron.
+     */
+    void bindConnectionPool(PoolingHttpClientConnectionManager connectionManager);
+
+    /**
+     * Called once with the limiter of concurrent renders, if {@link Constants.InitFilterParams#RENDER_CONCURRENCY_LIMIT} is set.
+     */
+    void bindConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter);
+
+    /**
+     * Called once with the circuit breaker, if {@link Constants.InitFilterParams#CIRCUIT_BREAKER_FAILURE_RATE} is set.
+     */
+    void bindCircuitBreaker(CircuitBreaker circuitBreaker);
+
+    /**
+     * Called once with the balancer over the Rendertron instances, if {@link Constants.InitFilterParams#RENDERTRON_SERVICE_URL} is set.
+     */
+    void bindLoadBalancer(RendertronLoadBalancer loadBalancer);
+
+    /**
+     * Called once with the background re-renders of stale pages, if they are enabled.
+     */
+    void bindRenderRevalidator(RenderRevalidator renderRevalidator);
+
+    /**
+     * Called by {@link SeoService#destroy()}, releases what was registered for the service.
+     */
+    void close();
+}
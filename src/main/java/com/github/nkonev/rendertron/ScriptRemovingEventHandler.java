@@ -0,0 +1,20 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.HttpResponse;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.Writer;
+
+/**
+ * Removes the scripts from the rendered page: crawlers get the html which scripts already produced,
+ * running them again is useless. JSON-LD structured data is kept.
+ */
+public class ScriptRemovingEventHandler implements StreamingEventHandler {
+
+    @Override
+    public Writer afterRender(HttpServletRequest clientRequest, HttpServletResponse clientResponse,
+                              HttpResponse renderServiceResponse, Writer responseWriter) {
+        return new ScriptRemovingWriter(responseWriter);
+    }
+}
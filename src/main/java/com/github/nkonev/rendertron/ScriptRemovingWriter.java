@@ -0,0 +1,116 @@
+package com.github.nkonev.rendertron;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Removes {@code <script>} elements with their content from streamed html. JSON-LD scripts
+ * ({@code type="application/ld+json"}) are structured data for search engines and are kept.
+ * Only the open tag of a script is held back until it is complete, everything else streams through.
+ */
+class ScriptRemovingWriter extends HtmlTransformingWriter {
+    private static final String OPEN = "<script";
+    private static final String CLOSE = "</script";
+
+    private enum State {
+        TEXT, OPEN_TAG_NAME, OPEN_TAG, SCRIPT, CLOSE_TAG
+    }
+
+    private State state = State.TEXT;
+    private final StringBuilder pending = new StringBuilder();
+    private char quote;
+    private int closeMatched;
+
+    ScriptRemovingWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    protected void process(char c) throws IOException {
+        switch (state) {
+            case TEXT:
+                if (c == '<') {
+                    pending.append(c);
+                    state = State.OPEN_TAG_NAME;
+                } else {
+                    emit(c);
+                }
+                break;
+            case OPEN_TAG_NAME:
+                if (pending.length() < OPEN.length()) {
+                    if (toLowerCase(c) == OPEN.charAt(pending.length())) {
+                        pending.append(c);
+                    } else {
+                        notScript(c);
+                    }
+                } else if (isWhitespace(c) || c == '/' || c == '>') {
+                    pending.append(c);
+                    state = State.OPEN_TAG;
+                    quote = 0;
+                    if (c == '>') {
+                        openTagComplete();
+                    }
+                } else {
+                    notScript(c);
+                }
+                break;
+            case OPEN_TAG:
+                pending.append(c);
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    openTagComplete();
+                }
+                break;
+            case SCRIPT:
+                if (toLowerCase(c) == CLOSE.charAt(closeMatched)) {
+                    if (++closeMatched == CLOSE.length()) {
+                        state = State.CLOSE_TAG;
+                    }
+                } else {
+                    closeMatched = c == '<' ? 1 : 0;
+                }
+                break;
+            case CLOSE_TAG:
+                if (c == '>') {
+                    state = State.TEXT;
+                }
+                break;
+        }
+    }
+
+    /**
+     * The chars held back turned out to be some other tag.
+     */
+    private void notScript(char c) throws IOException {
+        emit(pending);
+        pending.setLength(0);
+        state = State.TEXT;
+        process(c);
+    }
+
+    private void openTagComplete() throws IOException {
+        if (pending.toString().toLowerCase(Locale.ENGLISH).contains("application/ld+json")) {
+            emit(pending);
+            state = State.TEXT;
+        } else {
+            state = State.SCRIPT;
+            closeMatched = 0;
+        }
+        pending.setLength(0);
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        if (state == State.OPEN_TAG_NAME) {
+            emit(pending);
+        }
+        pending.setLength(0);
+        state = State.TEXT;
+    }
+}
@@ -11,12 +11,35 @@ import java.util.Map;
 
 public class SeoFilter implements Filter {
     public static final List<String> PARAMETER_NAMES = Arrays.asList(
-            Constants.InitFilterParams.RENDERTRON_EVENT_HANDLER, Constants.InitFilterParams.PROXY,
-            Constants.InitFilterParams.PROXY_PORT,
+            Constants.InitFilterParams.RENDERTRON_EVENT_HANDLER, Constants.InitFilterParams.STREAMING_EVENT_HANDLERS,
+            Constants.InitFilterParams.PROXY,
+            Constants.InitFilterParams.PROXY_PORT, Constants.InitFilterParams.SOCKET_TIMEOUT,
+            Constants.InitFilterParams.ASYNC_TIMEOUT, Constants.InitFilterParams.RENDER_MAX_BODY_BYTES,
+            Constants.InitFilterParams.CONNECT_TIMEOUT, Constants.InitFilterParams.CONNECTION_REQUEST_TIMEOUT,
+            Constants.InitFilterParams.MAX_CONNECTIONS, Constants.InitFilterParams.MAX_CONNECTIONS_PER_ROUTE,
+            Constants.InitFilterParams.CONNECTION_TIME_TO_LIVE, Constants.InitFilterParams.CONNECTION_KEEP_ALIVE,
+            Constants.InitFilterParams.VALIDATE_AFTER_INACTIVITY, Constants.InitFilterParams.EVICT_IDLE_CONNECTIONS,
             Constants.InitFilterParams.FORWARDED_URL_HEADER, Constants.InitFilterParams.FORWARDED_URL_PREFIX_HEADER,
             Constants.InitFilterParams.FORWARDED_URL_PREFIX, Constants.InitFilterParams.CRAWLER_USER_AGENTS,
+            Constants.InitFilterParams.CRAWLER_USER_AGENTS_CACHE_SIZE,
             Constants.InitFilterParams.EXTENSIONS_TO_IGNORE, Constants.InitFilterParams.WHITELIST,
-            Constants.InitFilterParams.BLACKLIST, Constants.InitFilterParams.RENDERTRON_SERVICE_URL
+            Constants.InitFilterParams.BLACKLIST, Constants.InitFilterParams.HEADER_WHITELIST,
+            Constants.InitFilterParams.HEADER_BLACKLIST, Constants.InitFilterParams.RENDERTRON_SERVICE_URL,
+            Constants.InitFilterParams.LOAD_BALANCING, Constants.InitFilterParams.BACKEND_MAX_FAILURES,
+            Constants.InitFilterParams.BACKEND_EJECTION_MILLIS,
+            Constants.InitFilterParams.RENDER_CACHE_MAX_BYTES, Constants.InitFilterParams.RENDER_CACHE_TTL_SECONDS,
+            Constants.InitFilterParams.RENDER_CACHE_STALE_SECONDS, Constants.InitFilterParams.RENDER_CACHE_GZIP,
+            Constants.InitFilterParams.REVALIDATION_THREADS,
+            Constants.InitFilterParams.REVALIDATION_QUEUE_SIZE, Constants.InitFilterParams.WARM_UP_URLS,
+            Constants.InitFilterParams.WARM_UP_CONCURRENCY, Constants.InitFilterParams.WARM_UP_RATE,
+            Constants.InitFilterParams.CANONICALIZE_URLS, Constants.InitFilterParams.IGNORED_QUERY_PARAMETERS,
+            Constants.InitFilterParams.METRICS, Constants.InitFilterParams.SERVER_TIMING,
+            Constants.InitFilterParams.SLOW_RENDER_MILLIS, Constants.InitFilterParams.RENDER_TRACE_LISTENER,
+            Constants.InitFilterParams.RENDER_CACHE_DIRECTORY, Constants.InitFilterParams.RENDER_CACHE_DIRECTORY_MAX_BYTES,
+            Constants.InitFilterParams.RENDER_CACHE_SEGMENT_BYTES, Constants.InitFilterParams.RENDER_COALESCING_TIMEOUT,
+            Constants.InitFilterParams.RENDER_ON_VIRTUAL_THREADS, Constants.InitFilterParams.RENDER_CONCURRENCY_LIMIT,
+            Constants.InitFilterParams.CIRCUIT_BREAKER_FAILURE_RATE, Constants.InitFilterParams.CIRCUIT_BREAKER_WINDOW_SIZE,
+            Constants.InitFilterParams.CIRCUIT_BREAKER_SLOW_CALL_MILLIS, Constants.InitFilterParams.CIRCUIT_BREAKER_OPEN_MILLIS
     );
     private SeoService seoService;
 
@@ -4,31 +4,57 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.http.*;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.utils.URIUtils;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.HeaderGroup;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.net.URI;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.apache.http.HttpHeaders.ACCEPT_ENCODING;
+import static org.apache.http.HttpHeaders.CONTENT_ENCODING;
 import static org.apache.http.HttpHeaders.CONTENT_LENGTH;
+import static org.apache.http.HttpHeaders.ETAG;
 import static org.apache.http.HttpHeaders.HOST;
+import static org.apache.http.HttpHeaders.IF_MODIFIED_SINCE;
+import static org.apache.http.HttpHeaders.IF_NONE_MATCH;
+import static org.apache.http.HttpHeaders.LAST_MODIFIED;
+import static org.apache.http.HttpHeaders.VARY;
 
 public class SeoService {
     private final static Logger log = LoggerFactory.getLogger(SeoService.class);
+    private final static Logger slowRenderLog = LoggerFactory.getLogger(RenderTrace.class);
+    private static final String SERVER_TIMING = "Server-Timing";
     /**
      * These are the "hop-by-hop" headers that should not be copied.
      * http://www.w3.org/Protocols/rfc2616/rfc2616-sec13.html
@@ -36,14 +62,178 @@ public class SeoService {
      * approach does case insensitive lookup faster.
      */
     private static final HeaderGroup hopByHopHeaders;
+    /**
+     * Conditional headers of the client are answered from the render cache, Rendertron would answer them
+     * with its own validators which don't match the cached page.
+     */
+    private static final HeaderGroup conditionalHeaders;
+    /**
+     * Smaller pages are cached as is, gzip doesn't save much on them.
+     */
+    private static final int MIN_GZIP_BYTES = 256;
+    private PoolingHttpClientConnectionManager connectionManager;
     private CloseableHttpClient httpClient;
     private Config config;
     private EventHandler eventHandler;
+    private List<StreamingEventHandler> streamingEventHandlers;
+    private EligibilityMatcher eligibilityMatcher;
+    private RenderCache renderCache;
+    private RenderRevalidator renderRevalidator;
+    private volatile CacheWarmer cacheWarmer;
+    private boolean renderCacheGzip;
+    private RenderCoalescer renderCoalescer;
+    private long renderCoalescingTimeout;
+    private ConcurrencyLimiter concurrencyLimiter;
+    private CircuitBreaker circuitBreaker;
+    private RendertronLoadBalancer loadBalancer;
+    private UrlCanonicalizer urlCanonicalizer;
+    private final BufferPool bufferPool = new BufferPool(8192, 64);
+    private final RendertronMetrics metrics;
+    private final AtomicLongArray rejections = new AtomicLongArray(EligibilityStage.values().length);
+    private final boolean serverTiming;
+    private final Long slowRenderMillis;
+    private final RenderTraceListener renderTraceListener;
+    /**
+     * Rendered requests are traced if anything consumes the traces.
+     */
+    private final boolean tracing;
+    /**
+     * Client headers which are never forwarded to Rendertron. Case-insensitive, looked up without allocating.
+     */
+    private final Set<String> skippedRequestHeaders;
+    /**
+     * The only client headers forwarded to Rendertron, or null to forward all but {@link #skippedRequestHeaders}.
+     */
+    private final Set<String> forwardedRequestHeaders;
 
     public SeoService(Map<String, String> config) {
+        this(config, null);
+    }
+
+    /**
+     * @param metrics metrics to report to, null for {@link Config#getMetrics()}
+     */
+    public SeoService(Map<String, String> config, RendertronMetrics metrics) {
         this.config = new Config(config);
+        this.metrics = metrics != null ? metrics : this.config.getMetrics();
+        this.serverTiming = this.config.isServerTiming();
+        this.slowRenderMillis = this.config.getSlowRenderMillis();
+        this.renderTraceListener = this.config.getRenderTraceListener();
+        this.tracing = serverTiming || slowRenderMillis != null || renderTraceListener != null;
+        this.skippedRequestHeaders = getSkippedRequestHeaders(this.config);
+        final List<String> headerWhitelist = this.config.getHeaderWhitelist();
+        this.forwardedRequestHeaders = headerWhitelist != null ? headerNameSet(headerWhitelist) : null;
+        this.eligibilityMatcher = new EligibilityMatcher(this.config);
+        this.loadBalancer = this.config.getLoadBalancer();
+        if (loadBalancer != null) {
+            this.metrics.bindLoadBalancer(loadBalancer);
+        }
+        this.urlCanonicalizer = this.config.getUrlCanonicalizer();
+        this.connectionManager = this.config.getConnectionManager();
+        this.metrics.bindConnectionPool(connectionManager);
         this.httpClient = getHttpClient();
         this.eventHandler = this.config.getEventHandler();
+        this.streamingEventHandlers = this.config.getStreamingEventHandlers();
+        this.renderCache = this.config.getRenderCache();
+        this.renderCacheGzip = this.config.isRenderCacheGzip();
+        if (renderCache != null) {
+            this.renderRevalidator = this.config.getRenderRevalidator();
+            if (renderRevalidator != null) {
+                this.metrics.bindRenderRevalidator(renderRevalidator);
+            }
+        }
+        if (this.config.getRenderCoalescingTimeout() != null) {
+            this.renderCoalescer = new RenderCoalescer();
+            this.renderCoalescingTimeout = this.config.getRenderCoalescingTimeout();
+        }
+        final int concurrencyLimit = this.config.getRenderConcurrencyLimit();
+        if (concurrencyLimit > 0) {
+            this.concurrencyLimiter = new ConcurrencyLimiter(Math.max(1, concurrencyLimit / 4), 1, concurrencyLimit);
+            this.metrics.bindConcurrencyLimiter(concurrencyLimiter);
+        }
+        this.circuitBreaker = this.config.getCircuitBreaker();
+        if (circuitBreaker != null) {
+            this.metrics.bindCircuitBreaker(circuitBreaker);
+            if (eventHandler instanceof CircuitBreakerListener) {
+                circuitBreaker.addListener((CircuitBreakerListener) eventHandler);
+            }
+        }
+        final List<String> warmUpUrls = this.config.getWarmUpUrls();
+        if (!warmUpUrls.isEmpty()) {
+            warmUp(warmUpUrls);
+        }
+    }
+
+    /**
+     * Starts rendering the pages of the sitemaps or url lists into the render cache in the background,
+     * cancelling the warming in progress. Warming needs the render cache and is not done when the pages
+     * are changed by event handlers, which need the servlet request.
+     * @param sources see {@link CacheWarmer}
+     * @return the started warming or null if warming is not possible
+     */
+    public CacheWarmer warmUp(List<String> sources) {
+        if (renderCache == null || eventHandler != null || !streamingEventHandlers.isEmpty()) {
+            log.warn("Cache warming needs the render cache and no event handlers, it is skipped");
+            return null;
+        }
+        final CacheWarmer warmer = new CacheWarmer(this, sources, config.getWarmUpConcurrency(), config.getWarmUpRate());
+        final CacheWarmer previous = cacheWarmer;
+        cacheWarmer = warmer;
+        if (previous != null) {
+            previous.cancel();
+        }
+        warmer.start();
+        return warmer;
+    }
+
+    /**
+     * @return the last started cache warming or null
+     */
+    public CacheWarmer getCacheWarmer() {
+        return cacheWarmer;
+    }
+
+    /**
+     * @return limiter of concurrent renders or null if {@link Constants.InitFilterParams#RENDER_CONCURRENCY_LIMIT} is not set
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * @return circuit breaker in front of Rendertron or null if {@link Constants.InitFilterParams#CIRCUIT_BREAKER_FAILURE_RATE} is not set
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return balancer over the Rendertron instances or null if {@link Constants.InitFilterParams#RENDERTRON_SERVICE_URL} is not set
+     */
+    public RendertronLoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    /**
+     * @return background re-renders of stale pages or null if {@link Constants.InitFilterParams#RENDER_CACHE_STALE_SECONDS}
+     * or the render cache is not set
+     */
+    public RenderRevalidator getRenderRevalidator() {
+        return renderRevalidator;
+    }
+
+    /**
+     * @return single-flight of renders or null if {@link Constants.InitFilterParams#RENDER_COALESCING_TIMEOUT} is not set
+     */
+    public RenderCoalescer getRenderCoalescer() {
+        return renderCoalescer;
+    }
+
+    /**
+     * @return how long in milliseconds a request waits for a concurrent render of the same page
+     */
+    long getRenderCoalescingTimeout() {
+        return renderCoalescingTimeout;
     }
 
     static {
@@ -54,13 +244,31 @@ public class SeoService {
         for (String header : headers) {
             hopByHopHeaders.addHeader(new BasicHeader(header, null));
         }
+        conditionalHeaders = new HeaderGroup();
+        headers = new String[]{
+                "If-None-Match", "If-Modified-Since", "If-Match", "If-Unmodified-Since", "If-Range"};
+        for (String header : headers) {
+            conditionalHeaders.addHeader(new BasicHeader(header, null));
+        }
     }
 
     public void destroy() {
+        final CacheWarmer warmer = cacheWarmer;
+        if (warmer != null) {
+            warmer.cancel();
+        }
         if (eventHandler != null) {
             eventHandler.destroy();
         }
+        if (renderRevalidator != null) {
+            renderRevalidator.destroy();
+        }
+        if (renderCache != null) {
+            renderCache.destroy();
+        }
         closeQuietly(httpClient);
+        connectionManager.shutdown();
+        metrics.close();
     }
 
     public boolean renderIfEligible(HttpServletRequest servletRequest, HttpServletResponse servletResponse) {
@@ -70,96 +278,193 @@ public class SeoService {
             }
         } catch (Exception e) {
             log.error("Render service error", e);
+            metrics.onError(e);
         }
         return false;
     }
 
     private boolean handleRender(HttpServletRequest servletRequest, HttpServletResponse servletResponse)
             throws URISyntaxException, IOException {
-        if (shouldShowRenderedPage(servletRequest)) {
-            if (beforeRender(servletRequest, servletResponse) || proxyRenderedPageResponse(servletRequest, servletResponse)) {
-                return true;
-            }
+        return shouldShowRenderedPage(servletRequest) && renderEligible(servletRequest, servletResponse);
+    }
+
+    /**
+     * Renders a request which passed {@link #shouldShowRenderedPage}.
+     * @return false if the request has to be passed down the filter chain
+     */
+    boolean renderEligible(HttpServletRequest servletRequest, HttpServletResponse servletResponse)
+            throws URISyntaxException, IOException {
+        final RenderTrace trace = startTrace(servletRequest);
+        try {
+            return beforeRender(servletRequest, servletResponse) || proxyRenderedPageResponse(servletRequest, servletResponse);
+        } finally {
+            finishTrace(trace);
         }
-        return false;
     }
 
-    private boolean shouldShowRenderedPage(HttpServletRequest request) throws URISyntaxException {
-        final String userAgent = request.getHeader("User-Agent");
-        final String url = getRequestURL(request);
-        final String referer = request.getHeader("Referer");
+    /**
+     * @return new trace of the request, or {@link RenderTrace#DISABLED} if requests are not traced
+     */
+    RenderTrace startTrace(HttpServletRequest request) {
+        if (!tracing) {
+            return RenderTrace.DISABLED;
+        }
+        final RenderTrace trace = new RenderTrace();
+        request.setAttribute(RenderTrace.ATTRIBUTE, trace);
+        return trace;
+    }
 
-        log.trace(String.format("checking request for %s from User-Agent %s and referer %s", url, userAgent, referer));
+    /**
+     * @return trace of the request, or {@link RenderTrace#DISABLED} if it is not traced
+     */
+    RenderTrace getTrace(HttpServletRequest request) {
+        if (tracing) {
+            final Object trace = request.getAttribute(RenderTrace.ATTRIBUTE);
+            if (trace instanceof RenderTrace) {
+                return (RenderTrace) trace;
+            }
+        }
+        return RenderTrace.DISABLED;
+    }
 
-        if (!HttpGet.METHOD_NAME.equals(request.getMethod())) {
-            log.trace("Request is not HTTP GET; intercept: no");
-            return false;
+    /**
+     * Logs a slow render and passes the trace to the {@link RenderTraceListener}, once.
+     */
+    void finishTrace(RenderTrace trace) {
+        if (!trace.finish()) {
+            return;
+        }
+        if (slowRenderMillis != null && trace.getTotalNanos() > TimeUnit.MILLISECONDS.toNanos(slowRenderMillis)) {
+            slowRenderLog.warn("Slow render {}", trace);
         }
+        if (renderTraceListener != null) {
+            try {
+                renderTraceListener.onTrace(trace);
+            } catch (RuntimeException e) {
+                log.error("RenderTraceListener error", e);
+            }
+        }
+    }
 
-        if (isInResources(url)) {
-            log.trace("request is for a (static) resource; intercept: no");
-            return false;
+    /**
+     * Runs the {@link EligibilityStage}s cheapest first, so most of the (human) requests are rejected
+     * by looking at the method and the User-Agent only, before the request url is reconstructed.
+     */
+    boolean shouldShowRenderedPage(HttpServletRequest request) {
+        if (!eligibilityMatcher.isGet(request.getMethod())) {
+            return reject(EligibilityStage.METHOD, "Request is not HTTP GET; intercept: no");
         }
 
-        final List<String> whiteList = config.getWhitelist();
-        if (whiteList != null && !isInWhiteList(url, whiteList)) {
-            log.trace("Whitelist is enabled, but this request is not listed; intercept: no");
-            return false;
+        final String userAgent = request.getHeader("User-Agent");
+        if (StringUtils.isBlank(userAgent)) {
+            return reject(EligibilityStage.USER_AGENT, "Request has blank userAgent; intercept: no");
+        }
+        if (!eligibilityMatcher.isCrawler(userAgent)) {
+            return reject(EligibilityStage.USER_AGENT, "Request User-Agent is not a search bot; intercept: no");
         }
 
-        final List<String> blacklist = config.getBlacklist();
-        if (blacklist != null && isInBlackList(url, referer, blacklist)) {
-            log.trace("Blacklist is enabled, and this request is listed; intercept: no");
-            return false;
+        final String url = getRequestURL(request);
+        final String referer = request.getHeader("Referer");
+        if (log.isTraceEnabled()) {
+            log.trace("checking request for {} from User-Agent {} and referer {}", url, userAgent, referer);
         }
 
-        if (StringUtils.isBlank(userAgent)) {
-            log.trace("Request has blank userAgent; intercept: no");
-            return false;
+        if (eligibilityMatcher.isResource(url)) {
+            return reject(EligibilityStage.RESOURCE, "request is for a (static) resource; intercept: no");
         }
 
-        if (!isInSearchUserAgent(userAgent)) {
-            log.trace("Request User-Agent is not a search bot; intercept: no");
-            return false;
+        if (!eligibilityMatcher.isInWhitelist(url)) {
+            return reject(EligibilityStage.WHITELIST, "Whitelist is enabled, but this request is not listed; intercept: no");
+        }
+
+        if (eligibilityMatcher.isInBlacklist(url, referer)) {
+            return reject(EligibilityStage.BLACKLIST, "Blacklist is enabled, and this request is listed; intercept: no");
         }
 
-        log.trace(String.format("Defaulting to request intercept(user-agent=%s): yes", userAgent));
+        log.trace("Defaulting to request intercept(user-agent={}): yes", userAgent);
         return true;
     }
 
+    private boolean reject(EligibilityStage stage, String message) {
+        rejections.incrementAndGet(stage.ordinal());
+        metrics.onRejected(stage);
+        log.trace(message);
+        return false;
+    }
+
+    /**
+     * @return how many requests were not rendered because of this stage
+     */
+    public long getRejectionCount(EligibilityStage stage) {
+        return rejections.get(stage.ordinal());
+    }
+
+    public RendertronMetrics getMetrics() {
+        return metrics;
+    }
+
+    Config getConfig() {
+        return config;
+    }
+
     protected HttpGet getHttpGet(String apiUrl) {
         return new HttpGet(apiUrl);
     }
 
     protected CloseableHttpClient getHttpClient() {
-        return config.getHttpClient();
+        return config.getHttpClient(connectionManager);
+    }
+
+    /**
+     * @return leased, pending and available connections to Rendertron
+     */
+    public PoolStats getConnectionPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    private static Set<String> getSkippedRequestHeaders(Config config) {
+        final Set<String> skipped = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        // Instead the content-length is effectively set via InputStreamEntity
+        skipped.add(CONTENT_LENGTH);
+        for (Header header : hopByHopHeaders.getAllHeaders()) {
+            skipped.add(header.getName());
+        }
+        for (Header header : conditionalHeaders.getAllHeaders()) {
+            skipped.add(header.getName());
+        }
+        final List<String> headerBlacklist = config.getHeaderBlacklist();
+        if (headerBlacklist != null) {
+            skipped.addAll(headerBlacklist);
+        }
+        return skipped;
+    }
+
+    private static Set<String> headerNameSet(List<String> headerNames) {
+        final Set<String> set = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        set.addAll(headerNames);
+        return set;
     }
 
     /**
      * Copy request headers from the servlet client to the proxy request.
-     *
-     * @throws java.net.URISyntaxException
+     * @param backend Rendertron instance the Host header is rewritten for, null to keep the Host header of the client
      */
-    private void copyRequestHeaders(HttpServletRequest servletRequest, HttpRequest proxyRequest)
-            throws URISyntaxException {
+    private void copyRequestHeaders(HttpServletRequest servletRequest, HttpRequest proxyRequest,
+                                    RendertronBackend backend) {
         // Get an Enumeration of all of the header names sent by the client
         Enumeration<?> enumerationOfHeaderNames = servletRequest.getHeaderNames();
         while (enumerationOfHeaderNames.hasMoreElements()) {
             String headerName = (String) enumerationOfHeaderNames.nextElement();
-            //Instead the content-length is effectively set via InputStreamEntity
-            if (!headerName.equalsIgnoreCase(CONTENT_LENGTH) && !hopByHopHeaders.containsHeader(headerName)) {
+            if (!skippedRequestHeaders.contains(headerName)
+                    && (forwardedRequestHeaders == null || forwardedRequestHeaders.contains(headerName))) {
                 Enumeration<?> headers = servletRequest.getHeaders(headerName);
                 while (headers.hasMoreElements()) {//sometimes more than one value
                     String headerValue = (String) headers.nextElement();
                     // In case the proxy host is running multiple virtual servers,
                     // rewrite the Host header to ensure that we get content from
                     // the correct virtual server
-                    if (headerName.equalsIgnoreCase(HOST)) {
-                        HttpHost host = URIUtils.extractHost(new URI(config.getServiceUrl()));
-                        headerValue = host.getHostName();
-                        if (host.getPort() != -1) {
-                            headerValue += ":" + host.getPort();
-                        }
+                    if (backend != null && headerName.equalsIgnoreCase(HOST)) {
+                        headerValue = backend.getHostHeader();
                     }
                     proxyRequest.addHeader(headerName, headerValue);
                 }
@@ -197,28 +502,26 @@ public class SeoService {
         return StringUtils.isBlank(src) ? "" : src;
     }
 
-    private String getApiUrl(String url) {
-        String renderServiceUrl = config.getServiceUrl();
-        if (!renderServiceUrl.endsWith("/")) {
-            renderServiceUrl += "/";
-        }
-        return renderServiceUrl + url;
-    }
-
     /**
      * Copy proxied response headers back to the servlet client.
+     * @param skipETag true if the page will be served from the render cache with its own ETag
      */
-    private void copyResponseHeaders(HttpResponse proxyResponse, final HttpServletResponse servletResponse) {
+    private void copyResponseHeaders(HttpResponse proxyResponse, final HttpServletResponse servletResponse,
+                                     boolean skipETag) {
         servletResponse.setCharacterEncoding(getContentCharSet(proxyResponse.getEntity()));
         for (Header proxyResponseHeader: proxyResponse.getAllHeaders()){
-            if (shouldCopyHeader(proxyResponseHeader)){
+            if (shouldCopyHeader(proxyResponseHeader)
+                    && !(skipETag && ETAG.equalsIgnoreCase(proxyResponseHeader.getName()))){
                 servletResponse.addHeader(proxyResponseHeader.getName(), proxyResponseHeader.getValue());
             }
         }
     }
 
+    /**
+     * Content-Length is not copied: the body may be changed by afterRender, and it is set by the streaming path.
+     */
     private boolean shouldCopyHeader(Header header) {
-        return !hopByHopHeaders.containsHeader(header.getName());
+        return !hopByHopHeaders.containsHeader(header.getName()) && !CONTENT_LENGTH.equalsIgnoreCase(header.getName());
     }
     
     /**
@@ -261,6 +564,164 @@ public class SeoService {
         }
     }
 
+    /**
+     * Copy response body from the proxy to the servlet client through the {@link StreamingEventHandler}s.
+     * Unless afterRender is required, the body is decoded and transformed chunk by chunk as it arrives.
+     * @param capture also collect the transformed body, for the cache or coalesced requests
+     * @return the collected body or null if it is not captured
+     */
+    private String responseEntityTransformed(HttpServletRequest request, HttpServletResponse servletResponse,
+                                             HttpResponse proxyResponse, boolean capture) throws IOException {
+        final RenderTrace trace = getTrace(request);
+        final boolean afterRenderRequired = isAfterRenderRequired(request);
+        String html = null;
+        if (afterRenderRequired) {
+            final long startedAt = trace.now();
+            html = getResponseHtml(proxyResponse);
+            trace.since(RenderTrace.Phase.DOWNLOAD, startedAt);
+            html = afterRender(request, servletResponse, proxyResponse, html);
+        }
+        final StringWriter captured = capture ? new StringWriter() : null;
+        final CountingWriter counted = new CountingWriter(servletResponse.getWriter());
+        Writer writer = counted;
+        if (captured != null) {
+            writer = new CapturingWriter(writer, captured);
+        }
+        for (int i = streamingEventHandlers.size() - 1; i >= 0; i--) {
+            writer = streamingEventHandlers.get(i).afterRender(request, servletResponse, proxyResponse, writer);
+        }
+        final HttpEntity entity = proxyResponse.getEntity();
+        Reader reader = null;
+        try {
+            long readStartedAt = trace.now();
+            if (afterRenderRequired) {
+                writer.write(html);
+            } else if (entity != null) {
+                // like EntityUtils.toString()
+                final Charset charset = ContentType.getOrDefault(entity).getCharset();
+                reader = new InputStreamReader(entity.getContent(), charset != null ? charset : Consts.ISO_8859_1);
+                final char[] buffer = new char[4096];
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    final long writeStartedAt = trace.since(RenderTrace.Phase.DOWNLOAD, readStartedAt);
+                    writer.write(buffer, 0, read);
+                    readStartedAt = trace.since(RenderTrace.Phase.WRITE, writeStartedAt);
+                }
+                readStartedAt = trace.since(RenderTrace.Phase.DOWNLOAD, readStartedAt);
+            }
+            writer.flush();
+            trace.since(RenderTrace.Phase.WRITE, readStartedAt);
+        } finally {
+            closeQuietly(reader);
+            closeQuietly(writer);
+        }
+        metrics.onRenderedBody(counted.count);
+        return captured != null ? captured.toString() : null;
+    }
+
+    /**
+     * Counts the chars written to the servlet client.
+     */
+    private static class CountingWriter extends FilterWriter {
+        private long count;
+
+        CountingWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] chars, int off, int len) throws IOException {
+            out.write(chars, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Writes to the servlet client and to the capture.
+     */
+    private static class CapturingWriter extends FilterWriter {
+        private final StringWriter captured;
+
+        CapturingWriter(Writer out, StringWriter captured) {
+            super(out);
+            this.captured = captured;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.write(c);
+            captured.write(c);
+        }
+
+        @Override
+        public void write(char[] chars, int off, int len) throws IOException {
+            out.write(chars, off, len);
+            captured.write(chars, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            captured.write(str, off, len);
+        }
+    }
+
+    /**
+     * Copy response body bytes from the proxy to the servlet client through a pooled buffer,
+     * without decoding and re-encoding them.
+     * @param capture also collect the body, for the cache or coalesced requests
+     * @return the collected body or null if it is not captured
+     */
+    private byte[] responseEntityStream(HttpEntity entity, HttpServletResponse servletResponse, boolean capture,
+                                        RenderTrace trace) throws IOException {
+        if (entity == null) {
+            return capture ? new byte[0] : null;
+        }
+        final long contentLength = entity.getContentLength();
+        if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+            servletResponse.setContentLength((int) contentLength);
+        }
+        final ByteArrayOutputStream captured = capture ?
+                new ByteArrayOutputStream(contentLength > 0 && contentLength <= Integer.MAX_VALUE ? (int) contentLength : 8192) : null;
+        final byte[] buffer = bufferPool.acquire();
+        final InputStream inputStream = entity.getContent();
+        final OutputStream outputStream = servletResponse.getOutputStream();
+        long length = 0;
+        try {
+            long readStartedAt = trace.now();
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                final long writeStartedAt = trace.since(RenderTrace.Phase.DOWNLOAD, readStartedAt);
+                outputStream.write(buffer, 0, read);
+                length += read;
+                if (captured != null) {
+                    captured.write(buffer, 0, read);
+                }
+                readStartedAt = trace.since(RenderTrace.Phase.WRITE, writeStartedAt);
+            }
+            final long flushStartedAt = trace.since(RenderTrace.Phase.DOWNLOAD, readStartedAt);
+            outputStream.flush();
+            trace.since(RenderTrace.Phase.WRITE, flushStartedAt);
+        } finally {
+            bufferPool.release(buffer);
+            closeQuietly(inputStream);
+            closeQuietly(outputStream);
+        }
+        metrics.onRenderedBody(length);
+        return captured != null ? captured.toByteArray() : null;
+    }
 
     protected void closeQuietly(Closeable closeable) {
         try {
@@ -272,91 +733,556 @@ public class SeoService {
         }
     }
 
-    private boolean isInBlackList(final String url, final String referer, List<String> blacklist) {
-        for (String regex: blacklist) {
-            final Pattern pattern = Pattern.compile(regex);
-            if (pattern.matcher(url).matches() ||
-                    (!StringUtils.isBlank(referer) && pattern.matcher(referer).matches())){
+    boolean beforeRender(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (eventHandler != null) {
+            final long startedAt = System.nanoTime();
+            final String html = eventHandler.beforeRender(request);
+            final long nanos = System.nanoTime() - startedAt;
+            metrics.onEventHandler(RendertronMetrics.Callback.BEFORE_RENDER, nanos);
+            getTrace(request).add(RenderTrace.Phase.BEFORE_RENDER, nanos);
+            if (isNotBlank(html)) {
+                final PrintWriter writer = response.getWriter();
+                writer.write(html);
+                writer.flush();
+                closeQuietly(writer);
                 return true;
             }
         }
         return false;
     }
 
-    private boolean isInSearchUserAgent(final String userAgent) {
-        for(String item: config.getCrawlerUserAgents()){
-            if (userAgent.toLowerCase().contains(item.toLowerCase())){
-                return true;
+    private boolean proxyRenderedPageResponse(HttpServletRequest request, HttpServletResponse response)
+            throws IOException, URISyntaxException {
+        final String fullUrl = getFullUrl(request);
+        getTrace(request).setUrl(fullUrl);
+        final boolean pageShared = isPageShared(request);
+        if (pageShared && responseCachedPage(request, fullUrl, response)) {
+            return true;
+        }
+        if (pageShared && responseRevalidatedPage(request, fullUrl, response)) {
+            return true;
+        }
+
+        final RenderCoalescer coalescer = pageShared ? renderCoalescer : null;
+        if (coalescer != null) {
+            final RenderCoalescer.Flight flight = coalescer.join(fullUrl);
+            if (flight != null) {
+                return responseCoalescedPage(request, flight, fullUrl, response);
+            }
+        }
+        RenderedPage page = null;
+        try {
+            final RendertronBackend backend = acquireRender(fullUrl);
+            if (backend == null) {
+                return pageShared && responseStalePage(request, fullUrl, response);
+            }
+            page = render(request, response, fullUrl, backend);
+            return true;
+        } finally {
+            if (coalescer != null) {
+                coalescer.complete(fullUrl, page);
             }
         }
-        return false;
     }
 
+    /**
+     * Pages changed by {@code afterRender} depend on the request, so they are neither taken from nor put
+     * to the render cache, and their renders are not coalesced.
+     * @return false if {@code afterRender} has to be called for the request
+     */
+    boolean isPageShared(HttpServletRequest request) {
+        return !isAfterRenderRequired(request);
+    }
 
-    private boolean isInResources(final String url) {
-        for(String item: config.getExtensionsToIgnore()){
-            if ((url.indexOf('?') >= 0 ? url.substring(0, url.indexOf('?')) : url)
-                    .toLowerCase().endsWith(item)){
-                return true;
+    /**
+     * @return Rendertron instance to render the page on, or null if the {@link CircuitBreaker} is open or Rendertron
+     * is busy with as many renders as the {@link ConcurrencyLimiter} allows; otherwise {@link #releaseRender} must be
+     * called when Rendertron responds
+     */
+    RendertronBackend acquireRender(String fullUrl) {
+        if (loadBalancer == null) {
+            throw new IllegalArgumentException(Constants.InitFilterParams.RENDERTRON_SERVICE_URL + " cannot be blank");
+        }
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            return null;
+        }
+        if (concurrencyLimiter != null && !concurrencyLimiter.tryAcquire()) {
+            if (circuitBreaker != null) {
+                circuitBreaker.cancel();
             }
+            return null;
+        }
+        return loadBalancer.select(fullUrl);
+    }
+
+    /**
+     * Server errors mean Rendertron is in trouble, other statuses are answers about the page.
+     * @param status status of the Rendertron response or {@link RendertronMetrics#NO_RESPONSE}
+     */
+    void releaseRender(RendertronBackend backend, long startedAtNanos, int status) {
+        final long latencyNanos = System.nanoTime() - startedAtNanos;
+        final boolean succeeded = status != RendertronMetrics.NO_RESPONSE && status < HttpStatus.SC_INTERNAL_SERVER_ERROR;
+        metrics.onRender(status, latencyNanos);
+        loadBalancer.release(backend, latencyNanos, succeeded);
+        if (concurrencyLimiter != null) {
+            concurrencyLimiter.release(latencyNanos, succeeded);
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onResult(latencyNanos, succeeded);
         }
-        return false;
     }
 
-    private boolean isInWhiteList(final String url, List<String> whitelist) {
-        for (String regex: whitelist) {
-            if (Pattern.compile(regex).matcher(url).matches()) {
+    /**
+     * Sheds a render because Rendertron is overloaded or unhealthy: sends an expired page if the render cache
+     * still has one.
+     * @return false if there is no such page and the request has to be passed down the filter chain
+     */
+    boolean responseStalePage(HttpServletRequest request, String fullUrl, HttpServletResponse response)
+            throws IOException {
+        final RenderTrace trace = getTrace(request);
+        final long startedAt = trace.now();
+        final RenderedPage stalePage = renderCache != null ? renderCache.getStale(fullUrl) : null;
+        trace.since(RenderTrace.Phase.CACHE, startedAt);
+        if (stalePage == null) {
+            log.debug("Render is shed, falling through:{}", fullUrl);
+            return false;
+        }
+        log.debug("Render is shed, sending stale page:{}", fullUrl);
+        metrics.onCacheLookup(RendertronMetrics.CacheResult.STALE);
+        responseRenderedPage(request, stalePage, response);
+        return true;
+    }
+
+    /**
+     * @return true if the page was found in the render cache and sent to the servlet client
+     */
+    boolean responseCachedPage(HttpServletRequest request, String fullUrl, HttpServletResponse response)
+            throws IOException {
+        if (renderCache != null) {
+            final RenderTrace trace = getTrace(request);
+            final long startedAt = trace.now();
+            final RenderedPage cachedPage = renderCache.get(fullUrl);
+            trace.since(RenderTrace.Phase.CACHE, startedAt);
+            if (cachedPage != null) {
+                log.trace("Render cache hit for:{}", fullUrl);
+                metrics.onCacheLookup(RendertronMetrics.CacheResult.HIT);
+                responseRenderedPage(request, cachedPage, response);
                 return true;
             }
+            metrics.onCacheLookup(RendertronMetrics.CacheResult.MISS);
         }
         return false;
     }
 
-    private boolean beforeRender(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        if (eventHandler != null) {
-            final String html = eventHandler.beforeRender(request);
-            if (isNotBlank(html)) {
-                final PrintWriter writer = response.getWriter();
-                writer.write(html);
-                writer.flush();
-                closeQuietly(writer);
-                return true;
+    /**
+     * Sends an expired page from the render cache and re-renders it in the background, if the page is
+     * not past {@link Constants.InitFilterParams#RENDER_CACHE_STALE_SECONDS}. Pages which need {@code afterRender}
+     * or {@link StreamingEventHandler}s are not re-rendered in the background, these handlers need the servlet request.
+     * @return false if the page has to be rendered by this request
+     */
+    boolean responseRevalidatedPage(HttpServletRequest request, final String fullUrl, HttpServletResponse response)
+            throws IOException {
+        if (renderRevalidator == null || isAfterRenderRequired(request) || !streamingEventHandlers.isEmpty()) {
+            return false;
+        }
+        final RenderTrace trace = getTrace(request);
+        final long startedAt = trace.now();
+        final RenderedPage stalePage = renderCache.getStale(fullUrl);
+        trace.since(RenderTrace.Phase.CACHE, startedAt);
+        if (stalePage == null) {
+            return false;
+        }
+        // the servlet request is gone when the re-render runs
+        final HttpGet headers = new HttpGet();
+        copyRequestHeaders(request, headers, null);
+        final Header[] requestHeaders = headers.getAllHeaders();
+        renderRevalidator.submit(fullUrl, new Runnable() {
+            @Override
+            public void run() {
+                renderToCache(fullUrl, requestHeaders);
             }
+        });
+        log.trace("Sending stale page while it is re-rendered:{}", fullUrl);
+        metrics.onCacheLookup(RendertronMetrics.CacheResult.STALE);
+        responseRenderedPage(request, stalePage, response);
+        return true;
+    }
+
+    /**
+     * Renders a page of {@link CacheWarmer} into the render cache, unless it is not eligible or is cached already.
+     */
+    CacheWarmer.Result warmUpPage(String url) {
+        if (urlCanonicalizer != null) {
+            url = urlCanonicalizer.canonicalize(url);
         }
-        return false;
+        if (eligibilityMatcher.isResource(url) || !eligibilityMatcher.isInWhitelist(url)
+                || eligibilityMatcher.isInBlacklist(url, null) || renderCache.get(url) != null) {
+            log.trace("Cache warming skips:{}", url);
+            return CacheWarmer.Result.SKIPPED;
+        }
+        return renderToCache(url, new Header[0]) ? CacheWarmer.Result.RENDERED : CacheWarmer.Result.FAILED;
     }
 
-    private boolean proxyRenderedPageResponse(HttpServletRequest request, HttpServletResponse response)
-            throws IOException, URISyntaxException {
-        final String apiUrl = getApiUrl(getFullUrl(request));
-        log.trace(String.format("Render proxy will send request to:%s", apiUrl));
-        final HttpGet getMethod = getHttpGet(apiUrl);
-        copyRequestHeaders(request, getMethod);
+    /**
+     * Renders the page in the background and puts it to the render cache. A cached stale page is kept if the render fails.
+     * @param requestHeaders headers for Rendertron, the Host header is rewritten
+     * @return false if the page was not cached
+     */
+    private boolean renderToCache(String fullUrl, Header[] requestHeaders) {
+        final RendertronBackend backend = acquireRender(fullUrl);
+        if (backend == null) {
+            log.debug("Background render is shed:{}", fullUrl);
+            return false;
+        }
+        CloseableHttpResponse renderServiceResponse = null;
+        try {
+            final long startedAt = System.nanoTime();
+            int status = RendertronMetrics.NO_RESPONSE;
+            try {
+                final HttpGet getMethod = getHttpGet(backend.getApiUrl(fullUrl));
+                for (Header header : requestHeaders) {
+                    if (header.getName().equalsIgnoreCase(HOST)) {
+                        getMethod.addHeader(HOST, backend.getHostHeader());
+                    } else {
+                        getMethod.addHeader(header);
+                    }
+                }
+                renderServiceResponse = httpClient.execute(getMethod);
+                status = renderServiceResponse.getStatusLine().getStatusCode();
+            } finally {
+                releaseRender(backend, startedAt, status);
+            }
+            if (status != HttpStatus.SC_OK) {
+                log.debug("Background render of {} got status {}, the page is not cached", fullUrl, status);
+                return false;
+            }
+            final HttpEntity entity = renderServiceResponse.getEntity();
+            final byte[] body = entity != null ? EntityUtils.toByteArray(entity) : new byte[0];
+            metrics.onRenderedBody(body.length);
+            renderCache.put(fullUrl, toRenderedPage(status, renderServiceResponse, body));
+            log.trace("Rendered in background:{}", fullUrl);
+            return true;
+        } catch (IOException e) {
+            log.error("Background render error", e);
+            return false;
+        } finally {
+            closeQuietly(renderServiceResponse);
+        }
+    }
+
+    /**
+     * Waits for the render of another request and sends its page to the servlet client.
+     * @return false if the render failed or timed out
+     */
+    boolean responseCoalescedPage(HttpServletRequest request, RenderCoalescer.Flight flight, String fullUrl,
+                                  HttpServletResponse response) throws IOException {
+        log.trace("Waiting for render in flight:{}", fullUrl);
+        final RenderedPage page = flight.await(renderCoalescingTimeout);
+        if (page == null) {
+            log.debug("Render in flight failed or timed out, falling through:{}", fullUrl);
+            return false;
+        }
+        if (!startResponse(request)) {
+            log.debug("Request finished while waiting for render in flight:{}", fullUrl);
+            return true;
+        }
+        responseRenderedPage(request, page, response);
+        return true;
+    }
+
+    /**
+     * Called by a blocking render once the page is there, before anything is written to the servlet response.
+     * @return false if the request is already finished and the response must not be written
+     */
+    boolean startResponse(HttpServletRequest request) {
+        return true;
+    }
+
+    /**
+     * Calls Rendertron, after {@link #acquireRender}, and proxies its response to the servlet client.
+     * @return the rendered page if it is cached or shared with coalesced requests, otherwise null
+     */
+    private RenderedPage render(HttpServletRequest request, HttpServletResponse response, String fullUrl,
+                                RendertronBackend backend) throws IOException {
         CloseableHttpResponse prerenderServerResponse = null;
 
         try {
-            prerenderServerResponse = httpClient.execute(getMethod);
-            response.setStatus(prerenderServerResponse.getStatusLine().getStatusCode());
-            copyResponseHeaders(prerenderServerResponse, response);
+            final long startedAt = System.nanoTime();
+            int status = RendertronMetrics.NO_RESPONSE;
+            try {
+                final HttpGet renderRequest = getRenderRequest(request, backend, fullUrl);
+                final RenderTrace trace = getTrace(request);
+                trace.requestStarted();
+                prerenderServerResponse = trace.isEnabled() ?
+                        httpClient.execute(renderRequest, getTracingContext(trace)) : httpClient.execute(renderRequest);
+                trace.responseReceived();
+                status = prerenderServerResponse.getStatusLine().getStatusCode();
+            } finally {
+                releaseRender(backend, startedAt, status);
+            }
+            if (!startResponse(request)) {
+                log.debug("Request finished before Rendertron responded:{}", fullUrl);
+                return null;
+            }
+            return responseRendered(request, response, fullUrl, prerenderServerResponse);
+        } finally {
+            closeQuietly(prerenderServerResponse);
+        }
+    }
+
+    /**
+     * @return context which lets the http client end {@link RenderTrace.Phase#CONNECT}
+     */
+    static HttpClientContext getTracingContext(RenderTrace trace) {
+        final HttpClientContext context = HttpClientContext.create();
+        context.setAttribute(RenderTrace.ATTRIBUTE, trace);
+        return context;
+    }
+
+    HttpGet getRenderRequest(HttpServletRequest request, RendertronBackend backend, String fullUrl) {
+        final String apiUrl = backend.getApiUrl(fullUrl);
+        log.trace("Render proxy will send request to:{}", apiUrl);
+        final HttpGet getMethod = getHttpGet(apiUrl);
+        copyRequestHeaders(request, getMethod, backend);
+        return getMethod;
+    }
+
+    /**
+     * Proxies the Rendertron response to the servlet client and puts the page to the render cache.
+     * @return the rendered page if it is cached or shared with coalesced requests, otherwise null
+     */
+    RenderedPage responseRendered(HttpServletRequest request, HttpServletResponse response, String fullUrl,
+                                  HttpResponse prerenderServerResponse) throws IOException {
+        final int status = prerenderServerResponse.getStatusLine().getStatusCode();
+        final boolean pageShared = isPageShared(request);
+        final boolean cacheable = pageShared && renderCache != null && status == HttpStatus.SC_OK;
+        final boolean shared = cacheable || (pageShared && renderCoalescer != null);
+        final RenderTrace trace = getTrace(request);
+        response.setStatus(status);
+        addServerTiming(trace, response);
+        copyResponseHeaders(prerenderServerResponse, response, shared);
+        final RenderedPage page;
+        if (!streamingEventHandlers.isEmpty()) {
+            final String html = responseEntityTransformed(request, response, prerenderServerResponse, shared);
+            page = shared ? toRenderedPage(status, prerenderServerResponse, html) : null;
+        } else if (isAfterRenderRequired(request)) {
+            final long startedAt = trace.now();
             String html = getResponseHtml(prerenderServerResponse);
+            trace.since(RenderTrace.Phase.DOWNLOAD, startedAt);
             html = afterRender(request, response, prerenderServerResponse, html);
+            final long writeStartedAt = trace.now();
             responseEntity(html, response);
-            return true;
+            trace.since(RenderTrace.Phase.WRITE, writeStartedAt);
+            metrics.onRenderedBody(html.length());
+            page = shared ? toRenderedPage(status, prerenderServerResponse, html) : null;
+        } else {
+            final byte[] body = responseEntityStream(prerenderServerResponse.getEntity(), response, shared, trace);
+            page = shared ? toRenderedPage(status, prerenderServerResponse, body) : null;
+        }
+        if (cacheable && page != null) {
+            renderCache.put(fullUrl, page);
+        }
+        return page;
+    }
+
+    /**
+     * @return page to cache or null if the charset of the page is not supported by this JVM
+     */
+    private RenderedPage toRenderedPage(int status, HttpResponse proxyResponse, String html) throws IOException {
+        final String charset = getContentCharSet(proxyResponse.getEntity());
+        final Charset encoding;
+        try {
+            // like EntityUtils.toString(), which decoded the html
+            encoding = charset != null ? Charset.forName(charset) : Consts.ISO_8859_1;
+        } catch (IllegalArgumentException e) {
+            log.debug("Page with unsupported charset {} won't be cached", charset);
+            return null;
+        }
+        return toRenderedPage(status, proxyResponse, html.getBytes(encoding));
+    }
+
+    /**
+     * @return page to cache with validators, gzipped if {@link Constants.InitFilterParams#RENDER_CACHE_GZIP} is set
+     */
+    private RenderedPage toRenderedPage(int status, HttpResponse proxyResponse, byte[] body) throws IOException {
+        final List<Header> headers = new ArrayList<Header>();
+        for (Header header : proxyResponse.getAllHeaders()) {
+            if (shouldCopyHeader(header)) {
+                headers.add(header);
+            }
+        }
+        final RenderedPage page = new RenderedPage(status, headers.toArray(new Header[headers.size()]),
+                getContentCharSet(proxyResponse.getEntity()), body, System.currentTimeMillis());
+        return (renderCacheGzip && body.length >= MIN_GZIP_BYTES ? page.gzip() : page).withValidators();
+    }
+
+    /**
+     * Replay a rendered page to the servlet client, the body is written as is without charset conversion.
+     * A gzipped page is gunzipped on the fly for a client which doesn't accept gzip.
+     * A conditional request is answered with 304 Not Modified when the page has not changed.
+     */
+    void responseRenderedPage(HttpServletRequest request, RenderedPage page, HttpServletResponse servletResponse)
+            throws IOException {
+        final boolean gunzip = RenderedPage.GZIP.equalsIgnoreCase(page.getContentEncoding())
+                && !acceptsGzip(request.getHeader(ACCEPT_ENCODING));
+        // the gunzipped representation has other bytes, so it needs another strong ETag
+        final String etag = gunzip ? gunzippedETag(page.getETag()) : page.getETag();
+        final RenderTrace trace = getTrace(request);
+        if (page.getStatus() == HttpStatus.SC_OK && isNotModified(request, etag, page.getLastModified())) {
+            servletResponse.setStatus(HttpStatus.SC_NOT_MODIFIED);
+            addServerTiming(trace, servletResponse);
+            for (Header header : page.getHeaders()) {
+                if (LAST_MODIFIED.equalsIgnoreCase(header.getName()) || VARY.equalsIgnoreCase(header.getName())) {
+                    servletResponse.addHeader(header.getName(), header.getValue());
+                }
+            }
+            if (etag != null) {
+                servletResponse.addHeader(ETAG, etag);
+            }
+            return;
+        }
+        servletResponse.setStatus(page.getStatus());
+        addServerTiming(trace, servletResponse);
+        servletResponse.setCharacterEncoding(page.getCharset());
+        for (Header header : page.getHeaders()) {
+            if (ETAG.equalsIgnoreCase(header.getName())) {
+                servletResponse.addHeader(ETAG, etag);
+            } else if (!gunzip || !CONTENT_ENCODING.equalsIgnoreCase(header.getName())) {
+                servletResponse.addHeader(header.getName(), header.getValue());
+            }
+        }
+        if (!gunzip) {
+            servletResponse.setContentLength(page.getBodyLength());
+        }
+        final long startedAt = trace.now();
+        final OutputStream outputStream = servletResponse.getOutputStream();
+        try {
+            if (gunzip) {
+                page.writeGunzippedBody(outputStream);
+            } else {
+                page.writeBody(outputStream);
+            }
+            outputStream.flush();
         } finally {
-            closeQuietly(prerenderServerResponse);
+            closeQuietly(outputStream);
+        }
+        trace.since(RenderTrace.Phase.WRITE, startedAt);
+    }
+
+    /**
+     * Only the phases before the response headers make it to the header, the rest of the trace goes
+     * to the {@link RenderTraceListener} and the slow render log.
+     */
+    private void addServerTiming(RenderTrace trace, HttpServletResponse servletResponse) {
+        if (serverTiming && trace.isEnabled()) {
+            final String timing = trace.toServerTiming();
+            if (!timing.isEmpty()) {
+                servletResponse.addHeader(SERVER_TIMING, timing);
+            }
+        }
+    }
+
+    private static String gunzippedETag(String etag) {
+        if (etag == null || !etag.endsWith("\"")) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-gunzip\"";
+    }
+
+    /**
+     * If-None-Match takes precedence over If-Modified-Since, like RFC 7232 says.
+     * @return true if the client has the page already
+     */
+    static boolean isNotModified(HttpServletRequest request, String etag, String lastModified) {
+        final String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            if (etag == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // weak comparison
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        final String ifModifiedSince = request.getHeader(IF_MODIFIED_SINCE);
+        if (ifModifiedSince == null || lastModified == null) {
+            return false;
         }
+        final Date since = DateUtils.parseDate(ifModifiedSince);
+        final Date modified = DateUtils.parseDate(lastModified);
+        return since != null && modified != null && !modified.after(since);
     }
 
-    private String afterRender(HttpServletRequest clientRequest, HttpServletResponse clientResponse, CloseableHttpResponse prerenderServerResponse, String responseHtml) {
+    /**
+     * @return true if the Accept-Encoding header lists gzip without q=0, or lists any coding without q=0 and
+     * doesn't list gzip itself
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean anyAccepted = false;
+        for (String coding : acceptEncoding.split(",")) {
+            final String[] parameters = coding.split(";");
+            final String name = parameters[0].trim();
+            final boolean gzip = name.equalsIgnoreCase(RenderedPage.GZIP);
+            if (!gzip && !name.equals("*")) {
+                continue;
+            }
+            boolean accepted = true;
+            for (int i = 1; i < parameters.length; i++) {
+                final String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        accepted = Double.parseDouble(parameter.substring(2).trim()) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (gzip) {
+                // an explicit q-value of gzip wins over *
+                return accepted;
+            }
+            anyAccepted = accepted;
+        }
+        return anyAccepted;
+    }
+
+    private boolean isAfterRenderRequired(HttpServletRequest clientRequest) {
+        if (eventHandler instanceof PassThroughEventHandler) {
+            return ((PassThroughEventHandler) eventHandler).isAfterRenderRequired(clientRequest);
+        }
+        return eventHandler != null;
+    }
+
+    private String afterRender(HttpServletRequest clientRequest, HttpServletResponse clientResponse, HttpResponse prerenderServerResponse, String responseHtml) {
         if (eventHandler != null) {
-            return eventHandler.afterRender(clientRequest, clientResponse, prerenderServerResponse, responseHtml);
+            final long startedAt = System.nanoTime();
+            final String html = eventHandler.afterRender(clientRequest, clientResponse, prerenderServerResponse, responseHtml);
+            final long nanos = System.nanoTime() - startedAt;
+            metrics.onEventHandler(RendertronMetrics.Callback.AFTER_RENDER, nanos);
+            getTrace(clientRequest).add(RenderTrace.Phase.AFTER_RENDER, nanos);
+            return html;
         }
         return responseHtml;
     }
 
-    private String getFullUrl(HttpServletRequest request) {
+    /**
+     * @return url of the page to render, which is the render cache key as well; canonical if
+     * {@link Constants.InitFilterParams#CANONICALIZE_URLS} is set
+     */
+    String getFullUrl(HttpServletRequest request) {
         final String url = getRequestURL(request);
         final String queryString = request.getQueryString();
-        return isNotBlank(queryString) ? String.format("%s?%s", url, queryString) : url;
+        final String fullUrl = isNotBlank(queryString) ? url + "?" + queryString : url;
+        return urlCanonicalizer != null ? urlCanonicalizer.canonicalize(fullUrl) : fullUrl;
     }
 }
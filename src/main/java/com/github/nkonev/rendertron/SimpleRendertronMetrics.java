@@ -0,0 +1,176 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Default {@link RendertronMetrics}: counters and a fixed bucket latency histogram, read by the getters.
+ * Recording is an atomic increment or two, nothing is allocated.
+ */
+public class SimpleRendertronMetrics implements RendertronMetrics {
+
+    /**
+     * Upper bounds of the render latency buckets in milliseconds, the last bucket is unbounded.
+     */
+    private static final long[] LATENCY_BOUNDS_MILLIS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private final AtomicLongArray rejections = new AtomicLongArray(EligibilityStage.values().length);
+    private final AtomicLongArray cacheLookups = new AtomicLongArray(CacheResult.values().length);
+    /**
+     * Index is the status class, 1 to 5, 0 is for failed renders.
+     */
+    private final AtomicLongArray renders = new AtomicLongArray(6);
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BOUNDS_MILLIS.length + 1);
+    private final AtomicLong renderNanos = new AtomicLong();
+    private final AtomicLong renderedBodies = new AtomicLong();
+    private final AtomicLong renderedBodyLength = new AtomicLong();
+    private final AtomicLongArray eventHandlerCalls = new AtomicLongArray(Callback.values().length);
+    private final AtomicLongArray eventHandlerNanos = new AtomicLongArray(Callback.values().length);
+    private final AtomicLong errors = new AtomicLong();
+
+    @Override
+    public void onRejected(EligibilityStage stage) {
+        rejections.incrementAndGet(stage.ordinal());
+    }
+
+    @Override
+    public void onCacheLookup(CacheResult result) {
+        cacheLookups.incrementAndGet(result.ordinal());
+    }
+
+    @Override
+    public void onRender(int status, long latencyNanos) {
+        renders.incrementAndGet(statusClass(status));
+        renderNanos.addAndGet(latencyNanos);
+        final long latencyMillis = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        int bucket = 0;
+        while (bucket < LATENCY_BOUNDS_MILLIS.length && latencyMillis > LATENCY_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        latencyBuckets.incrementAndGet(bucket);
+    }
+
+    static int statusClass(int status) {
+        return status >= 100 && status < 600 ? status / 100 : 0;
+    }
+
+    @Override
+    public void onRenderedBody(long length) {
+        renderedBodies.incrementAndGet();
+        renderedBodyLength.addAndGet(length);
+    }
+
+    @Override
+    public void onEventHandler(Callback callback, long nanos) {
+        eventHandlerCalls.incrementAndGet(callback.ordinal());
+        eventHandlerNanos.addAndGet(callback.ordinal(), nanos);
+    }
+
+    @Override
+    public void onError(Exception e) {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * Pool statistics are available from {@link SeoService#getConnectionPoolStats()}.
+     */
+    @Override
+    public void bindConnectionPool(PoolingHttpClientConnectionManager connectionManager) {
+    }
+
+    /**
+     * The limit and shed renders are available from {@link SeoService#getConcurrencyLimiter()}.
+     */
+    @Override
+    public void bindConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+    }
+
+    /**
+     * The state and rejected renders are available from {@link SeoService#getCircuitBreaker()}.
+     */
+    @Override
+    public void bindCircuitBreaker(CircuitBreaker circuitBreaker) {
+    }
+
+    /**
+     * Latencies and errors per instance are available from {@link SeoService#getLoadBalancer()}.
+     */
+    @Override
+    public void bindLoadBalancer(RendertronLoadBalancer loadBalancer) {
+    }
+
+    /**
+     * Pending and dropped re-renders are available from {@link SeoService#getRenderRevalidator()}.
+     */
+    @Override
+    public void bindRenderRevalidator(RenderRevalidator renderRevalidator) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public long getRejectionCount(EligibilityStage stage) {
+        return rejections.get(stage.ordinal());
+    }
+
+    public long getCacheLookupCount(CacheResult result) {
+        return cacheLookups.get(result.ordinal());
+    }
+
+    /**
+     * @param statusClass 1 to 5 for 1xx to 5xx responses, 0 for renders without a response
+     */
+    public long getRenderCount(int statusClass) {
+        return renders.get(statusClass);
+    }
+
+    public long getRenderCount() {
+        long count = 0;
+        for (int i = 0; i < renders.length(); i++) {
+            count += renders.get(i);
+        }
+        return count;
+    }
+
+    public long getRenderNanos() {
+        return renderNanos.get();
+    }
+
+    /**
+     * @return upper bounds of the buckets of {@link #getLatencyBucketCount(int)}, the last bucket has no bound
+     */
+    public static long[] getLatencyBoundsMillis() {
+        return LATENCY_BOUNDS_MILLIS.clone();
+    }
+
+    /**
+     * @return renders which took more than the previous bound and at most the bound of the bucket
+     */
+    public long getLatencyBucketCount(int bucket) {
+        return latencyBuckets.get(bucket);
+    }
+
+    public long getRenderedBodyCount() {
+        return renderedBodies.get();
+    }
+
+    public long getRenderedBodyLength() {
+        return renderedBodyLength.get();
+    }
+
+    public long getEventHandlerCount(Callback callback) {
+        return eventHandlerCalls.get(callback.ordinal());
+    }
+
+    public long getEventHandlerNanos(Callback callback) {
+        return eventHandlerNanos.get(callback.ordinal());
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.HttpResponse;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.Writer;
+
+/**
+ * Streaming variant of {@link EventHandler#afterRender}: instead of taking and returning the whole html,
+ * the handler wraps the writer the html is written to and transforms it chunk by chunk, so big pages are
+ * rewritten without holding them in memory. Handlers are configured with
+ * {@link Constants.InitFilterParams#STREAMING_EVENT_HANDLERS} and chained in the configured order.
+ */
+public interface StreamingEventHandler {
+
+    /**
+     * @param renderServiceResponse Rendertron response
+     * @param responseWriter where the transformed html has to be written
+     * @return writer which accepts the html; closing it must write the rest of the html and close responseWriter
+     */
+    Writer afterRender(HttpServletRequest clientRequest, HttpServletResponse clientResponse,
+                       HttpResponse renderServiceResponse, Writer responseWriter);
+}
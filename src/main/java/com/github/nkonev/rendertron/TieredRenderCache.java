@@ -0,0 +1,40 @@
+package com.github.nkonev.rendertron;
+
+/**
+ * Two level {@link RenderCache}: a small heap cache for the hottest pages in front of a big off-heap one.
+ * Pages are written to both levels. A page found only in the second level is served from there and is not
+ * copied to the heap, so big pages don't end up in the Java heap again.
+ */
+public class TieredRenderCache implements RenderCache {
+    private final RenderCache first;
+    private final RenderCache second;
+
+    public TieredRenderCache(RenderCache first, RenderCache second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public RenderedPage get(String url) {
+        final RenderedPage page = first.get(url);
+        return page != null ? page : second.get(url);
+    }
+
+    @Override
+    public RenderedPage getStale(String url) {
+        final RenderedPage page = first.getStale(url);
+        return page != null ? page : second.getStale(url);
+    }
+
+    @Override
+    public void put(String url, RenderedPage page) {
+        first.put(url, page);
+        second.put(url, page);
+    }
+
+    @Override
+    public void destroy() {
+        first.destroy();
+        second.destroy();
+    }
+}
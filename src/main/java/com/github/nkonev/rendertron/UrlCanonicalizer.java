@@ -0,0 +1,149 @@
+package com.github.nkonev.rendertron;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Brings urls which address the same page to one form, so they are rendered and cached once:
+ * <ul>
+ *     <li>scheme and host are lowercased, the default port is removed</li>
+ *     <li>percent-encoding is normalized: unreserved characters are decoded, hex digits are uppercased</li>
+ *     <li>query parameters are sorted by name, values of a repeated parameter keep their order</li>
+ *     <li>ignored (tracking) parameters and empty parameters are removed</li>
+ *     <li>the fragment is removed</li>
+ * </ul>
+ * Paths are case sensitive and are not changed otherwise.
+ */
+public class UrlCanonicalizer {
+
+    public static final List<String> DEFAULT_IGNORED_PARAMETERS =
+            Collections.unmodifiableList(Arrays.asList("utm_*", "gclid", "fbclid"));
+
+    private static final Comparator<String> BY_NAME = new Comparator<String>() {
+        @Override
+        public int compare(String left, String right) {
+            return parameterName(left).compareTo(parameterName(right));
+        }
+    };
+
+    private final List<String> ignoredNames = new ArrayList<String>();
+    private final List<String> ignoredPrefixes = new ArrayList<String>();
+
+    /**
+     * @param ignoredParameters names of query parameters to remove, a trailing {@code *} matches any suffix
+     */
+    public UrlCanonicalizer(List<String> ignoredParameters) {
+        for (String parameter : ignoredParameters) {
+            if (parameter.endsWith("*")) {
+                ignoredPrefixes.add(parameter.substring(0, parameter.length() - 1));
+            } else {
+                ignoredNames.add(parameter);
+            }
+        }
+    }
+
+    public String canonicalize(String url) {
+        final int fragment = url.indexOf('#');
+        if (fragment >= 0) {
+            url = url.substring(0, fragment);
+        }
+        final int queryStart = url.indexOf('?');
+        final String query = queryStart >= 0 ? url.substring(queryStart + 1) : null;
+        if (queryStart >= 0) {
+            url = url.substring(0, queryStart);
+        }
+
+        final StringBuilder canonical = new StringBuilder(url.length() + (query != null ? query.length() + 1 : 0));
+        final int schemeEnd = url.indexOf("://");
+        String path = url;
+        if (schemeEnd > 0) {
+            final String scheme = url.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+            final int pathStart = url.indexOf('/', schemeEnd + 3);
+            final String authority = pathStart >= 0 ? url.substring(schemeEnd + 3, pathStart) : url.substring(schemeEnd + 3);
+            path = pathStart >= 0 ? url.substring(pathStart) : "/";
+            canonical.append(scheme).append("://").append(canonicalAuthority(scheme, authority));
+        }
+        appendNormalized(canonical, path);
+
+        if (query != null) {
+            final List<String> parameters = new ArrayList<String>();
+            for (String parameter : query.split("&")) {
+                if (!parameter.isEmpty()) {
+                    final StringBuilder normalized = new StringBuilder(parameter.length());
+                    appendNormalized(normalized, parameter);
+                    if (!isIgnored(parameterName(normalized.toString()))) {
+                        parameters.add(normalized.toString());
+                    }
+                }
+            }
+            // the sort is stable, so a=2&a=1 stays as is
+            Collections.sort(parameters, BY_NAME);
+            for (int i = 0; i < parameters.size(); i++) {
+                canonical.append(i == 0 ? '?' : '&').append(parameters.get(i));
+            }
+        }
+        return canonical.toString();
+    }
+
+    private static String canonicalAuthority(String scheme, String authority) {
+        final int userInfoEnd = authority.lastIndexOf('@');
+        final String userInfo = userInfoEnd >= 0 ? authority.substring(0, userInfoEnd + 1) : "";
+        String hostPort = authority.substring(userInfoEnd + 1).toLowerCase(Locale.ROOT);
+        if (("http".equals(scheme) && hostPort.endsWith(":80")) || ("https".equals(scheme) && hostPort.endsWith(":443"))) {
+            hostPort = hostPort.substring(0, hostPort.lastIndexOf(':'));
+        }
+        return userInfo + hostPort;
+    }
+
+    private static String parameterName(String parameter) {
+        final int equals = parameter.indexOf('=');
+        return equals >= 0 ? parameter.substring(0, equals) : parameter;
+    }
+
+    private boolean isIgnored(String name) {
+        if (ignoredNames.contains(name)) {
+            return true;
+        }
+        for (String prefix : ignoredPrefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes percent-encoded unreserved characters and uppercases the hex digits of the others, RFC 3986 6.2.2.
+     * Malformed escapes are kept as is.
+     */
+    private static void appendNormalized(StringBuilder builder, String part) {
+        for (int i = 0; i < part.length(); i++) {
+            final char c = part.charAt(i);
+            if (c == '%' && i + 2 < part.length() && isHex(part.charAt(i + 1)) && isHex(part.charAt(i + 2))) {
+                final char decoded = (char) Integer.parseInt(part.substring(i + 1, i + 3), 16);
+                if (isUnreserved(decoded)) {
+                    builder.append(decoded);
+                } else {
+                    builder.append('%').append(Character.toUpperCase(part.charAt(i + 1)))
+                            .append(Character.toUpperCase(part.charAt(i + 2)));
+                }
+                i += 2;
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+    private static boolean isHex(char c) {
+        return Character.digit(c, 16) >= 0;
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+}
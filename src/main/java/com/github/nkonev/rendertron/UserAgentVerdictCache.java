@@ -0,0 +1,87 @@
+package com.github.nkonev.rendertron;
+
+/**
+ * Bounded cache of crawler/non-crawler verdicts keyed by the exact User-Agent string.
+ * <p>
+ * It is an open addressing table with a short probe window; when the window is full an entry
+ * is chosen with the CLOCK (second chance) policy, so recently used User-Agents survive.
+ * Lookups neither lock nor allocate. Races between threads may only lose an update or evict
+ * a slightly wrong entry, which costs one more automaton scan but never a wrong verdict,
+ * because every {@link Entry} is immutable apart from its reference bit.
+ */
+class UserAgentVerdictCache {
+    static final int UNKNOWN = -1;
+    static final int HUMAN = 0;
+    static final int CRAWLER = 1;
+
+    private static final int PROBES = 8;
+
+    private final Entry[] table;
+    private final int mask;
+    private int hand;
+
+    UserAgentVerdictCache(int maxSize) {
+        int capacity = PROBES;
+        while (capacity < maxSize) {
+            capacity <<= 1;
+        }
+        this.table = new Entry[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return {@link #CRAWLER}, {@link #HUMAN} or {@link #UNKNOWN} when the User-Agent is not cached
+     */
+    int get(String userAgent) {
+        final int hash = spread(userAgent.hashCode());
+        for (int i = 0; i < PROBES; i++) {
+            final Entry entry = table[(hash + i) & mask];
+            if (entry != null && entry.hash == hash && entry.userAgent.equals(userAgent)) {
+                entry.referenced = true;
+                return entry.crawler ? CRAWLER : HUMAN;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    void put(String userAgent, boolean crawler) {
+        final int hash = spread(userAgent.hashCode());
+        final Entry entry = new Entry(userAgent, hash, crawler);
+        for (int i = 0; i < PROBES; i++) {
+            final int index = (hash + i) & mask;
+            if (table[index] == null) {
+                table[index] = entry;
+                return;
+            }
+        }
+        // window is full: sweep it from the hand, giving referenced entries a second chance
+        final int start = hand++;
+        for (int i = 0; i < PROBES; i++) {
+            final int index = (hash + ((start + i) & (PROBES - 1))) & mask;
+            final Entry candidate = table[index];
+            if (candidate == null || !candidate.referenced) {
+                table[index] = entry;
+                return;
+            }
+            candidate.referenced = false;
+        }
+        table[(hash + (start & (PROBES - 1))) & mask] = entry;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Entry {
+        final String userAgent;
+        final int hash;
+        final boolean crawler;
+        boolean referenced;
+
+        Entry(String userAgent, int hash, boolean crawler) {
+            this.userAgent = userAgent;
+            this.hash = hash;
+            this.crawler = crawler;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.HttpResponse;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.Writer;
+
+/**
+ * Collapses the whitespace of the rendered page to make it smaller.
+ */
+public class WhitespaceCollapsingEventHandler implements StreamingEventHandler {
+
+    @Override
+    public Writer afterRender(HttpServletRequest clientRequest, HttpServletResponse clientResponse,
+                              HttpResponse renderServiceResponse, Writer responseWriter) {
+        return new WhitespaceCollapsingWriter(responseWriter);
+    }
+}
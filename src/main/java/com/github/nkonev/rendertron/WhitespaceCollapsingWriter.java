@@ -0,0 +1,133 @@
+package com.github.nkonev.rendertron;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Collapses every run of whitespace in the text of streamed html into one char: a new line if the run
+ * had one, a space otherwise. Tags are left as they are, as is the content of elements where
+ * whitespace matters ({@code pre}, {@code textarea}, {@code script} and {@code style}).
+ */
+class WhitespaceCollapsingWriter extends HtmlTransformingWriter {
+    private static final String[] RAW_ELEMENTS = {"pre", "textarea", "script", "style"};
+    /**
+     * Longer tag names can't be one of {@link #RAW_ELEMENTS}, so they are not collected.
+     */
+    private static final int MAX_TAG_NAME_LENGTH = 8;
+
+    private enum State {
+        TEXT, TAG, RAW
+    }
+
+    private State state = State.TEXT;
+    private boolean whitespacePending;
+    private boolean newLinePending;
+
+    private final StringBuilder tagName = new StringBuilder(MAX_TAG_NAME_LENGTH);
+    private boolean readingTagName;
+    private boolean closingTag;
+    private char quote;
+
+    private String rawEnd;
+    private int rawEndMatched;
+
+    WhitespaceCollapsingWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    protected void process(char c) throws IOException {
+        switch (state) {
+            case TEXT:
+                if (isWhitespace(c)) {
+                    whitespacePending = true;
+                    newLinePending |= c == '\n';
+                } else {
+                    emitWhitespace();
+                    emit(c);
+                    if (c == '<') {
+                        startTag();
+                    }
+                }
+                break;
+            case TAG:
+                emit(c);
+                tag(c);
+                break;
+            case RAW:
+                emit(c);
+                if (toLowerCase(c) == rawEnd.charAt(rawEndMatched)) {
+                    if (++rawEndMatched == rawEnd.length()) {
+                        // the rest of the end tag, like "</pre>"
+                        state = State.TAG;
+                        readingTagName = false;
+                        closingTag = true;
+                        quote = 0;
+                    }
+                } else {
+                    rawEndMatched = c == '<' ? 1 : 0;
+                }
+                break;
+        }
+    }
+
+    private void startTag() {
+        state = State.TAG;
+        tagName.setLength(0);
+        readingTagName = true;
+        closingTag = false;
+        quote = 0;
+    }
+
+    private void tag(char c) {
+        if (readingTagName) {
+            if (c == '/' && tagName.length() == 0 && !closingTag) {
+                closingTag = true;
+                return;
+            }
+            if (Character.isLetterOrDigit(c) && tagName.length() <= MAX_TAG_NAME_LENGTH) {
+                tagName.append(toLowerCase(c));
+                return;
+            }
+            readingTagName = false;
+        }
+        if (quote != 0) {
+            if (c == quote) {
+                quote = 0;
+            }
+        } else if (c == '"' || c == '\'') {
+            quote = c;
+        } else if (c == '>') {
+            final String rawElement = closingTag ? null : rawElement();
+            if (rawElement != null) {
+                state = State.RAW;
+                rawEnd = "</" + rawElement;
+                rawEndMatched = 0;
+            } else {
+                state = State.TEXT;
+            }
+        }
+    }
+
+    private String rawElement() {
+        for (String element : RAW_ELEMENTS) {
+            if (element.contentEquals(tagName)) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private void emitWhitespace() throws IOException {
+        if (whitespacePending) {
+            emit(newLinePending ? '\n' : ' ');
+            whitespacePending = false;
+            newLinePending = false;
+        }
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        emitWhitespace();
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.nkonev.rendertron;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link RendertronMetrics} for Micrometer. Counters are the ones of {@link SimpleRendertronMetrics}, read by
+ * function counters when the registry is published, so the request threads only pay for the atomic increments.
+ * Render latencies and event handler times are recorded to timers, which are created up front.
+ * <p>
+ * Every meter has the {@code instance} tag, so several {@link SeoService}s can report to one registry.
+ * {@link #close()} removes the meters of the instance from the registry.
+ * <p>
+ * Set {@code metrics=com.github.nkonev.rendertron.MicrometerRendertronMetrics} to report to the global registry,
+ * or pass an instance with another registry to the {@link SeoService} constructor.
+ */
+public class MicrometerRendertronMetrics extends SimpleRendertronMetrics {
+
+    public static final String INSTANCE_TAG = "instance";
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final MeterRegistry registry;
+    private final Tags tags;
+    private final List<Meter> meters = new CopyOnWriteArrayList<>();
+    /**
+     * Index is the status class, see {@link SimpleRendertronMetrics#getRenderCount(int)}.
+     */
+    private final Timer[] renderTimers = new Timer[6];
+    private final Timer[] eventHandlerTimers = new Timer[Callback.values().length];
+    private final DistributionSummary renderedBodies;
+
+    public MicrometerRendertronMetrics() {
+        this(Metrics.globalRegistry);
+    }
+
+    /**
+     * The instance tag is the number of the instance in this JVM: 1, 2...
+     */
+    public MicrometerRendertronMetrics(MeterRegistry registry) {
+        this(registry, String.valueOf(instances.incrementAndGet()));
+    }
+
+    /**
+     * @param instance value of the {@link #INSTANCE_TAG} of the meters
+     */
+    public MicrometerRendertronMetrics(MeterRegistry registry, String instance) {
+        this.registry = registry;
+        this.tags = Tags.of(INSTANCE_TAG, instance);
+        for (EligibilityStage stage : EligibilityStage.values()) {
+            register(FunctionCounter.builder("rendertron.rejections", this, metrics -> metrics.getRejectionCount(stage))
+                    .tags(tags)
+                    .tag("stage", tagValue(stage))
+                    .description("Requests which were not rendered")
+                    .register(registry));
+        }
+        for (CacheResult result : CacheResult.values()) {
+            register(FunctionCounter.builder("rendertron.cache.lookups", this, metrics -> metrics.getCacheLookupCount(result))
+                    .tags(tags)
+                    .tag("result", tagValue(result))
+                    .register(registry));
+        }
+        register(FunctionCounter.builder("rendertron.errors", this, SimpleRendertronMetrics::getErrorCount)
+                .tags(tags)
+                .description("Errors which passed the request down the filter chain")
+                .register(registry));
+        for (int statusClass = 0; statusClass < renderTimers.length; statusClass++) {
+            renderTimers[statusClass] = register(Timer.builder("rendertron.renders")
+                    .tags(tags)
+                    .tag("status", statusClass == 0 ? "none" : statusClass + "xx")
+                    .description("Time to the response headers of Rendertron")
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        for (Callback callback : Callback.values()) {
+            eventHandlerTimers[callback.ordinal()] = register(Timer.builder("rendertron.event.handler")
+                    .tags(tags)
+                    .tag("callback", tagValue(callback))
+                    .register(registry));
+        }
+        renderedBodies = register(DistributionSummary.builder("rendertron.rendered.body")
+                .tags(tags)
+                .baseUnit("bytes")
+                .register(registry));
+    }
+
+    private static String tagValue(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+
+    private <M extends Meter> M register(M meter) {
+        meters.add(meter);
+        return meter;
+    }
+
+    @Override
+    public void onRender(int status, long latencyNanos) {
+        super.onRender(status, latencyNanos);
+        renderTimers[statusClass(status)].record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onRenderedBody(long length) {
+        super.onRenderedBody(length);
+        renderedBodies.record(length);
+    }
+
+    @Override
+    public void onEventHandler(Callback callback, long nanos) {
+        super.onEventHandler(callback, nanos);
+        eventHandlerTimers[callback.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void bindConnectionPool(PoolingHttpClientConnectionManager connectionManager) {
+        // gauges hold their object weakly, the pool has to be reported until close()
+        register(Gauge.builder("rendertron.connections", connectionManager, manager -> manager.getTotalStats().getLeased())
+                .tags(tags).tag("state", "leased").strongReference(true).register(registry));
+        register(Gauge.builder("rendertron.connections", connectionManager, manager -> manager.getTotalStats().getPending())
+                .tags(tags).tag("state", "pending").strongReference(true).register(registry));
+        register(Gauge.builder("rendertron.connections", connectionManager, manager -> manager.getTotalStats().getAvailable())
+                .tags(tags).tag("state", "available").strongReference(true).register(registry));
+    }
+
+    @Override
+    public void bindConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        register(Gauge.builder("rendertron.concurrency.limit", concurrencyLimiter, ConcurrencyLimiter::getLimit)
+                .tags(tags).strongReference(true).register(registry));
+        register(Gauge.builder("rendertron.concurrency.in.flight", concurrencyLimiter, ConcurrencyLimiter::getInFlight)
+                .tags(tags).strongReference(true).register(registry));
+        register(FunctionCounter.builder("rendertron.concurrency.shed", concurrencyLimiter, ConcurrencyLimiter::getShedCount)
+                .tags(tags)
+                .description("Renders over the limit")
+                .register(registry));
+    }
+
+    @Override
+    public void bindCircuitBreaker(CircuitBreaker circuitBreaker) {
+        for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+            register(Gauge.builder("rendertron.circuit.breaker.state", circuitBreaker,
+                    breaker -> breaker.getState() == state ? 1 : 0)
+                    .tags(tags).tag("state", tagValue(state)).strongReference(true).register(registry));
+        }
+        register(FunctionCounter.builder("rendertron.circuit.breaker.rejected", circuitBreaker,
+                CircuitBreaker::getRejectedCount)
+                .tags(tags)
+                .description("Renders skipped while the breaker was open")
+                .register(registry));
+    }
+
+    @Override
+    public void bindLoadBalancer(RendertronLoadBalancer loadBalancer) {
+        for (RendertronBackend backend : loadBalancer.getBackends()) {
+            final Tags backendTags = tags.and("backend", backend.getServiceUrl());
+            register(Gauge.builder("rendertron.backend.latency", backend, RendertronBackend::getLatencyMillis)
+                    .tags(backendTags).baseUnit("milliseconds")
+                    .description("Moving average of the render latency")
+                    .strongReference(true).register(registry));
+            register(Gauge.builder("rendertron.backend.outstanding", backend, RendertronBackend::getOutstanding)
+                    .tags(backendTags).strongReference(true).register(registry));
+            register(Gauge.builder("rendertron.backend.ejected", backend, b -> b.isEjected() ? 1 : 0)
+                    .tags(backendTags).strongReference(true).register(registry));
+            register(FunctionCounter.builder("rendertron.backend.requests", backend, RendertronBackend::getRequestCount)
+                    .tags(backendTags).register(registry));
+            register(FunctionCounter.builder("rendertron.backend.errors", backend, RendertronBackend::getErrorCount)
+                    .tags(backendTags).register(registry));
+        }
+    }
+
+    @Override
+    public void bindRenderRevalidator(RenderRevalidator renderRevalidator) {
+        register(Gauge.builder("rendertron.revalidation.pending", renderRevalidator, RenderRevalidator::getPendingCount)
+                .tags(tags).strongReference(true).register(registry));
+        register(FunctionCounter.builder("rendertron.revalidation.revalidated", renderRevalidator,
+                RenderRevalidator::getRevalidatedCount)
+                .tags(tags).register(registry));
+        register(FunctionCounter.builder("rendertron.revalidation.dropped", renderRevalidator,
+                RenderRevalidator::getDroppedCount)
+                .tags(tags)
+                .description("Re-renders of stale pages dropped because the queue was full")
+                .register(registry));
+    }
+
+    @Override
+    public void close() {
+        for (Meter meter : meters) {
+            registry.remove(meter);
+        }
+        meters.clear();
+    }
+}
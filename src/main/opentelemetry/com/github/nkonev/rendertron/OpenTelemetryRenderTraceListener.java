@@ -0,0 +1,65 @@
+package com.github.nkonev.rendertron;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.Tracer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RenderTraceListener} for OpenTelemetry. Each rendered request becomes a {@code rendertron.render} span
+ * which starts and ends with the trace, the phases are its attributes in milliseconds. The span is a child of
+ * the current span, if the filter runs inside an instrumented request.
+ * <p>
+ * Set {@code renderTraceListener=com.github.nkonev.rendertron.OpenTelemetryRenderTraceListener} to report to
+ * the global {@link OpenTelemetry}.
+ */
+public class OpenTelemetryRenderTraceListener implements RenderTraceListener {
+
+    private static final AttributeKey<String> URL = AttributeKey.stringKey("url.full");
+    private static final RenderTrace.Phase[] PHASES = RenderTrace.Phase.values();
+    /**
+     * Index is the ordinal of the phase.
+     */
+    private static final AttributeKey<Double>[] PHASE_KEYS = phaseKeys();
+
+    private final Tracer tracer;
+
+    public OpenTelemetryRenderTraceListener() {
+        this(GlobalOpenTelemetry.get());
+    }
+
+    public OpenTelemetryRenderTraceListener(OpenTelemetry openTelemetry) {
+        this.tracer = openTelemetry.getTracer("rendertron-java");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AttributeKey<Double>[] phaseKeys() {
+        final AttributeKey<Double>[] keys = new AttributeKey[PHASES.length];
+        for (RenderTrace.Phase phase : PHASES) {
+            keys[phase.ordinal()] = AttributeKey.doubleKey("rendertron." + phase.getMetricName() + ".ms");
+        }
+        return keys;
+    }
+
+    @Override
+    public void onTrace(RenderTrace trace) {
+        final long startedAtNanos = TimeUnit.MILLISECONDS.toNanos(trace.getStartedAtMillis());
+        final Span span = tracer.spanBuilder("rendertron.render")
+                .setSpanKind(SpanKind.INTERNAL)
+                .setStartTimestamp(startedAtNanos, TimeUnit.NANOSECONDS)
+                .startSpan();
+        if (trace.getUrl() != null) {
+            span.setAttribute(URL, trace.getUrl());
+        }
+        for (RenderTrace.Phase phase : PHASES) {
+            if (trace.isRecorded(phase)) {
+                span.setAttribute(PHASE_KEYS[phase.ordinal()], trace.getNanos(phase) / 1e6);
+            }
+        }
+        span.end(startedAtNanos + trace.getTotalNanos(), TimeUnit.NANOSECONDS);
+    }
+}
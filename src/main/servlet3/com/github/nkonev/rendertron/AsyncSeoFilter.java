@@ -0,0 +1,47 @@
+package com.github.nkonev.rendertron;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * {@link SeoFilter} which renders pages asynchronously with {@link AsyncSeoService}. It has to be mapped
+ * with async support and for the ASYNC dispatcher too, because a request whose render failed is
+ * dispatched again to pass it down the filter chain. Requests without async support are rendered
+ * synchronously, as by {@link SeoFilter}.
+ */
+public class AsyncSeoFilter extends SeoFilter {
+    private AsyncSeoService asyncSeoService;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        setSeoService(new AsyncSeoService(toMap(filterConfig)));
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
+            throws IOException, ServletException {
+        if (servletRequest.getAttribute(AsyncSeoService.FALL_THROUGH_ATTRIBUTE) != null) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        final HttpServletRequest request = (HttpServletRequest) servletRequest;
+        final HttpServletResponse response = (HttpServletResponse) servletResponse;
+        final boolean isPrerendered = request.isAsyncSupported() ?
+                asyncSeoService.renderAsyncIfEligible(request, response) :
+                asyncSeoService.renderIfEligible(request, response);
+        if (!isPrerendered) {
+            filterChain.doFilter(servletRequest, servletResponse);
+        }
+    }
+
+    protected void setSeoService(AsyncSeoService seoService) {
+        super.setSeoService(seoService);
+        this.asyncSeoService = seoService;
+    }
+}
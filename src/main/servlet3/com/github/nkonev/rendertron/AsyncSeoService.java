@@ -0,0 +1,620 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.entity.ContentBufferEntity;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SimpleInputBuffer;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link SeoService} which doesn't hold a container thread while Rendertron renders the page:
+ * the request is put into async mode and parked until the render completes. By default Rendertron
+ * is called with a non-blocking client and the rendered page is written on a container thread when
+ * the response arrives. With {@link Constants.InitFilterParams#RENDER_ON_VIRTUAL_THREADS} the whole
+ * blocking render runs on a virtual thread instead (JDK 21+). When the render fails before anything
+ * is written, the request is dispatched again and passed down the filter chain. A render which takes longer
+ * than {@link Config#getAsyncTimeout()} is cancelled and passed down the filter chain the same way.
+ * The non-blocking client buffers the rendered page, up to {@link Config#getRenderMaxBodyBytes()}, so that
+ * it is written to a slow servlet client on a container thread rather than on the I/O thread of the client.
+ * Coalesced requests are parked too until the render they wait for completes.
+ */
+public class AsyncSeoService extends SeoService {
+    private final static Logger log = LoggerFactory.getLogger(AsyncSeoService.class);
+    /**
+     * Set on a request which is dispatched again after a failed render, {@link AsyncSeoFilter} passes it through.
+     */
+    public static final String FALL_THROUGH_ATTRIBUTE = AsyncSeoService.class.getName() + ".fallThrough";
+
+    /**
+     * Holds the {@link ParkedRender} of a request rendered on {@link #renderExecutor}.
+     */
+    static final String PARKED_RENDER_ATTRIBUTE = AsyncSeoService.class.getName() + ".parkedRender";
+
+    private final ExecutorService renderExecutor;
+    private final CloseableHttpAsyncClient httpAsyncClient;
+    private final AtomicInteger parkedRenders = new AtomicInteger();
+    private final long asyncTimeout;
+    private final int renderMaxBodyBytes;
+
+    public AsyncSeoService(Map<String, String> config) {
+        this(config, null);
+    }
+
+    /**
+     * @param metrics metrics to report to, null for {@link Config#getMetrics()}
+     */
+    public AsyncSeoService(Map<String, String> config, RendertronMetrics metrics) {
+        super(config, metrics);
+        this.asyncTimeout = getConfig().getAsyncTimeout();
+        this.renderMaxBodyBytes = getConfig().getRenderMaxBodyBytes();
+        ExecutorService executor = null;
+        if (getConfig().isRenderOnVirtualThreads()) {
+            executor = getRenderExecutor();
+            if (executor == null) {
+                log.warn("Virtual threads are not available on this JVM, the asynchronous http client is used");
+            }
+        }
+        this.renderExecutor = executor;
+        if (renderExecutor == null) {
+            this.httpAsyncClient = getHttpAsyncClient();
+            this.httpAsyncClient.start();
+        } else {
+            this.httpAsyncClient = null;
+        }
+    }
+
+    protected CloseableHttpAsyncClient getHttpAsyncClient() {
+        final Config config = getConfig();
+        final HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                .setMaxConnTotal(config.getMaxConnections())
+                .setMaxConnPerRoute(config.getMaxConnectionsPerRoute())
+                .setDefaultRequestConfig(config.getRequestConfig());
+        final HttpHost proxy = config.getProxy();
+        if (proxy != null) {
+            builder.setProxy(proxy);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The library is built for Java 7, so the virtual thread executor is looked up reflectively.
+     * @return executor which starts a virtual thread per render or null if the JVM has no virtual threads
+     */
+    protected ExecutorService getRenderExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (renderExecutor != null) {
+            renderExecutor.shutdownNow();
+        }
+        closeQuietly(httpAsyncClient);
+    }
+
+    /**
+     * @return how many requests are in async mode waiting for their render
+     */
+    public int getParkedRenderCount() {
+        return parkedRenders.get();
+    }
+
+    /**
+     * Like {@link #renderIfEligible}, but the render itself completes asynchronously.
+     * The request must support async processing.
+     * @return false if the request has to be passed down the filter chain right away
+     */
+    public boolean renderAsyncIfEligible(HttpServletRequest request, HttpServletResponse response) {
+        RenderTrace trace = RenderTrace.DISABLED;
+        try {
+            if (!shouldShowRenderedPage(request)) {
+                return false;
+            }
+            if (renderExecutor != null) {
+                renderOnExecutor(request, response);
+                return true;
+            }
+            trace = startTrace(request);
+            if (beforeRender(request, response)) {
+                return true;
+            }
+            final String fullUrl = getFullUrl(request);
+            trace.setUrl(fullUrl);
+            final boolean pageShared = isPageShared(request);
+            if (pageShared && responseCachedPage(request, fullUrl, response)) {
+                return true;
+            }
+            if (pageShared && responseRevalidatedPage(request, fullUrl, response)) {
+                return true;
+            }
+            final RenderCoalescer renderCoalescer = pageShared ? getRenderCoalescer() : null;
+            if (renderCoalescer != null) {
+                final RenderCoalescer.Flight flight = renderCoalescer.join(fullUrl);
+                if (flight != null) {
+                    awaitFlight(request, response, flight, fullUrl);
+                    return true;
+                }
+            }
+            return renderAsync(request, response, fullUrl, pageShared);
+        } catch (Exception e) {
+            log.error("Render service error", e);
+            getMetrics().onError(e);
+        } finally {
+            // a parked request finishes its trace in unpark()
+            if (!trace.isDetached()) {
+                finishTrace(trace);
+            }
+        }
+        return false;
+    }
+
+    private AsyncContext park(HttpServletRequest request, HttpServletResponse response, AsyncListener listener,
+                              long timeout) {
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        // the http client has no timeouts by default, so the container bounds the render
+        asyncContext.setTimeout(timeout);
+        asyncContext.addListener(listener);
+        parkedRenders.incrementAndGet();
+        getTrace(request).detach();
+        return asyncContext;
+    }
+
+    /**
+     * Completes the parked request, or passes it down the filter chain if nothing was written yet.
+     */
+    private void unpark(HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext,
+                        boolean rendered) {
+        abandon(request);
+        try {
+            if (rendered || response.isCommitted()) {
+                asyncContext.complete();
+            } else {
+                response.reset();
+                request.setAttribute(FALL_THROUGH_ATTRIBUTE, Boolean.TRUE);
+                asyncContext.dispatch();
+            }
+        } catch (IllegalStateException e) {
+            // the container has already ended the async cycle, e.g. on a client disconnect
+            log.debug("Parked request is already finished", e);
+        }
+    }
+
+    /**
+     * Forgets the parked request without completing it.
+     */
+    private void abandon(HttpServletRequest request) {
+        parkedRenders.decrementAndGet();
+        finishTrace(getTrace(request));
+    }
+
+    /**
+     * Runs the blocking render on {@link #renderExecutor}, the container thread returns right away.
+     */
+    private void renderOnExecutor(final HttpServletRequest request, final HttpServletResponse response) {
+        // the interrupt of a timed out render aborts the socket I/O of the virtual thread, which releases the render
+        final ParkedRender parkedRender = new ParkedRender(request, response, asyncTimeout) {
+            @Override
+            void timedOut() {
+                renderTimedOut();
+            }
+        };
+        request.setAttribute(PARKED_RENDER_ATTRIBUTE, parkedRender);
+        parkedRender.park();
+        try {
+            parkedRender.future = renderExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    boolean rendered = false;
+                    try {
+                        rendered = renderEligible(request, response);
+                    } catch (Exception e) {
+                        log.error("Render service error", e);
+                        getMetrics().onError(e);
+                    } finally {
+                        if (parkedRender.claim()) {
+                            parkedRender.unpark(rendered);
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Render service error", e);
+            getMetrics().onError(e);
+            if (parkedRender.finish()) {
+                parkedRender.unpark(false);
+            }
+        }
+    }
+
+    /**
+     * Parks the coalesced request until the render of the leader completes, instead of blocking a container thread.
+     */
+    private void awaitFlight(final HttpServletRequest request, final HttpServletResponse response,
+                             RenderCoalescer.Flight flight, final String fullUrl) {
+        log.trace("Waiting for render in flight:{}", fullUrl);
+        // setTimeout(0) would wait forever
+        final ParkedRender parkedRender = new ParkedRender(request, response, Math.max(getRenderCoalescingTimeout(), 1)) {
+            @Override
+            void timedOut() {
+                log.debug("Render in flight timed out, falling through:{}", fullUrl);
+            }
+        };
+        parkedRender.park();
+        flight.whenComplete(new RenderCoalescer.FlightListener() {
+            @Override
+            public void completed(final RenderedPage page) {
+                if (!parkedRender.finish()) {
+                    return;
+                }
+                if (page == null) {
+                    log.debug("Render in flight failed, falling through:{}", fullUrl);
+                    parkedRender.unpark(false);
+                    return;
+                }
+                // the leader completes the flight on the I/O thread of the http client
+                final boolean started = parkedRender.start(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean rendered = false;
+                        try {
+                            responseRenderedPage(request, page, response);
+                            rendered = true;
+                        } catch (Exception e) {
+                            log.error("Render service error", e);
+                            getMetrics().onError(e);
+                        } finally {
+                            parkedRender.unpark(rendered);
+                        }
+                    }
+                });
+                if (!started) {
+                    parkedRender.unpark(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Claims the request rendered on {@link #renderExecutor} before its response is written, after that the
+     * container timeout leaves the response alone.
+     */
+    @Override
+    boolean startResponse(HttpServletRequest request) {
+        final Object parkedRender = request.getAttribute(PARKED_RENDER_ATTRIBUTE);
+        return !(parkedRender instanceof ParkedRender) || ((ParkedRender) parkedRender).claim();
+    }
+
+    private void renderTimedOut() {
+        final TimeoutException e = new TimeoutException("Render took longer than " + asyncTimeout + " ms");
+        log.error("Render service error", e);
+        getMetrics().onError(e);
+    }
+
+    /**
+     * Parked request, which is finished once: by the end of its render or by the container timeout.
+     */
+    private abstract class ParkedRender implements AsyncListener {
+        final HttpServletRequest request;
+        final HttpServletResponse response;
+        private final long timeout;
+        AsyncContext asyncContext;
+        volatile Future<?> future;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        /**
+         * Set by the thread of a blocking render once it has finished the request.
+         */
+        private volatile boolean claimed;
+
+        ParkedRender(HttpServletRequest request, HttpServletResponse response, long timeout) {
+            this.request = request;
+            this.response = response;
+            this.timeout = timeout;
+        }
+
+        void park() {
+            asyncContext = AsyncSeoService.this.park(request, response, this, timeout);
+        }
+
+        /**
+         * @return true for the only caller which may unpark the request
+         */
+        boolean finish() {
+            return finished.compareAndSet(false, true);
+        }
+
+        /**
+         * Like {@link #finish()}, but repeatable by the thread of a blocking render.
+         * @return true if the render may write the response and unpark the request
+         */
+        boolean claim() {
+            if (!claimed) {
+                claimed = finish();
+            }
+            return claimed;
+        }
+
+        void unpark(boolean rendered) {
+            AsyncSeoService.this.unpark(request, response, asyncContext, rendered);
+        }
+
+        /**
+         * Reports the timeout, called once.
+         */
+        abstract void timedOut();
+
+        /**
+         * Releases what the render holds when the request is finished before the render, called once.
+         */
+        void released() {
+        }
+
+        /**
+         * Runs the task on a container thread.
+         *
+         * @return false if the container has already ended the async cycle
+         */
+        boolean start(Runnable task) {
+            try {
+                asyncContext.start(task);
+                return true;
+            } catch (IllegalStateException e) {
+                log.debug("Parked request is already finished", e);
+                return false;
+            }
+        }
+
+        private void cancel() {
+            final Future<?> render = future;
+            if (render != null) {
+                render.cancel(true);
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            if (!finish()) {
+                // the render completed and is being written
+                return;
+            }
+            cancel();
+            timedOut();
+            released();
+            unpark(false);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            if (!finish()) {
+                return;
+            }
+            log.debug("Parked request failed", event.getThrowable());
+            cancel();
+            released();
+            // the container ends the async cycle itself
+            abandon(request);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * @return false if the render is shed and the request has to be passed down the filter chain
+     */
+    private boolean renderAsync(HttpServletRequest request, HttpServletResponse response, String fullUrl,
+                                boolean pageShared) throws IOException {
+        final RenderCallback callback = new RenderCallback(request, response, fullUrl,
+                pageShared && getRenderCoalescer() != null);
+        try {
+            callback.backend = acquireRender(fullUrl);
+        } catch (RuntimeException e) {
+            callback.completeFlight(null);
+            throw e;
+        }
+        if (callback.backend == null) {
+            callback.completeFlight(null);
+            return pageShared && responseStalePage(request, fullUrl, response);
+        }
+        callback.startedAt = System.nanoTime();
+        final HttpGet getMethod;
+        try {
+            getMethod = getRenderRequest(request, callback.backend, fullUrl);
+            callback.park();
+        } catch (RuntimeException e) {
+            callback.release(RendertronMetrics.NO_RESPONSE);
+            callback.completeFlight(null);
+            throw e;
+        }
+        try {
+            getTrace(request).requestStarted();
+            callback.future = httpAsyncClient.execute(HttpAsyncMethods.create(getMethod),
+                    new CappedResponseConsumer(renderMaxBodyBytes), callback);
+        } catch (RuntimeException e) {
+            callback.failed(e);
+        }
+        return true;
+    }
+
+    private class RenderCallback extends ParkedRender implements FutureCallback<HttpResponse> {
+        private final String fullUrl;
+        /**
+         * True if the request leads a flight of {@link RenderCoalescer} and has to complete it.
+         */
+        private final boolean leader;
+        private RendertronBackend backend;
+        private long startedAt;
+
+        RenderCallback(HttpServletRequest request, HttpServletResponse response, String fullUrl, boolean leader) {
+            super(request, response, asyncTimeout);
+            this.fullUrl = fullUrl;
+            this.leader = leader;
+        }
+
+        @Override
+        void timedOut() {
+            renderTimedOut();
+        }
+
+        @Override
+        void released() {
+            release(RendertronMetrics.NO_RESPONSE);
+            completeFlight(null);
+        }
+
+        @Override
+        public void completed(final HttpResponse renderServiceResponse) {
+            if (!finish()) {
+                return;
+            }
+            getTrace(request).responseReceived();
+            release(renderServiceResponse.getStatusLine().getStatusCode());
+            // don't write to a possibly slow client on the I/O thread of the http client
+            final boolean started = start(new Runnable() {
+                @Override
+                public void run() {
+                    RenderedPage page = null;
+                    boolean rendered = false;
+                    try {
+                        page = responseRendered(request, response, fullUrl, renderServiceResponse);
+                        rendered = true;
+                    } catch (Exception e) {
+                        log.error("Render service error", e);
+                        getMetrics().onError(e);
+                    } finally {
+                        completeFlight(page);
+                        unpark(rendered);
+                    }
+                }
+            });
+            if (!started) {
+                completeFlight(null);
+                unpark(false);
+            }
+        }
+
+        @Override
+        public void failed(Exception e) {
+            if (!finish()) {
+                return;
+            }
+            log.error("Render service error", e);
+            getMetrics().onError(e);
+            release(RendertronMetrics.NO_RESPONSE);
+            completeFlight(null);
+            unpark(false);
+        }
+
+        @Override
+        public void cancelled() {
+            if (!finish()) {
+                return;
+            }
+            log.debug("Render was cancelled:{}", fullUrl);
+            release(RendertronMetrics.NO_RESPONSE);
+            completeFlight(null);
+            unpark(false);
+        }
+
+        /**
+         * @param status status of the Rendertron response or {@link RendertronMetrics#NO_RESPONSE}
+         */
+        private void release(int status) {
+            releaseRender(backend, startedAt, status);
+        }
+
+        private void completeFlight(RenderedPage page) {
+            final RenderCoalescer renderCoalescer = getRenderCoalescer();
+            if (leader && renderCoalescer != null) {
+                renderCoalescer.complete(fullUrl, page);
+            }
+        }
+    }
+
+    /**
+     * Buffers the response like the default consumer of the http client, but fails the render
+     * with {@link ContentTooLongException} when the body is bigger than the limit.
+     */
+    static class CappedResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+        private final int maxBodyBytes;
+        private volatile HttpResponse response;
+        private volatile SimpleInputBuffer buffer;
+
+        CappedResponseConsumer(int maxBodyBytes) {
+            this.maxBodyBytes = maxBodyBytes;
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+            final long contentLength = entity.getContentLength();
+            if (contentLength > maxBodyBytes) {
+                throw new ContentTooLongException("Rendered page of " + contentLength + " bytes is over the limit of "
+                        + maxBodyBytes);
+            }
+            buffer = new SimpleInputBuffer(contentLength >= 0 ? (int) contentLength : 4096, new HeapByteBufferAllocator());
+            response.setEntity(new ContentBufferEntity(entity, buffer));
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            buffer.consumeContent(decoder);
+            if (buffer.length() > maxBodyBytes) {
+                throw new ContentTooLongException("Rendered page is over the limit of " + maxBodyBytes + " bytes");
+            }
+        }
+
+        @Override
+        protected HttpResponse buildResult(HttpContext context) {
+            return response;
+        }
+
+        @Override
+        protected void releaseResources() {
+            response = null;
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.github.nkonev.rendertron;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.Consts;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CacheWarmerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String name, String content) throws Exception {
+        final File file = folder.newFile(name);
+        OutputStream outputStream = new FileOutputStream(file);
+        if (name.endsWith(".gz")) {
+            outputStream = new GZIPOutputStream(outputStream);
+        }
+        try {
+            outputStream.write(content.getBytes(Consts.UTF_8));
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    /**
+     * Serves the files of the temporary folder by name.
+     */
+    private HttpServer serve() throws Exception {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final File file = new File(folder.getRoot(), exchange.getRequestURI().getPath().substring(1));
+                final byte[] body = file.isFile() ? FileUtils.readFileToByteArray(file) : new byte[0];
+                exchange.sendResponseHeaders(file.isFile() ? 200 : 404, body.length > 0 ? body.length : -1);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    @Test
+    public void should_render_pages_of_sitemap_index_and_url_list() throws Exception {
+        //given
+        final HttpServer server = serve();
+        try {
+            final String host = "http://localhost:" + server.getAddress().getPort();
+            write("pages.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                    "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n" +
+                    "  <url><loc>http://localhost/a</loc><lastmod>2018-01-01</lastmod></url>\n" +
+                    "  <url><loc> http://localhost/b </loc></url>\n" +
+                    "</urlset>");
+            write("news.xml.gz", "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                    "<url><loc>http://localhost/news</loc></url></urlset>");
+            write("sitemap.xml", "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n" +
+                    "  <sitemap><loc>" + host + "/pages.xml</loc></sitemap>\n" +
+                    "  <sitemap><loc>" + host + "/news.xml.gz</loc></sitemap>\n" +
+                    "</sitemapindex>");
+            final File list = write("urls.txt", "# pages\nhttp://localhost/c\n\nhttp://localhost/d.js\n");
+            final SeoService seoService = mock(SeoService.class);
+            when(seoService.warmUpPage(anyString())).thenReturn(CacheWarmer.Result.RENDERED);
+            when(seoService.warmUpPage("http://localhost/d.js")).thenReturn(CacheWarmer.Result.SKIPPED);
+            final CacheWarmer warmer = new CacheWarmer(seoService,
+                    Arrays.asList(host + "/sitemap.xml", list.getAbsolutePath()), 2, 0);
+
+            //when
+            warmer.start();
+
+            //then
+            assertTrue(warmer.await(5000));
+            verify(seoService).warmUpPage("http://localhost/a");
+            verify(seoService).warmUpPage("http://localhost/b");
+            verify(seoService).warmUpPage("http://localhost/news");
+            verify(seoService).warmUpPage("http://localhost/c");
+            assertEquals(5, warmer.getDiscoveredCount());
+            assertEquals(4, warmer.getRenderedCount());
+            assertEquals(1, warmer.getSkippedCount());
+            assertEquals(0, warmer.getFailedCount());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void should_not_follow_sitemaps_off_the_host_of_index() throws Exception {
+        //given
+        final File local = write("local.xml", "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                "<url><loc>http://localhost/local</loc></url></urlset>");
+        final File index = write("sitemap.xml", "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n" +
+                "  <sitemap><loc>" + local.toURI() + "</loc></sitemap>\n" +
+                "  <sitemap><loc>" + local.getAbsolutePath() + "</loc></sitemap>\n" +
+                "</sitemapindex>");
+        final SeoService seoService = mock(SeoService.class);
+        final CacheWarmer warmer = new CacheWarmer(seoService, Collections.singletonList(index.getAbsolutePath()), 1, 0);
+
+        //when
+        warmer.start();
+
+        //then
+        assertTrue(warmer.await(5000));
+        verify(seoService, never()).warmUpPage(anyString());
+        assertEquals(0, warmer.getDiscoveredCount());
+    }
+
+    @Test
+    public void should_follow_only_http_sitemaps_on_same_host_and_port() throws Exception {
+        assertTrue(CacheWarmer.isOnSameHost("http://example.com/sitemap.xml", "http://EXAMPLE.com/pages.xml"));
+        assertTrue(CacheWarmer.isOnSameHost("http://example.com/sitemap.xml", "https://example.com/pages.xml"));
+        assertTrue(CacheWarmer.isOnSameHost("http://example.com:8080/sitemap.xml", "http://example.com:8080/a.xml"));
+        assertTrue(CacheWarmer.isOnSameHost("https://example.com/sitemap.xml", "https://example.com:443/a.xml"));
+        assertFalse(CacheWarmer.isOnSameHost("http://example.com/sitemap.xml", "http://other.com/pages.xml"));
+        assertFalse(CacheWarmer.isOnSameHost("http://example.com/sitemap.xml", "http://example.com:8080/a.xml"));
+        assertFalse(CacheWarmer.isOnSameHost("http://example.com/sitemap.xml", "file:/etc/passwd"));
+        assertFalse(CacheWarmer.isOnSameHost("http://example.com/sitemap.xml", "/etc/passwd"));
+        assertFalse(CacheWarmer.isOnSameHost("/var/www/sitemap.xml", "http://example.com/pages.xml"));
+        assertFalse(CacheWarmer.isOnSameHost("file:/var/www/sitemap.xml", "file:/var/www/pages.xml"));
+    }
+
+    @Test
+    public void should_limit_rate_of_renders() throws Exception {
+        //given
+        final File list = write("urls.txt", "http://localhost/a\nhttp://localhost/b\nhttp://localhost/c\n");
+        final SeoService seoService = mock(SeoService.class);
+        when(seoService.warmUpPage(anyString())).thenReturn(CacheWarmer.Result.RENDERED);
+        final CacheWarmer warmer = new CacheWarmer(seoService, Collections.singletonList(list.getAbsolutePath()), 3, 10);
+
+        //when
+        final long startedAt = System.nanoTime();
+        warmer.start();
+
+        //then
+        assertTrue(warmer.await(5000));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) >= 200);
+        assertEquals(3, warmer.getRenderedCount());
+    }
+
+    @Test
+    public void should_stop_when_cancelled() throws Exception {
+        //given
+        final File list = write("urls.txt", "http://localhost/a\nhttp://localhost/b\nhttp://localhost/c\n");
+        final SeoService seoService = mock(SeoService.class);
+        final CountDownLatch started = new CountDownLatch(1);
+        when(seoService.warmUpPage(anyString())).thenAnswer(new Answer<CacheWarmer.Result>() {
+            @Override
+            public CacheWarmer.Result answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                Thread.sleep(10000);
+                return CacheWarmer.Result.RENDERED;
+            }
+        });
+        final CacheWarmer warmer = new CacheWarmer(seoService, Collections.singletonList(list.getAbsolutePath()), 1, 0);
+        warmer.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        //when
+        warmer.cancel();
+
+        //then
+        assertTrue(warmer.await(5000));
+        assertTrue(warmer.isCancelled());
+        assertEquals(0, warmer.getRenderedCount());
+    }
+}
@@ -0,0 +1,164 @@
+package com.github.nkonev.rendertron;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2000);
+
+    private long now = 1000;
+    private final List<String> stateChanges = new ArrayList<String>();
+
+    private CircuitBreaker circuitBreaker() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(4, 50, 1000, 100) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+        circuitBreaker.addListener(new CircuitBreakerListener() {
+            @Override
+            public void onStateChange(CircuitBreaker.State from, CircuitBreaker.State to) {
+                stateChanges.add(from + "->" + to);
+            }
+        });
+        return circuitBreaker;
+    }
+
+    private static void render(CircuitBreaker circuitBreaker, long latencyNanos, boolean succeeded) {
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onResult(latencyNanos, succeeded);
+    }
+
+    @Test
+    public void should_open_when_failure_rate_of_full_window_reaches_threshold() throws Exception {
+        //given
+        CircuitBreaker circuitBreaker = circuitBreaker();
+
+        //when
+        render(circuitBreaker, FAST, false);
+        render(circuitBreaker, SLOW, true);
+        render(circuitBreaker, FAST, true);
+
+        //then
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        //when
+        render(circuitBreaker, FAST, true);
+
+        //then
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+        assertEquals(1, circuitBreaker.getRejectedCount());
+        assertEquals("[CLOSED->OPEN]", stateChanges.toString());
+    }
+
+    @Test
+    public void should_slide_window() throws Exception {
+        //given
+        CircuitBreaker circuitBreaker = circuitBreaker();
+        render(circuitBreaker, FAST, false);
+
+        //when
+        for (int i = 0; i < 10; i++) {
+            render(circuitBreaker, FAST, true);
+        }
+        render(circuitBreaker, FAST, false);
+
+        //then
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void should_let_one_probe_through_after_open_period() throws Exception {
+        //given
+        CircuitBreaker circuitBreaker = circuitBreaker();
+        for (int i = 0; i < 4; i++) {
+            render(circuitBreaker, FAST, false);
+        }
+
+        //when
+        now += 100;
+
+        //then
+        assertTrue(circuitBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+
+        //when
+        circuitBreaker.onResult(FAST, false);
+
+        //then
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+
+        //when
+        now += 100;
+        render(circuitBreaker, FAST, true);
+
+        //then
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]", stateChanges.toString());
+    }
+
+    @Test
+    public void should_give_probe_to_next_render_when_cancelled() throws Exception {
+        //given
+        CircuitBreaker circuitBreaker = circuitBreaker();
+        for (int i = 0; i < 4; i++) {
+            render(circuitBreaker, FAST, false);
+        }
+        now += 100;
+        assertTrue(circuitBreaker.tryAcquire());
+
+        //when
+        circuitBreaker.cancel();
+
+        //then
+        assertTrue(circuitBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void should_open_again_when_probe_never_completes() throws Exception {
+        //given
+        CircuitBreaker circuitBreaker = circuitBreaker();
+        for (int i = 0; i < 4; i++) {
+            render(circuitBreaker, FAST, false);
+        }
+        now += 100;
+        assertTrue(circuitBreaker.tryAcquire());
+
+        //when
+        now += 999;
+
+        //then
+        assertFalse(circuitBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        //when
+        now += 1;
+
+        //then
+        assertFalse(circuitBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        //when
+        now += 100;
+
+        //then
+        assertTrue(circuitBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getRejectedCount());
+        assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->OPEN, OPEN->HALF_OPEN]", stateChanges.toString());
+    }
+}
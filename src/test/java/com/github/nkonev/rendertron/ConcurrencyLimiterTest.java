@@ -0,0 +1,106 @@
+package com.github.nkonev.rendertron;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    public void should_shed_over_limit_without_waiting() throws Exception {
+        //given
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10);
+
+        //then
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getShedCount());
+
+        //when
+        limiter.release(FAST, true);
+
+        //then
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void should_grow_while_renders_are_fast_and_limit_is_used() throws Exception {
+        //given
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 4);
+
+        //when
+        for (int round = 0; round < 3; round++) {
+            final int limit = limiter.getLimit();
+            for (int i = 0; i < limit; i++) {
+                assertTrue(limiter.tryAcquire());
+            }
+            for (int i = 0; i < limit; i++) {
+                limiter.release(FAST, true);
+            }
+        }
+
+        //then
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void should_not_grow_when_limit_is_not_used() throws Exception {
+        //given
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 10);
+
+        //when
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(FAST, true);
+        }
+
+        //then
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void should_back_off_on_failure_and_latency_growth() throws Exception {
+        //given
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 10);
+        limiter.tryAcquire();
+        limiter.release(FAST, true);
+
+        //when
+        limiter.tryAcquire();
+        limiter.release(FAST, false);
+
+        //then
+        assertEquals(9, limiter.getLimit());
+
+        //when
+        limiter.tryAcquire();
+        limiter.release(SLOW, true);
+
+        //then
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void should_not_go_below_min_limit() throws Exception {
+        //given
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10);
+
+        //when
+        for (int i = 0; i < 20; i++) {
+            limiter.tryAcquire();
+            limiter.release(FAST, false);
+        }
+
+        //then
+        assertEquals(1, limiter.getLimit());
+    }
+}
@@ -1,6 +1,8 @@
 package com.github.nkonev.rendertron;
 
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.junit.Test;
 
 import java.util.HashMap;
@@ -31,4 +33,59 @@ public class ConfigTest {
 
         assertThat(httpClient, is(notNullValue()));
     }
+
+    @Test
+    public void should_configure_connection_pool_and_timeouts() throws Exception {
+        //given
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(Constants.InitFilterParams.MAX_CONNECTIONS, "64");
+        configuration.put(Constants.InitFilterParams.MAX_CONNECTIONS_PER_ROUTE, "32");
+        configuration.put(Constants.InitFilterParams.VALIDATE_AFTER_INACTIVITY, "500");
+        configuration.put(Constants.InitFilterParams.SOCKET_TIMEOUT, "30000");
+        configuration.put(Constants.InitFilterParams.CONNECT_TIMEOUT, " 1000 ");
+        configuration.put(Constants.InitFilterParams.CONNECTION_REQUEST_TIMEOUT, "200");
+        Config config = new Config(configuration);
+
+        //when
+        final PoolingHttpClientConnectionManager connectionManager = config.getConnectionManager();
+        final RequestConfig requestConfig = config.getRequestConfig();
+
+        //then
+        assertThat(connectionManager.getMaxTotal(), is(64));
+        assertThat(connectionManager.getDefaultMaxPerRoute(), is(32));
+        assertThat(connectionManager.getValidateAfterInactivity(), is(500));
+        assertThat(requestConfig.getSocketTimeout(), is(30000));
+        assertThat(requestConfig.getConnectTimeout(), is(1000));
+        assertThat(requestConfig.getConnectionRequestTimeout(), is(200));
+    }
+
+    @Test
+    public void should_not_serialize_renders_to_one_host_by_default() throws Exception {
+        //given
+        Config config = new Config(new HashMap<String, String>());
+
+        //when
+        final PoolingHttpClientConnectionManager connectionManager = config.getConnectionManager();
+
+        //then
+        assertThat(connectionManager.getDefaultMaxPerRoute(), is(connectionManager.getMaxTotal()));
+        assertThat(config.getRequestConfig().getSocketTimeout(), is(-1));
+    }
+
+    @Test
+    public void should_balance_over_comma_separated_service_urls() throws Exception {
+        //given
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(Constants.InitFilterParams.RENDERTRON_SERVICE_URL, " http://rendertron-1:3000/render, http://rendertron-2:3000/render ");
+        configuration.put(Constants.InitFilterParams.LOAD_BALANCING, "consistent_hash");
+        Config config = new Config(configuration);
+
+        //when
+        final RendertronLoadBalancer loadBalancer = config.getLoadBalancer();
+
+        //then
+        assertThat(loadBalancer.getBackends().size(), is(2));
+        assertThat(loadBalancer.getBackends().get(1).getServiceUrl(), is("http://rendertron-2:3000/render/"));
+        assertThat(loadBalancer.getStrategy(), is(RendertronLoadBalancer.Strategy.CONSISTENT_HASH));
+    }
 }
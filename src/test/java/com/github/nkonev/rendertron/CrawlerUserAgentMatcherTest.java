@@ -0,0 +1,87 @@
+package com.github.nkonev.rendertron;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CrawlerUserAgentMatcherTest {
+
+    @Test
+    public void should_find_tokens_reachable_only_through_failure_links() throws Exception {
+        //given
+        CrawlerUserAgentMatcher matcher = new CrawlerUserAgentMatcher(Arrays.asList("hers", "his", "she", "he"), 0);
+
+        //then
+        assertTrue(matcher.matches("ushers"));
+        assertTrue(matcher.matches("aHIs"));
+        assertTrue(matcher.matches("xshe"));
+        assertFalse(matcher.matches("hxs"));
+        assertFalse(matcher.matches(""));
+    }
+
+    @Test
+    public void should_fold_case_of_user_agent_and_tokens() throws Exception {
+        //given
+        CrawlerUserAgentMatcher matcher = new CrawlerUserAgentMatcher(Arrays.asList("Googlebot", "vkShare", "Яндекс"), 0);
+
+        //then
+        assertTrue(matcher.matches("Mozilla/5.0 (compatible; GOOGLEBOT/2.1)"));
+        assertTrue(matcher.matches("vkshare; +http://vk.com/dev/Share"));
+        assertTrue(matcher.matches("ЯНДЕКС.Бот"));
+        assertFalse(matcher.matches("Mozilla/5.0 (X11; Linux x86_64) Firefox/60.0"));
+    }
+
+    @Test
+    public void should_match_everything_when_empty_token_configured() throws Exception {
+        //given
+        CrawlerUserAgentMatcher matcher = new CrawlerUserAgentMatcher(Arrays.asList("", "bot"), 16);
+
+        //then
+        assertTrue(matcher.matches("Mozilla"));
+    }
+
+    @Test
+    public void should_give_same_verdicts_with_cache_as_naive_search() throws Exception {
+        //given
+        List<String> tokens = Arrays.asList("bot", "crawl", "spider", "slurp", "ia_archiver", "b0t");
+        CrawlerUserAgentMatcher cached = new CrawlerUserAgentMatcher(tokens, 16);
+        Random random = new Random(42);
+        String alphabet = "botBOTcrawlspideSLURPia_rchv0 ";
+
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder userAgent = new StringBuilder();
+            for (int j = random.nextInt(12); j > 0; j--) {
+                userAgent.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            //when
+            boolean expected = false;
+            for (String token : tokens) {
+                expected |= userAgent.toString().toLowerCase().contains(token);
+            }
+            //then
+            assertEquals(userAgent.toString(), expected, cached.matches(userAgent.toString()));
+            assertEquals(userAgent.toString(), expected, cached.matches(userAgent.toString()));
+        }
+    }
+
+    @Test
+    public void should_remember_verdicts() throws Exception {
+        //given
+        UserAgentVerdictCache cache = new UserAgentVerdictCache(16);
+
+        //when
+        cache.put("Googlebot", true);
+        cache.put("Firefox", false);
+
+        //then
+        assertEquals(UserAgentVerdictCache.CRAWLER, cache.get("Googlebot"));
+        assertEquals(UserAgentVerdictCache.HUMAN, cache.get("Firefox"));
+        assertEquals(UserAgentVerdictCache.UNKNOWN, cache.get("Chrome"));
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EligibilityMatcherTest {
+
+    private static EligibilityMatcher matcher(Map<String, String> configuration) {
+        return new EligibilityMatcher(new Config(configuration));
+    }
+
+    @Test
+    public void should_detect_crawler_ignoring_case() throws Exception {
+        //given
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(Constants.InitFilterParams.CRAWLER_USER_AGENTS, "SomeProxy");
+        EligibilityMatcher matcher = matcher(configuration);
+
+        //then
+        assertTrue(matcher.isCrawler("Mozilla/5.0 (compatible; googlebot/2.1; +http://www.google.com/bot.html)"));
+        assertTrue(matcher.isCrawler("someproxy/1.0"));
+        assertTrue(matcher.isCrawler("VKSHARE"));
+        assertFalse(matcher.isCrawler("Mozilla/5.0 (X11; Linux x86_64) Firefox/60.0"));
+        assertFalse(matcher.isCrawler(" "));
+        assertFalse(matcher.isCrawler(null));
+    }
+
+    @Test
+    public void should_detect_resource_before_query_string() throws Exception {
+        //given
+        EligibilityMatcher matcher = matcher(new HashMap<String, String>());
+
+        //then
+        assertTrue(matcher.isResource("http://localhost/app.JS"));
+        assertTrue(matcher.isResource("http://localhost/app.js?v=1.html"));
+        assertFalse(matcher.isResource("http://localhost/page?file=app.js"));
+        assertFalse(matcher.isResource("http://localhost/page"));
+    }
+
+    @Test
+    public void should_match_any_of_whitelist_and_blacklist_regexes() throws Exception {
+        //given
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(Constants.InitFilterParams.WHITELIST, "http://localhost/a.*,http://localhost/b");
+        configuration.put(Constants.InitFilterParams.BLACKLIST, "http://localhost/ab,http://evil/.*");
+        EligibilityMatcher matcher = matcher(configuration);
+
+        //then
+        assertTrue(matcher.isInWhitelist("http://localhost/abc"));
+        assertTrue(matcher.isInWhitelist("http://localhost/b"));
+        assertFalse(matcher.isInWhitelist("http://localhost/bc"));
+        assertTrue(matcher.isInBlacklist("http://localhost/ab", null));
+        assertTrue(matcher.isInBlacklist("http://localhost/abc", "http://evil/page"));
+        assertFalse(matcher.isInBlacklist("http://localhost/abc", ""));
+    }
+
+    @Test
+    public void should_keep_back_references_and_named_groups_of_list_regexes() throws Exception {
+        //given
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(Constants.InitFilterParams.WHITELIST,
+                "(https?)://static/.*,http://localhost/(\\w+)/\\1,http://localhost/(?<id>\\d+),http://other/(?<id>\\d+)");
+        configuration.put(Constants.InitFilterParams.BLACKLIST, "http://localhost/\\Q\\1\\E,(?<=x)http://evil/.*");
+        EligibilityMatcher matcher = matcher(configuration);
+
+        //then
+        assertTrue(matcher.isInWhitelist("http://static/app"));
+        assertTrue(matcher.isInWhitelist("http://localhost/ab/ab"));
+        assertFalse(matcher.isInWhitelist("http://localhost/ab/cd"));
+        assertTrue(matcher.isInWhitelist("http://localhost/42"));
+        assertTrue(matcher.isInWhitelist("http://other/42"));
+        assertTrue(matcher.isInBlacklist("http://localhost/\\1", null));
+        assertTrue(EligibilityMatcher.hasGroupReferences("(a)\\1"));
+        assertTrue(EligibilityMatcher.hasGroupReferences("(?<id>a)\\k<id>"));
+        assertFalse(EligibilityMatcher.hasGroupReferences("a\\\\1"));
+        assertFalse(EligibilityMatcher.hasGroupReferences("\\Q\\1\\E"));
+        assertFalse(EligibilityMatcher.hasGroupReferences("(?<=a)b(?<!c)\\0101"));
+    }
+
+    @Test
+    public void should_allow_everything_when_lists_are_not_configured() throws Exception {
+        //given
+        EligibilityMatcher matcher = matcher(new HashMap<String, String>());
+
+        //then
+        assertTrue(matcher.matches(HttpGet.METHOD_NAME, "http://localhost/test", null, "Googlebot"));
+        assertFalse(matcher.matches(HttpPost.METHOD_NAME, "http://localhost/test", null, "Googlebot"));
+        assertFalse(matcher.matches(HttpGet.METHOD_NAME, "http://localhost/test.css", null, "Googlebot"));
+    }
+}
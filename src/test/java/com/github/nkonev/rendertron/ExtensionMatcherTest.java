@@ -0,0 +1,46 @@
+package com.github.nkonev.rendertron;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExtensionMatcherTest {
+
+    private final ExtensionMatcher matcher = new ExtensionMatcher(Arrays.asList(".js", ".json", ".css", ".mp4", ".m4v", ".TTF"));
+
+    @Test
+    public void should_match_extension_of_path_ignoring_case() throws Exception {
+        assertTrue(matcher.matches("http://localhost/app.js"));
+        assertTrue(matcher.matches("http://localhost/data.JSON"));
+        assertTrue(matcher.matches("http://localhost/font.ttf"));
+        assertTrue(matcher.matches("/video.M4v"));
+    }
+
+    @Test
+    public void should_stop_at_query_string_and_fragment() throws Exception {
+        assertTrue(matcher.matches("http://localhost/app.js?v=12"));
+        assertTrue(matcher.matches("http://localhost/app.css#top"));
+        assertFalse(matcher.matches("http://localhost/page?app.js"));
+        assertFalse(matcher.matches("http://localhost/page#app.js"));
+    }
+
+    @Test
+    public void should_not_match_other_paths() throws Exception {
+        assertFalse(matcher.matches("http://localhost/"));
+        assertFalse(matcher.matches("http://localhost/app.jsx"));
+        assertFalse(matcher.matches("http://localhost/js"));
+        assertFalse(matcher.matches("http://localhost/mp4/page"));
+        assertFalse(matcher.matches(""));
+    }
+
+    @Test
+    public void should_match_non_ascii_extensions() throws Exception {
+        ExtensionMatcher matcher = new ExtensionMatcher(Arrays.asList(".файл"));
+
+        assertTrue(matcher.matches("http://localhost/документ.ФАЙЛ?x=1"));
+        assertFalse(matcher.matches("http://localhost/документ"));
+    }
+}
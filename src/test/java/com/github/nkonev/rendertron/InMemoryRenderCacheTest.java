@@ -0,0 +1,135 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryRenderCacheTest {
+
+    private long now = 1000;
+
+    private InMemoryRenderCache cache(long maxBytes, long ttlMillis) {
+        return new InMemoryRenderCache(maxBytes, ttlMillis) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    private static RenderedPage page(int bodySize) {
+        return new RenderedPage(200, new Header[]{new BasicHeader("Content-Type", "text/html")}, "UTF-8",
+                new byte[bodySize], 0);
+    }
+
+    @Test
+    public void should_return_cached_page_until_ttl_passes() throws Exception {
+        //given
+        InMemoryRenderCache cache = cache(10000, 100);
+        RenderedPage page = page(10);
+        cache.put("http://localhost/a", page);
+
+        //then
+        assertThat(cache.get("http://localhost/a"), is(page));
+        now += 99;
+        assertThat(cache.get("http://localhost/a"), is(page));
+        now += 1;
+        assertThat(cache.get("http://localhost/a"), is(nullValue()));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void should_keep_expired_page_for_get_stale() throws Exception {
+        //given
+        InMemoryRenderCache cache = cache(10000, 100);
+        RenderedPage page = page(10);
+        cache.put("http://localhost/a", page);
+
+        //when
+        now += 100;
+
+        //then
+        assertThat(cache.get("http://localhost/a"), is(nullValue()));
+        assertThat(cache.getStale("http://localhost/a"), is(page));
+        assertThat(cache.getStale("http://localhost/b"), is(nullValue()));
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void should_discard_expired_page_after_max_staleness() throws Exception {
+        //given
+        InMemoryRenderCache cache = new InMemoryRenderCache(10000, 100, 50) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+        RenderedPage page = page(10);
+        cache.put("http://localhost/a", page);
+
+        //when
+        now += 149;
+
+        //then
+        assertThat(cache.get("http://localhost/a"), is(nullValue()));
+        assertThat(cache.getStale("http://localhost/a"), is(page));
+        now += 1;
+        assertThat(cache.getStale("http://localhost/a"), is(nullValue()));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void should_keep_within_byte_budget() throws Exception {
+        //given
+        InMemoryRenderCache cache = cache(5000, 1000);
+
+        //when
+        for (int i = 0; i < 20; i++) {
+            cache.put("http://localhost/" + i, page(1000));
+        }
+
+        //then
+        assertTrue(cache.getSizeBytes() <= 5000);
+        assertEquals(4, cache.getSize());
+        assertThat(cache.get("http://localhost/19"), is(notNullValue()));
+        assertThat(cache.get("http://localhost/0"), is(nullValue()));
+    }
+
+    @Test
+    public void should_not_cache_page_heavier_than_budget() throws Exception {
+        //given
+        InMemoryRenderCache cache = cache(500, 1000);
+
+        //when
+        cache.put("http://localhost/big", page(1000));
+
+        //then
+        assertThat(cache.get("http://localhost/big"), is(nullValue()));
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void should_keep_pages_hit_twice_when_scanned_by_pages_hit_once() throws Exception {
+        //given
+        InMemoryRenderCache cache = cache(5000, 1000);
+        cache.put("http://localhost/popular", page(1000));
+        cache.get("http://localhost/popular");
+
+        //when
+        for (int i = 0; i < 20; i++) {
+            cache.put("http://localhost/once/" + i, page(1000));
+        }
+
+        //then
+        assertThat(cache.get("http://localhost/popular"), is(notNullValue()));
+    }
+}
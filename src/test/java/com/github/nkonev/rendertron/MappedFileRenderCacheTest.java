@@ -0,0 +1,203 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class MappedFileRenderCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private long now = 1000;
+
+    private MappedFileRenderCache cache;
+
+    private MappedFileRenderCache open(File directory, long maxBytes, int segmentBytes) throws Exception {
+        return open(directory, maxBytes, segmentBytes, 0);
+    }
+
+    private MappedFileRenderCache open(File directory, long maxBytes, int segmentBytes, long maxStaleMillis) throws Exception {
+        cache = new MappedFileRenderCache(directory, maxBytes, segmentBytes, 100, maxStaleMillis, 0) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+        return cache;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (cache != null) {
+            cache.destroy();
+        }
+    }
+
+    private static RenderedPage page(String body) {
+        return new RenderedPage(200, new Header[]{new BasicHeader("Content-Type", "text/html; charset=UTF-8"), new BasicHeader("X-Empty", null)},
+                "UTF-8", body.getBytes(), 42);
+    }
+
+    private static byte[] body(RenderedPage page) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        page.writeBody(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void should_return_stored_page_from_mapped_segment() throws Exception {
+        //given
+        MappedFileRenderCache cache = open(folder.newFolder(), 1024 * 1024, 64 * 1024);
+
+        //when
+        cache.put("http://localhost/a", page("<html>a</html>"));
+        RenderedPage page = cache.get("http://localhost/a");
+
+        //then
+        assertThat(page, is(notNullValue()));
+        assertEquals(200, page.getStatus());
+        assertEquals("UTF-8", page.getCharset());
+        assertEquals(42, page.getCreatedAt());
+        assertEquals("text/html; charset=UTF-8", page.getHeaders()[0].getValue());
+        assertEquals("", page.getHeaders()[1].getValue());
+        assertFalse(page.getBody().hasArray());
+        assertArrayEquals("<html>a</html>".getBytes(), body(page));
+        assertThat(cache.get("http://localhost/b"), is(nullValue()));
+    }
+
+    @Test
+    public void should_expire_pages() throws Exception {
+        //given
+        MappedFileRenderCache cache = open(folder.newFolder(), 1024 * 1024, 64 * 1024, 50);
+        cache.put("http://localhost/a", page("<html>a</html>"));
+
+        //when
+        now += 100;
+        cache.compact();
+
+        //then
+        assertThat(cache.get("http://localhost/a"), is(nullValue()));
+        assertArrayEquals("<html>a</html>".getBytes(), body(cache.getStale("http://localhost/a")));
+
+        //when
+        now += 50;
+        cache.compact();
+
+        //then
+        assertThat(cache.getStale("http://localhost/a"), is(nullValue()));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void should_not_serve_stale_page_past_max_staleness_before_compaction() throws Exception {
+        //given
+        MappedFileRenderCache cache = open(folder.newFolder(), 1024 * 1024, 64 * 1024, 50);
+        cache.put("http://localhost/a", page("<html>a</html>"));
+
+        //when
+        now += 149;
+
+        //then
+        assertArrayEquals("<html>a</html>".getBytes(), body(cache.getStale("http://localhost/a")));
+
+        //when
+        now += 1;
+
+        //then
+        assertThat(cache.getStale("http://localhost/a"), is(nullValue()));
+    }
+
+    @Test
+    public void should_keep_expired_page_without_max_staleness() throws Exception {
+        //given
+        File directory = folder.newFolder();
+        MappedFileRenderCache cache = open(directory, 1024 * 1024, 64 * 1024);
+        cache.put("http://localhost/a", page("<html>a</html>"));
+
+        //when
+        now += 100000;
+        cache.compact();
+
+        //then
+        assertThat(cache.get("http://localhost/a"), is(nullValue()));
+        assertArrayEquals("<html>a</html>".getBytes(), body(cache.getStale("http://localhost/a")));
+
+        //when
+        cache.destroy();
+        cache = open(directory, 1024 * 1024, 64 * 1024);
+
+        //then
+        assertEquals(1, cache.getSize());
+        assertArrayEquals("<html>a</html>".getBytes(), body(cache.getStale("http://localhost/a")));
+    }
+
+    @Test
+    public void should_survive_restart() throws Exception {
+        //given
+        File directory = folder.newFolder();
+        MappedFileRenderCache cache = open(directory, 1024 * 1024, 64 * 1024);
+        cache.put("http://localhost/a", page("<html>old</html>"));
+        cache.put("http://localhost/a", page("<html>new</html>"));
+        cache.put("http://localhost/b", page("<html>b</html>"));
+        cache.destroy();
+
+        //when
+        cache = open(directory, 1024 * 1024, 64 * 1024);
+
+        //then
+        assertEquals(2, cache.getSize());
+        assertArrayEquals("<html>new</html>".getBytes(), body(cache.get("http://localhost/a")));
+        assertArrayEquals("<html>b</html>".getBytes(), body(cache.get("http://localhost/b")));
+    }
+
+    @Test
+    public void should_move_live_pages_out_of_mostly_dead_segments() throws Exception {
+        //given
+        MappedFileRenderCache cache = open(folder.newFolder(), 1024 * 1024, 4096);
+        cache.put("http://localhost/live", page("<html>live</html>"));
+        for (int i = 0; i < 100; i++) {
+            cache.put("http://localhost/replaced", page("<html>" + i + "</html>"));
+        }
+        long segmentsBefore = cache.getSegmentCount();
+
+        //when
+        cache.compact();
+
+        //then
+        assertTrue(cache.getSegmentCount() < segmentsBefore);
+        assertArrayEquals("<html>live</html>".getBytes(), body(cache.get("http://localhost/live")));
+        assertArrayEquals("<html>99</html>".getBytes(), body(cache.get("http://localhost/replaced")));
+    }
+
+    @Test
+    public void should_drop_oldest_segments_over_budget() throws Exception {
+        //given
+        MappedFileRenderCache cache = open(folder.newFolder(), 3 * 4096, 4096);
+
+        //when
+        for (int i = 0; i < 200; i++) {
+            cache.put("http://localhost/" + i, page("<html>" + i + "</html>"));
+        }
+
+        //then
+        assertTrue(cache.getSegmentCount() <= 3);
+        assertThat(cache.get("http://localhost/0"), is(nullValue()));
+        assertArrayEquals("<html>199</html>".getBytes(), body(cache.get("http://localhost/199")));
+    }
+}
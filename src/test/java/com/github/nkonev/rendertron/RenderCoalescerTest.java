@@ -0,0 +1,107 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.Header;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class RenderCoalescerTest {
+
+    private final RenderCoalescer coalescer = new RenderCoalescer();
+
+    private final RenderedPage page = new RenderedPage(200, new Header[0], null, new byte[0], 0);
+
+    @Test
+    public void should_share_result_of_leader_with_followers() throws Exception {
+        //given
+        assertThat(coalescer.join("http://render/a"), is(nullValue()));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final RenderCoalescer.Flight flight = coalescer.join("http://render/a");
+            assertThat(flight, is(notNullValue()));
+            Future<RenderedPage> follower = executor.submit(new Callable<RenderedPage>() {
+                @Override
+                public RenderedPage call() throws Exception {
+                    return flight.await(TimeUnit.SECONDS.toMillis(10));
+                }
+            });
+
+            //when
+            coalescer.complete("http://render/a", page);
+
+            //then
+            assertThat(follower.get(), is(page));
+            assertEquals(1, coalescer.getCoalescedCount());
+            assertEquals(0, coalescer.getInFlightCount());
+            assertThat(coalescer.join("http://render/a"), is(nullValue()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_not_coalesce_different_urls() throws Exception {
+        assertThat(coalescer.join("http://render/a"), is(nullValue()));
+        assertThat(coalescer.join("http://render/b"), is(nullValue()));
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void should_give_up_waiting_after_timeout() throws Exception {
+        //given
+        coalescer.join("http://render/a");
+        RenderCoalescer.Flight flight = coalescer.join("http://render/a");
+
+        //then
+        assertThat(flight.await(10), is(nullValue()));
+    }
+
+    @Test
+    public void should_release_followers_when_leader_fails() throws Exception {
+        //given
+        coalescer.join("http://render/a");
+        RenderCoalescer.Flight flight = coalescer.join("http://render/a");
+
+        //when
+        coalescer.complete("http://render/a", null);
+
+        //then
+        assertThat(flight.await(TimeUnit.SECONDS.toMillis(10)), is(nullValue()));
+    }
+
+    @Test
+    public void should_notify_listeners_when_leader_completes() throws Exception {
+        //given
+        coalescer.join("http://render/a");
+        final RenderCoalescer.Flight flight = coalescer.join("http://render/a");
+        final List<RenderedPage> notified = new ArrayList<RenderedPage>();
+        final RenderCoalescer.FlightListener listener = new RenderCoalescer.FlightListener() {
+            @Override
+            public void completed(RenderedPage completedPage) {
+                notified.add(completedPage);
+            }
+        };
+        flight.whenComplete(listener);
+        assertEquals(0, notified.size());
+
+        //when
+        coalescer.complete("http://render/a", page);
+        flight.whenComplete(listener);
+
+        //then
+        assertEquals(Arrays.asList(page, page), notified);
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.nkonev.rendertron;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RenderRevalidatorTest {
+
+    private final RenderRevalidator revalidator = new RenderRevalidator(1, 1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger renders = new AtomicInteger();
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        revalidator.destroy();
+    }
+
+    private Runnable blockingRender(final CountDownLatch started) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                renders.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void should_queue_one_render_per_page() throws Exception {
+        //given
+        final CountDownLatch started = new CountDownLatch(1);
+        assertTrue(revalidator.submit("http://localhost/a", blockingRender(started)));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        //when
+        final boolean duplicate = revalidator.submit("http://localhost/a", blockingRender(new CountDownLatch(1)));
+
+        //then
+        assertFalse(duplicate);
+        assertEquals(1, revalidator.getPendingCount());
+        release.countDown();
+        for (int i = 0; i < 500 && revalidator.getPendingCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, revalidator.getPendingCount());
+        assertEquals(1, renders.get());
+        assertEquals(1, revalidator.getRevalidatedCount());
+        assertTrue(revalidator.submit("http://localhost/a", blockingRender(new CountDownLatch(1))));
+    }
+
+    @Test
+    public void should_drop_render_when_queue_is_full() throws Exception {
+        //given
+        final CountDownLatch started = new CountDownLatch(1);
+        assertTrue(revalidator.submit("http://localhost/a", blockingRender(started)));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(revalidator.submit("http://localhost/b", blockingRender(new CountDownLatch(1))));
+
+        //when
+        final boolean submitted = revalidator.submit("http://localhost/c", blockingRender(new CountDownLatch(1)));
+
+        //then
+        assertFalse(submitted);
+        assertEquals(1, revalidator.getDroppedCount());
+        assertEquals(2, revalidator.getPendingCount());
+    }
+}
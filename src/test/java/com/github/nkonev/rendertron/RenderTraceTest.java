@@ -0,0 +1,61 @@
+package com.github.nkonev.rendertron;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RenderTraceTest {
+
+    @Test
+    public void should_format_recorded_phases_in_milliseconds() throws Exception {
+        //given
+        final RenderTrace trace = new RenderTrace();
+        trace.setUrl("http://localhost/test");
+
+        //when
+        trace.add(RenderTrace.Phase.CACHE, TimeUnit.MICROSECONDS.toNanos(50));
+        trace.add(RenderTrace.Phase.TTFB, TimeUnit.MILLISECONDS.toNanos(1200));
+        trace.add(RenderTrace.Phase.DOWNLOAD, TimeUnit.MICROSECONDS.toNanos(1500));
+        trace.add(RenderTrace.Phase.DOWNLOAD, TimeUnit.MICROSECONDS.toNanos(1500));
+        trace.add(RenderTrace.Phase.AFTER_RENDER, TimeUnit.MICROSECONDS.toNanos(12345));
+
+        //then
+        assertEquals("cache;dur=0.05, ttfb;dur=1200.00, download;dur=3.00, after-render;dur=12.34", trace.toServerTiming());
+        assertTrue(trace.toString().startsWith("url=http://localhost/test total="));
+        assertTrue(trace.toString().endsWith(" cache=0.05 ttfb=1200.00 download=3.00 after-render=12.34"));
+        assertFalse(trace.isRecorded(RenderTrace.Phase.CONNECT));
+    }
+
+    @Test
+    public void should_finish_once() throws Exception {
+        //given
+        final RenderTrace trace = new RenderTrace();
+
+        //when
+        final boolean first = trace.finish();
+        final boolean second = trace.finish();
+
+        //then
+        assertTrue(first);
+        assertFalse(second);
+        assertEquals(trace.getTotalNanos(), trace.getTotalNanos());
+    }
+
+    @Test
+    public void should_record_nothing_when_disabled() throws Exception {
+        //when
+        RenderTrace.DISABLED.add(RenderTrace.Phase.TTFB, 1000);
+        RenderTrace.DISABLED.setUrl("http://localhost/test");
+        RenderTrace.DISABLED.detach();
+
+        //then
+        assertFalse(RenderTrace.DISABLED.isRecorded(RenderTrace.Phase.TTFB));
+        assertEquals(null, RenderTrace.DISABLED.getUrl());
+        assertFalse(RenderTrace.DISABLED.isDetached());
+        assertFalse(RenderTrace.DISABLED.finish());
+    }
+}
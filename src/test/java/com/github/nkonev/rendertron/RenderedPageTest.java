@@ -0,0 +1,87 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RenderedPageTest {
+
+    private static byte[] html() {
+        final StringBuilder html = new StringBuilder("<html><body>");
+        for (int i = 0; i < 100; i++) {
+            html.append("<p>Привет, crawler ").append(i).append("</p>");
+        }
+        return html.append("</body></html>").toString().getBytes(Consts.UTF_8);
+    }
+
+    @Test
+    public void should_gzip_body_and_gunzip_it_back() throws Exception {
+        //given
+        final byte[] body = html();
+        final RenderedPage page = new RenderedPage(200, new Header[]{new BasicHeader("Content-Type", "text/html")},
+                "UTF-8", body, 0);
+
+        //when
+        final RenderedPage gzipped = page.gzip();
+
+        //then
+        assertNull(page.getContentEncoding());
+        assertEquals("gzip", gzipped.getContentEncoding());
+        assertEquals(3, gzipped.getHeaders().length);
+        assertEquals("Accept-Encoding", gzipped.getHeaders()[2].getValue());
+        assertTrue(gzipped.getBodyLength() < body.length / 4);
+        assertSame(gzipped, gzipped.gzip());
+
+        // an off-heap copy, like the pages of MappedFileRenderCache
+        final ByteBuffer direct = ByteBuffer.allocateDirect(gzipped.getBodyLength());
+        direct.put(gzipped.getBody()).flip();
+        final RenderedPage mapped = new RenderedPage(200, gzipped.getHeaders(), "UTF-8", direct, 0);
+        final ByteArrayOutputStream gunzipped = new ByteArrayOutputStream();
+        mapped.writeGunzippedBody(gunzipped);
+        assertArrayEquals(body, gunzipped.toByteArray());
+    }
+
+    @Test
+    public void should_replace_etag_with_hash_of_body() throws Exception {
+        //given
+        final RenderedPage page = new RenderedPage(200, new Header[]{
+                new BasicHeader("Content-Type", "text/html"), new BasicHeader("ETag", "W/\"rendertron\"")},
+                "UTF-8", html(), 1514764800000L);
+
+        //when
+        final RenderedPage validated = page.withValidators();
+
+        //then
+        assertEquals(3, validated.getHeaders().length);
+        assertTrue(validated.getETag().matches("\"[0-9a-f]{32}\""));
+        assertEquals("Mon, 01 Jan 2018 00:00:00 GMT", validated.getLastModified());
+        assertEquals(validated.getETag(), page.withValidators().getETag());
+        assertFalse(validated.getETag().equals(page.gzip().withValidators().getETag()));
+    }
+
+    @Test
+    public void should_parse_accept_encoding() throws Exception {
+        assertTrue(SeoService.acceptsGzip("gzip, deflate, br"));
+        assertTrue(SeoService.acceptsGzip("br;q=1.0, GZIP;q=0.5"));
+        assertTrue(SeoService.acceptsGzip("*"));
+        assertFalse(SeoService.acceptsGzip(null));
+        assertFalse(SeoService.acceptsGzip("identity"));
+        assertFalse(SeoService.acceptsGzip("gzip;q=0, deflate"));
+        assertFalse(SeoService.acceptsGzip("gzip;q=0, *"));
+        assertFalse(SeoService.acceptsGzip("*, gzip;q=0"));
+        assertTrue(SeoService.acceptsGzip("*;q=0, gzip"));
+        assertFalse(SeoService.acceptsGzip("*;q=0, br"));
+        assertFalse(SeoService.acceptsGzip("gzipx"));
+    }
+}
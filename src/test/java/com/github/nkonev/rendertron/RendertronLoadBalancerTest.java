@@ -0,0 +1,152 @@
+package com.github.nkonev.rendertron;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class RendertronLoadBalancerTest {
+
+    private static final String FIRST = "http://rendertron-1:3000/render";
+    private static final String SECOND = "http://rendertron-2:3000/render";
+    private static final String THIRD = "http://rendertron-3:3000/render";
+
+    private static class TestLoadBalancer extends RendertronLoadBalancer {
+        long now = 1000;
+
+        TestLoadBalancer(RendertronLoadBalancer.Strategy strategy) {
+            super(Arrays.asList(FIRST, SECOND, THIRD), strategy, 3, 10000);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    @Test
+    public void should_build_api_url_and_host_header() throws Exception {
+        //given
+        final RendertronBackend backend = new RendertronBackend(FIRST);
+
+        //then
+        assertEquals("http://rendertron-1:3000/render/http://example.com/", backend.getApiUrl("http://example.com/"));
+        assertEquals("rendertron-1:3000", backend.getHostHeader());
+        assertEquals("rendertron-1", new RendertronBackend("http://rendertron-1/render/").getHostHeader());
+    }
+
+    @Test
+    public void should_send_render_to_least_outstanding_backend() throws Exception {
+        //given
+        final TestLoadBalancer loadBalancer = new TestLoadBalancer(RendertronLoadBalancer.Strategy.LEAST_OUTSTANDING);
+
+        //when
+        final Set<RendertronBackend> selected = new HashSet<RendertronBackend>();
+        for (int i = 0; i < 3; i++) {
+            selected.add(loadBalancer.select("http://example.com/" + i));
+        }
+
+        //then
+        assertThat(selected.size(), is(3));
+        for (RendertronBackend backend : loadBalancer.getBackends()) {
+            assertThat(backend.getOutstanding(), is(1));
+        }
+    }
+
+    @Test
+    public void should_keep_load_even_with_power_of_two_choices() throws Exception {
+        //given
+        final TestLoadBalancer loadBalancer = new TestLoadBalancer(RendertronLoadBalancer.Strategy.POWER_OF_TWO_CHOICES);
+
+        //when
+        for (int i = 0; i < 300; i++) {
+            loadBalancer.select("http://example.com/" + i);
+        }
+
+        //then
+        for (RendertronBackend backend : loadBalancer.getBackends()) {
+            assertThat(backend.getOutstanding() >= 90 && backend.getOutstanding() <= 110, is(true));
+        }
+    }
+
+    @Test
+    public void should_eject_failing_backend_and_return_it_later() throws Exception {
+        //given
+        final TestLoadBalancer loadBalancer = new TestLoadBalancer(RendertronLoadBalancer.Strategy.LEAST_OUTSTANDING);
+        final RendertronBackend failing = loadBalancer.getBackends().get(0);
+
+        //when
+        for (int i = 0; i < 3; i++) {
+            failing.acquire();
+            loadBalancer.release(failing, 1000000, false);
+        }
+
+        //then
+        assertThat(failing.isEjected(loadBalancer.now), is(true));
+        assertThat(failing.getErrorCount(), is(3L));
+        for (int i = 0; i < 20; i++) {
+            final RendertronBackend backend = loadBalancer.select("http://example.com/" + i);
+            assertThat(backend, not(failing));
+            loadBalancer.release(backend, 1000000, true);
+        }
+        loadBalancer.now += 10000;
+        assertThat(failing.isEjected(loadBalancer.now), is(false));
+    }
+
+    @Test
+    public void should_use_ejected_backends_if_all_are_ejected() throws Exception {
+        //given
+        final TestLoadBalancer loadBalancer = new TestLoadBalancer(RendertronLoadBalancer.Strategy.POWER_OF_TWO_CHOICES);
+        for (RendertronBackend backend : loadBalancer.getBackends()) {
+            for (int i = 0; i < 3; i++) {
+                backend.acquire();
+                loadBalancer.release(backend, 1000000, false);
+            }
+        }
+
+        //when
+        final RendertronBackend backend = loadBalancer.select("http://example.com/");
+
+        //then
+        assertThat(backend.getOutstanding(), is(1));
+    }
+
+    @Test
+    public void should_send_same_page_to_same_backend_with_consistent_hash() throws Exception {
+        //given
+        final TestLoadBalancer loadBalancer = new TestLoadBalancer(RendertronLoadBalancer.Strategy.CONSISTENT_HASH);
+        final Map<String, RendertronBackend> owners = new HashMap<String, RendertronBackend>();
+        final Map<RendertronBackend, Integer> pages = new HashMap<RendertronBackend, Integer>();
+        for (int i = 0; i < 300; i++) {
+            final String url = "http://example.com/page" + i;
+            final RendertronBackend owner = loadBalancer.select(url);
+            owners.put(url, owner);
+            pages.put(owner, pages.containsKey(owner) ? pages.get(owner) + 1 : 1);
+        }
+
+        //when
+        final RendertronBackend ejected = loadBalancer.getBackends().get(1);
+        for (int i = 0; i < 3; i++) {
+            loadBalancer.release(ejected, 1000000, false);
+        }
+
+        //then
+        assertThat(pages.size(), is(3));
+        for (Map.Entry<String, RendertronBackend> owner : owners.entrySet()) {
+            final RendertronBackend backend = loadBalancer.select(owner.getKey());
+            if (owner.getValue() == ejected) {
+                assertThat(backend, not(ejected));
+            } else {
+                assertThat(backend, is(owner.getValue()));
+            }
+        }
+    }
+}
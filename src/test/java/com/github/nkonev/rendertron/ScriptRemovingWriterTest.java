@@ -0,0 +1,44 @@
+package com.github.nkonev.rendertron;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScriptRemovingWriterTest {
+
+    private static String transform(String html, int chunkSize) throws IOException {
+        final StringWriter result = new StringWriter();
+        final Writer writer = new ScriptRemovingWriter(result);
+        for (int i = 0; i < html.length(); i += chunkSize) {
+            writer.write(html, i, Math.min(chunkSize, html.length() - i));
+        }
+        writer.close();
+        return result.toString();
+    }
+
+    @Test
+    public void should_remove_scripts() throws Exception {
+        final String html = "<html><head><SCRIPT src=\"/app.js\"></SCRIPT><title>T</title></head>" +
+                "<body><p>a</p><script type='text/javascript'>if (a < b && c > \"</p>\") {}</script ><p>b</p></body></html>";
+        final String expected = "<html><head><title>T</title></head><body><p>a</p><p>b</p></body></html>";
+        for (int chunkSize = 1; chunkSize <= html.length(); chunkSize++) {
+            assertEquals("chunk size " + chunkSize, expected, transform(html, chunkSize));
+        }
+    }
+
+    @Test
+    public void should_keep_json_ld() throws Exception {
+        final String html = "<head><script type=\"application/ld+json\">{\"@type\": \"Organization\"}</script><script>x()</script></head>";
+        assertEquals("<head><script type=\"application/ld+json\">{\"@type\": \"Organization\"}</script></head>", transform(html, 3));
+    }
+
+    @Test
+    public void should_keep_other_tags_and_quoted_gt() throws Exception {
+        final String html = "<noscript>n</noscript><scripts>s</scripts><script data-x=\"a>b\">x</script><p>1 < 2</p><scri";
+        assertEquals("<noscript>n</noscript><scripts>s</scripts><p>1 < 2</p><scri", transform(html, 5));
+    }
+}
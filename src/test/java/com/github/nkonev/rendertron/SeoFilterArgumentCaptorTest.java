@@ -5,6 +5,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.junit.After;
 import org.junit.Assert;
@@ -17,9 +18,11 @@ import org.mockito.runners.MockitoJUnitRunner;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Enumeration;
 import java.util.HashMap;
 
@@ -93,7 +96,7 @@ public class SeoFilterArgumentCaptorTest {
         when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
         when(httpClient.execute(httpGetCaptor.capture())).thenReturn(httpResponse);
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
-        final HashMap<String, String> map = new HashMap<String, String>();
+        final HashMap<String, String[]> map = new HashMap<String, String[]>();
         when(servletRequest.getParameterMap()).thenReturn(map);
         when(statusLine.getStatusCode()).thenReturn(SC_OK);
         when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
@@ -127,7 +130,7 @@ public class SeoFilterArgumentCaptorTest {
         when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
         when(httpClient.execute(httpGetCaptor.capture())).thenReturn(httpResponse);
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
-        final HashMap<String, String> map = new HashMap<String, String>();
+        final HashMap<String, String[]> map = new HashMap<String, String[]>();
         when(servletRequest.getParameterMap()).thenReturn(map);
         when(statusLine.getStatusCode()).thenReturn(SC_OK);
         when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
@@ -161,7 +164,7 @@ public class SeoFilterArgumentCaptorTest {
         when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
         when(httpClient.execute(httpGetCaptor.capture())).thenReturn(httpResponse);
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
-        final HashMap<String, String> map = new HashMap<String, String>();
+        final HashMap<String, String[]> map = new HashMap<String, String[]>();
         when(servletRequest.getParameterMap()).thenReturn(map);
         when(statusLine.getStatusCode()).thenReturn(SC_OK);
         when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
@@ -195,7 +198,7 @@ public class SeoFilterArgumentCaptorTest {
         when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
         when(httpClient.execute(httpGetCaptor.capture())).thenReturn(httpResponse);
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
-        final HashMap<String, String> map = new HashMap<String, String>();
+        final HashMap<String, String[]> map = new HashMap<String, String[]>();
         when(servletRequest.getParameterMap()).thenReturn(map);
         when(statusLine.getStatusCode()).thenReturn(SC_OK);
         when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
@@ -243,6 +246,117 @@ public class SeoFilterArgumentCaptorTest {
         }
     }
 
+    static class TestPassThroughEventHandler extends TestEventHandler implements PassThroughEventHandler {
+        @Override
+        public boolean isAfterRenderRequired(HttpServletRequest clientRequest) {
+            return false;
+        }
+    }
+
+    @Test
+    public void test_pass_through_event_handler_streams_page_without_after_render() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_EVENT_HANDLER)).thenReturn("com.github.nkonev.rendertron.SeoFilterArgumentCaptorTest$TestPassThroughEventHandler");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CRAWLER_USER_AGENTS)).thenReturn("crawler1,crawler2,crawler3");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        seoFilter.init(filterConfig);
+
+        final CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        final ServletOutputStream outputStream = mock(ServletOutputStream.class);
+
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("crawler3");
+
+        when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
+        when(httpClient.execute(httpGetCaptor.capture())).thenReturn(httpResponse);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
+        when(httpResponse.getEntity()).thenReturn(new StringEntity("<html></html>"));
+        when(servletResponse.getOutputStream()).thenReturn(outputStream);
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(filterChain, never()).doFilter(servletRequest, servletResponse);
+        verify(servletResponse).setContentLength(13);
+        verify(outputStream).write(any(byte[].class), eq(0), eq(13));
+        verify(servletResponse, never()).getWriter();
+        Assert.assertEquals(true, TestEventHandler.beforeRender);
+        Assert.assertEquals(false, TestEventHandler.afterRender);
+    }
+
+    @Test
+    public void test_page_changed_by_after_render_is_not_cached() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_EVENT_HANDLER)).thenReturn("com.github.nkonev.rendertron.SeoFilterArgumentCaptorTest$TestEventHandler");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CRAWLER_USER_AGENTS)).thenReturn("crawler1,crawler2,crawler3");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_CACHE_MAX_BYTES)).thenReturn("100000");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_COALESCING_TIMEOUT)).thenReturn("1000");
+        seoFilter.init(filterConfig);
+
+        final CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("crawler3");
+
+        when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
+        when(httpClient.execute(httpGetCaptor.capture())).thenReturn(httpResponse);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
+        when(httpResponse.getEntity()).thenReturn(new StringEntity("<html></html>"));
+        when(servletResponse.getWriter()).thenReturn(printWriter);
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(httpClient, times(2)).execute(any(HttpGet.class));
+        verify(filterChain, never()).doFilter(servletRequest, servletResponse);
+        Assert.assertEquals(true, TestEventHandler.afterRender);
+    }
+
+    @Test
+    public void test_streaming_event_handlers_transform_page_in_configured_order() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.STREAMING_EVENT_HANDLERS)).thenReturn(
+                "com.github.nkonev.rendertron.ScriptRemovingEventHandler, com.github.nkonev.rendertron.WhitespaceCollapsingEventHandler");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CRAWLER_USER_AGENTS)).thenReturn("crawler1,crawler2,crawler3");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        seoFilter.init(filterConfig);
+
+        final CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        final StringWriter responseBody = new StringWriter();
+
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("crawler3");
+
+        when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
+        when(httpClient.execute(httpGetCaptor.capture())).thenReturn(httpResponse);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
+        when(httpResponse.getEntity()).thenReturn(new StringEntity("<html>  <script>x()</script>  <p>a</p></html>"));
+        when(servletResponse.getWriter()).thenReturn(new PrintWriter(responseBody));
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(filterChain, never()).doFilter(servletRequest, servletResponse);
+        verify(servletResponse, never()).getOutputStream();
+        Assert.assertEquals("<html> <p>a</p></html>", responseBody.toString());
+    }
 
     @Test
     public void test_event_handler_before_render_html() throws Exception {
@@ -266,7 +380,7 @@ public class SeoFilterArgumentCaptorTest {
         when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
         when(httpClient.execute(httpGetCaptor.capture())).thenReturn(httpResponse);
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
-        final HashMap<String, String> map = new HashMap<String, String>();
+        final HashMap<String, String[]> map = new HashMap<String, String[]>();
         when(servletRequest.getParameterMap()).thenReturn(map);
         when(statusLine.getStatusCode()).thenReturn(SC_OK);
         when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
@@ -307,7 +421,7 @@ public class SeoFilterArgumentCaptorTest {
         when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
         when(httpClient.execute(httpGetCaptor.capture())).thenReturn(httpResponse);
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
-        final HashMap<String, String> map = new HashMap<String, String>();
+        final HashMap<String, String[]> map = new HashMap<String, String[]>();
         when(servletRequest.getParameterMap()).thenReturn(map);
         when(statusLine.getStatusCode()).thenReturn(SC_OK);
         when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
@@ -5,24 +5,44 @@ import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.mockito.runners.MockitoJUnitRunner;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import static org.apache.http.HttpStatus.SC_NOT_FOUND;
+import static org.apache.http.HttpStatus.SC_NOT_MODIFIED;
 import static org.apache.http.HttpStatus.SC_OK;
 import static org.apache.http.client.methods.HttpGet.METHOD_NAME;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -30,6 +50,8 @@ public class SeoFilterTest {
 
     private SeoFilter seoFilter;
 
+    private SeoService seoService;
+
     @Mock
     private CloseableHttpClient httpClient;
 
@@ -58,7 +80,7 @@ public class SeoFilterTest {
         seoFilter = new SeoFilter() {
             @Override
             public void init(FilterConfig filterConfig) throws ServletException {
-                setSeoService(new SeoService(toMap(filterConfig)) {
+                seoService = new SeoService(toMap(filterConfig)) {
                     @Override
                     protected CloseableHttpClient getHttpClient() {
                         return httpClient;
@@ -68,7 +90,8 @@ public class SeoFilterTest {
                     protected HttpGet getHttpGet(String apiUrl) {
                         return httpGet;
                     }
-                });
+                };
+                setSeoService(seoService);
             }
         };
     }
@@ -95,7 +118,7 @@ public class SeoFilterTest {
 
         when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
         when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
-        when(servletRequest.getParameterMap()).thenReturn(new HashMap<String, String>());
+        when(servletRequest.getParameterMap()).thenReturn(new HashMap<String, String[]>());
         when(servletRequest.getHeader("User-Agent")).thenReturn("no");
         //when
         seoFilter.doFilter(servletRequest, servletResponse, filterChain);
@@ -105,6 +128,47 @@ public class SeoFilterTest {
         verify(filterChain).doFilter(servletRequest, servletResponse);
     }
 
+    @Test
+    public void should_not_reconstruct_url_when_user_agent_is_not_crawler() throws Exception {
+        //given
+        seoFilter.init(filterConfig);
+
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("Mozilla/5.0 Firefox/60.0");
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(servletRequest, never()).getRequestURL();
+        verify(filterChain, times(2)).doFilter(servletRequest, servletResponse);
+        assertEquals(2, seoService.getRejectionCount(EligibilityStage.USER_AGENT));
+        assertEquals(0, seoService.getRejectionCount(EligibilityStage.METHOD));
+    }
+
+    @Test
+    public void should_count_rejections_with_custom_metrics() throws Exception {
+        //given
+        final RendertronMetrics metrics = mock(RendertronMetrics.class);
+        seoFilter = new SeoFilter() {
+            @Override
+            public void init(FilterConfig filterConfig) throws ServletException {
+                seoService = new SeoService(toMap(filterConfig), metrics);
+                setSeoService(seoService);
+            }
+        };
+        seoFilter.init(filterConfig);
+
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("Mozilla/5.0 Firefox/60.0");
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(metrics).onRejected(EligibilityStage.USER_AGENT);
+        assertEquals(1, seoService.getRejectionCount(EligibilityStage.USER_AGENT));
+    }
+
     @Test
     public void should_not_handle_when_url_is_a_resource() throws Exception {
         //given
@@ -113,7 +177,7 @@ public class SeoFilterTest {
 
         when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test.js"));
         when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
-        when(servletRequest.getParameterMap()).thenReturn(new HashMap<String, String>());
+        when(servletRequest.getParameterMap()).thenReturn(new HashMap<String, String[]>());
         when(servletRequest.getHeader("User-Agent")).thenReturn("crawler1");
         //when
         seoFilter.doFilter(servletRequest, servletResponse, filterChain);
@@ -121,6 +185,7 @@ public class SeoFilterTest {
         //then
         verify(httpClient, never()).execute(httpGet);
         verify(filterChain).doFilter(servletRequest, servletResponse);
+        assertEquals(1, seoService.getRejectionCount(EligibilityStage.RESOURCE));
     }
 
     @Test
@@ -132,7 +197,7 @@ public class SeoFilterTest {
 
         when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
         when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
-        when(servletRequest.getParameterMap()).thenReturn(new HashMap<String, String>());
+        when(servletRequest.getParameterMap()).thenReturn(new HashMap<String, String[]>());
         when(servletRequest.getHeader("User-Agent")).thenReturn("crawler1");
         //when
         seoFilter.doFilter(servletRequest, servletResponse, filterChain);
@@ -151,7 +216,7 @@ public class SeoFilterTest {
 
         when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
         when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
-        when(servletRequest.getParameterMap()).thenReturn(new HashMap<String, String>());
+        when(servletRequest.getParameterMap()).thenReturn(new HashMap<String, String[]>());
         when(servletRequest.getHeader("User-Agent")).thenReturn("crawler1");
         //when
         seoFilter.doFilter(servletRequest, servletResponse, filterChain);
@@ -178,7 +243,7 @@ public class SeoFilterTest {
         when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
         when(httpClient.execute(httpGet)).thenReturn(httpResponse);
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
-        final HashMap<String, String> map = new HashMap<String, String>();
+        final HashMap<String, String[]> map = new HashMap<String, String[]>();
         when(servletRequest.getParameterMap()).thenReturn(map);
         when(statusLine.getStatusCode()).thenReturn(SC_OK);
         when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
@@ -208,7 +273,7 @@ public class SeoFilterTest {
         when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
         when(httpClient.execute(httpGet)).thenReturn(httpResponse);
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
-        final HashMap<String, String> map = new HashMap<String, String>();
+        final HashMap<String, String[]> map = new HashMap<String, String[]>();
         when(servletRequest.getParameterMap()).thenReturn(map);
         when(statusLine.getStatusCode()).thenReturn(SC_NOT_FOUND);
         when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
@@ -245,7 +310,7 @@ public class SeoFilterTest {
         when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
         when(httpClient.execute(httpGet)).thenReturn(httpResponse);
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
-        final HashMap<String, String> map = new HashMap<String, String>();
+        final HashMap<String, String[]> map = new HashMap<String, String[]>();
         when(servletRequest.getParameterMap()).thenReturn(map);
         when(statusLine.getStatusCode()).thenReturn(SC_OK);
         when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
@@ -259,6 +324,383 @@ public class SeoFilterTest {
         verify(filterChain, never()).doFilter(servletRequest, servletResponse);
     }
 
+    @Test
+    public void should_serve_second_request_from_render_cache() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CRAWLER_USER_AGENTS)).thenReturn("crawler1,crawler2");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_CACHE_MAX_BYTES)).thenReturn("100000");
+        seoFilter.init(filterConfig);
+
+        final CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        final ServletOutputStream outputStream = mock(ServletOutputStream.class);
+
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("crawler1");
+
+        when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
+        when(httpClient.execute(httpGet)).thenReturn(httpResponse);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[]{new BasicHeader("Content-Type", "text/html; charset=UTF-8")});
+        when(httpResponse.getEntity()).thenReturn(new StringEntity("<html>привет</html>", ContentType.create("text/html", "UTF-8")));
+        when(servletResponse.getWriter()).thenReturn(printWriter);
+        when(servletResponse.getOutputStream()).thenReturn(outputStream);
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        final byte[] body = "<html>привет</html>".getBytes("UTF-8");
+        verify(httpClient, times(1)).execute(httpGet);
+        verify(printWriter, never()).write(anyString());
+        verify(outputStream, times(2)).write(any(byte[].class), eq(0), eq(body.length));
+        verify(outputStream).write(aryEq(body), eq(0), eq(body.length));
+        verify(servletResponse, times(2)).setContentLength(body.length);
+        verify(servletResponse, times(2)).addHeader("Content-Type", "text/html; charset=UTF-8");
+        verify(filterChain, never()).doFilter(servletRequest, servletResponse);
+        final SimpleRendertronMetrics metrics = (SimpleRendertronMetrics) seoService.getMetrics();
+        assertEquals(1, metrics.getRenderCount(2));
+        assertEquals(1, metrics.getRenderCount());
+        assertEquals(1, metrics.getCacheLookupCount(RendertronMetrics.CacheResult.HIT));
+        assertEquals(1, metrics.getCacheLookupCount(RendertronMetrics.CacheResult.MISS));
+        assertEquals(body.length, metrics.getRenderedBodyLength());
+        assertEquals(0, metrics.getErrorCount());
+    }
+
+    @Test
+    public void should_serve_gzipped_page_from_render_cache_as_accepted() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CRAWLER_USER_AGENTS)).thenReturn("crawler1,crawler2");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_CACHE_MAX_BYTES)).thenReturn("100000");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_CACHE_GZIP)).thenReturn("true");
+        seoFilter.init(filterConfig);
+
+        final CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final ServletOutputStream outputStream = mock(ServletOutputStream.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                final Object[] arguments = invocation.getArguments();
+                written.write((byte[]) arguments[0], (Integer) arguments[1], (Integer) arguments[2]);
+                return null;
+            }
+        }).when(outputStream).write(any(byte[].class), anyInt(), anyInt());
+        final StringBuilder html = new StringBuilder("<html>");
+        for (int i = 0; i < 100; i++) {
+            html.append("<p>page ").append(i).append("</p>");
+        }
+        html.append("</html>");
+        final byte[] body = html.toString().getBytes("UTF-8");
+
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("crawler1");
+        when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
+        when(httpClient.execute(httpGet)).thenReturn(httpResponse);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[]{new BasicHeader("Content-Type", "text/html; charset=UTF-8")});
+        when(httpResponse.getEntity()).thenReturn(new StringEntity(html.toString(), ContentType.create("text/html", "UTF-8")));
+        when(servletResponse.getOutputStream()).thenReturn(outputStream);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        written.reset();
+
+        //when
+        when(servletRequest.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        final byte[] gzipped = written.toByteArray();
+        written.reset();
+        when(servletRequest.getHeader("Accept-Encoding")).thenReturn(null);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(httpClient, times(1)).execute(httpGet);
+        verify(servletResponse, times(1)).addHeader("Content-Encoding", "gzip");
+        verify(servletResponse, times(2)).addHeader("Vary", "Accept-Encoding");
+        verify(servletResponse).setContentLength(gzipped.length);
+        final ByteArrayOutputStream gunzipped = new ByteArrayOutputStream();
+        final GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(gzipped));
+        int read;
+        while ((read = gzipInputStream.read()) != -1) {
+            gunzipped.write(read);
+        }
+        assertArrayEquals(body, gunzipped.toByteArray());
+        assertArrayEquals(body, written.toByteArray());
+    }
+
+    @Test
+    public void should_answer_conditional_request_from_render_cache_with_not_modified() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CRAWLER_USER_AGENTS)).thenReturn("crawler1,crawler2");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_CACHE_MAX_BYTES)).thenReturn("100000");
+        seoFilter.init(filterConfig);
+
+        final CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        final ServletOutputStream outputStream = mock(ServletOutputStream.class);
+
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("crawler1");
+        when(servletRequest.getHeaderNames()).thenAnswer(new Answer<Enumeration<String>>() {
+            @Override
+            public Enumeration<String> answer(InvocationOnMock invocation) throws Throwable {
+                return Collections.enumeration(Collections.singletonList("If-None-Match"));
+            }
+        });
+        when(servletRequest.getHeader("If-None-Match")).thenReturn("\"rendertron\"");
+        when(httpClient.execute(httpGet)).thenReturn(httpResponse);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[]{
+                new BasicHeader("Content-Type", "text/html; charset=UTF-8"), new BasicHeader("ETag", "\"rendertron\"")});
+        when(httpResponse.getEntity()).thenReturn(new StringEntity("<html>привет</html>", ContentType.create("text/html", "UTF-8")));
+        when(servletResponse.getOutputStream()).thenReturn(outputStream);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        when(servletRequest.getHeader("If-None-Match")).thenReturn(null);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        final ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(servletResponse).addHeader(eq("ETag"), etag.capture());
+        final ArgumentCaptor<String> lastModified = ArgumentCaptor.forClass(String.class);
+        verify(servletResponse).addHeader(eq("Last-Modified"), lastModified.capture());
+
+        //when
+        when(servletRequest.getHeader("If-None-Match")).thenReturn("\"other\", W/" + etag.getValue());
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        when(servletRequest.getHeader("If-None-Match")).thenReturn(null);
+        when(servletRequest.getHeader("If-Modified-Since")).thenReturn(lastModified.getValue());
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        final byte[] body = "<html>привет</html>".getBytes("UTF-8");
+        verify(httpClient, times(1)).execute(httpGet);
+        verify(httpGet, never()).addHeader(eq("If-None-Match"), anyString());
+        verify(servletResponse, times(2)).setStatus(SC_NOT_MODIFIED);
+        verify(servletResponse, times(3)).addHeader("ETag", etag.getValue());
+        verify(outputStream, times(2)).write(any(byte[].class), eq(0), eq(body.length));
+        verify(servletResponse, times(2)).setContentLength(body.length);
+        verify(filterChain, never()).doFilter(servletRequest, servletResponse);
+    }
+
+    @Test
+    public void should_add_server_timing_header_when_enabled() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CRAWLER_USER_AGENTS)).thenReturn("crawler1,crawler2");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.SERVER_TIMING)).thenReturn("true");
+        seoFilter.init(filterConfig);
+
+        final CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        final ServletOutputStream outputStream = mock(ServletOutputStream.class);
+        final HashMap<String, Object> attributes = new HashMap<String, Object>();
+
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("crawler1");
+        when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(servletRequest).setAttribute(anyString(), any());
+        when(servletRequest.getAttribute(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return attributes.get(invocation.getArguments()[0]);
+            }
+        });
+        when(httpClient.execute(eq(httpGet), any(HttpContext.class))).thenReturn(httpResponse);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
+        when(httpResponse.getEntity()).thenReturn(new StringEntity("<html></html>", ContentType.TEXT_HTML));
+        when(servletResponse.getOutputStream()).thenReturn(outputStream);
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        final RenderTrace trace = (RenderTrace) attributes.get(RenderTrace.ATTRIBUTE);
+        assertEquals("http://localhost/test", trace.getUrl());
+        assertTrue(trace.isRecorded(RenderTrace.Phase.TTFB));
+        assertTrue(trace.isRecorded(RenderTrace.Phase.DOWNLOAD));
+        assertTrue(trace.isRecorded(RenderTrace.Phase.WRITE));
+        verify(servletResponse).addHeader(eq("Server-Timing"), contains("ttfb;dur="));
+        verify(servletResponse, never()).addHeader(eq("Server-Timing"), contains("write;dur="));
+        verify(httpClient, never()).execute(httpGet);
+        verify(filterChain, never()).doFilter(servletRequest, servletResponse);
+    }
+
+    @Test
+    public void should_not_forward_blacklisted_headers_to_rendertron() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CRAWLER_USER_AGENTS)).thenReturn("crawler1,crawler2");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.HEADER_BLACKLIST)).thenReturn("cookie, Authorization");
+        seoFilter.init(filterConfig);
+        givenRenderedRequestWithHeaders();
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(httpGet).addHeader("Host", "example.com:3000");
+        verify(httpGet).addHeader("Accept-Language", "ru");
+        verify(httpGet, never()).addHeader(eq("Cookie"), anyString());
+        verify(httpGet, never()).addHeader(eq("Connection"), anyString());
+        verify(filterChain, never()).doFilter(servletRequest, servletResponse);
+    }
+
+    @Test
+    public void should_forward_only_whitelisted_headers_to_rendertron() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CRAWLER_USER_AGENTS)).thenReturn("crawler1,crawler2");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.HEADER_WHITELIST)).thenReturn("accept-language,Connection");
+        seoFilter.init(filterConfig);
+        givenRenderedRequestWithHeaders();
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(httpGet).addHeader("Accept-Language", "ru");
+        verify(httpGet, never()).addHeader(eq("Host"), anyString());
+        verify(httpGet, never()).addHeader(eq("Cookie"), anyString());
+        verify(httpGet, never()).addHeader(eq("Connection"), anyString());
+    }
+
+    private void givenRenderedRequestWithHeaders() throws IOException {
+        final CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Host", "localhost");
+        headers.put("Cookie", "session=secret");
+        headers.put("Accept-Language", "ru");
+        headers.put("Connection", "keep-alive");
+
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("crawler1");
+        when(servletRequest.getHeaderNames()).thenAnswer(new Answer<Enumeration<String>>() {
+            @Override
+            public Enumeration<String> answer(InvocationOnMock invocation) throws Throwable {
+                return Collections.enumeration(headers.keySet());
+            }
+        });
+        when(servletRequest.getHeaders(anyString())).thenAnswer(new Answer<Enumeration<String>>() {
+            @Override
+            public Enumeration<String> answer(InvocationOnMock invocation) throws Throwable {
+                return Collections.enumeration(Collections.singletonList(headers.get(invocation.getArguments()[0])));
+            }
+        });
+        when(httpClient.execute(httpGet)).thenReturn(httpResponse);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
+        when(servletResponse.getWriter()).thenReturn(printWriter);
+    }
+
+    @Test
+    public void should_serve_stale_page_and_render_it_again_in_background() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CRAWLER_USER_AGENTS)).thenReturn("crawler1,crawler2");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_CACHE_MAX_BYTES)).thenReturn("100000");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_CACHE_TTL_SECONDS)).thenReturn("0");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_CACHE_STALE_SECONDS)).thenReturn("60");
+        seoFilter.init(filterConfig);
+
+        final CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        final ServletOutputStream outputStream = mock(ServletOutputStream.class);
+
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("crawler1");
+
+        when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
+        when(httpClient.execute(httpGet)).thenReturn(httpResponse);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[]{new BasicHeader("Content-Type", "text/html; charset=UTF-8")});
+        when(httpResponse.getEntity()).thenReturn(new StringEntity("<html>test</html>", ContentType.create("text/html", "UTF-8")));
+        when(servletResponse.getOutputStream()).thenReturn(outputStream);
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        final byte[] body = "<html>test</html>".getBytes("UTF-8");
+        verify(outputStream).write(aryEq(body), eq(0), eq(body.length));
+        verify(servletResponse, times(2)).setContentLength(body.length);
+        verify(httpClient, timeout(5000).times(2)).execute(httpGet);
+        verify(filterChain, never()).doFilter(servletRequest, servletResponse);
+        seoFilter.destroy();
+    }
+
+    @Test
+    public void should_fall_through_when_render_concurrency_limit_is_reached() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CRAWLER_USER_AGENTS)).thenReturn("crawler1,crawler2");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_CONCURRENCY_LIMIT)).thenReturn("1");
+        seoFilter.init(filterConfig);
+        assertEquals(true, seoService.getConcurrencyLimiter().tryAcquire());
+
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("crawler1");
+        when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(httpClient, never()).execute(httpGet);
+        verify(filterChain).doFilter(servletRequest, servletResponse);
+        assertEquals(1, seoService.getConcurrencyLimiter().getShedCount());
+    }
+
+    @Test
+    public void should_fall_through_without_calling_rendertron_when_circuit_breaker_is_open() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CRAWLER_USER_AGENTS)).thenReturn("crawler1,crawler2");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CIRCUIT_BREAKER_FAILURE_RATE)).thenReturn("50");
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.CIRCUIT_BREAKER_WINDOW_SIZE)).thenReturn("2");
+        seoFilter.init(filterConfig);
+
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("crawler1");
+        when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
+        when(httpClient.execute(httpGet)).thenThrow(new IOException("Connection refused"));
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(httpClient, times(2)).execute(httpGet);
+        verify(filterChain, times(3)).doFilter(servletRequest, servletResponse);
+        assertEquals(CircuitBreaker.State.OPEN, seoService.getCircuitBreaker().getState());
+        assertEquals(1, seoService.getCircuitBreaker().getRejectedCount());
+    }
+
     @Test
     public void should_use_request_url_from_custom_header_if_available() throws Exception {
         //given
@@ -281,7 +723,7 @@ public class SeoFilterTest {
         when(servletRequest.getHeaderNames()).thenReturn(mock(Enumeration.class));
         when(httpClient.execute(httpGet)).thenReturn(httpResponse);
         when(httpResponse.getStatusLine()).thenReturn(statusLine);
-        final HashMap<String, String> map = new HashMap<String, String>();
+        final HashMap<String, String[]> map = new HashMap<String, String[]>();
         when(servletRequest.getParameterMap()).thenReturn(map);
         when(statusLine.getStatusCode()).thenReturn(SC_OK);
         when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
@@ -0,0 +1,42 @@
+package com.github.nkonev.rendertron;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class UrlCanonicalizerTest {
+
+    private final UrlCanonicalizer canonicalizer = new UrlCanonicalizer(UrlCanonicalizer.DEFAULT_IGNORED_PARAMETERS);
+
+    @Test
+    public void should_sort_query_parameters_and_drop_tracking_ones() throws Exception {
+        assertEquals("http://localhost/page?a=1&b=2", canonicalizer.canonicalize("http://localhost/page?b=2&a=1"));
+        assertEquals("http://localhost/page?a=1&b=2",
+                canonicalizer.canonicalize("http://localhost/page?utm_source=news&b=2&gclid=x&a=1&fbclid=y&utm_medium=mail"));
+        assertEquals("http://localhost/page", canonicalizer.canonicalize("http://localhost/page?utm_campaign=spring"));
+        assertEquals("http://localhost/page?a=2&a=1&b", canonicalizer.canonicalize("http://localhost/page?b&&a=2&a=1"));
+    }
+
+    @Test
+    public void should_lowercase_scheme_and_host_and_strip_fragment() throws Exception {
+        assertEquals("http://example.com/Page", canonicalizer.canonicalize("HTTP://Example.COM:80/Page#top"));
+        assertEquals("https://example.com:8443/", canonicalizer.canonicalize("https://EXAMPLE.com:8443"));
+        assertEquals("https://User@example.com/", canonicalizer.canonicalize("https://User@Example.com:443/"));
+    }
+
+    @Test
+    public void should_normalize_percent_encoding() throws Exception {
+        assertEquals("http://localhost/~user/a%2Fb?q=%D0%BF%20x-y",
+                canonicalizer.canonicalize("http://localhost/%7euser/a%2fb?q=%d0%bf%20x%2Dy"));
+        assertEquals("http://localhost/100%?q=%zz", canonicalizer.canonicalize("http://localhost/100%?q=%zz"));
+    }
+
+    @Test
+    public void should_drop_configured_parameters() throws Exception {
+        final UrlCanonicalizer canonicalizer = new UrlCanonicalizer(Arrays.asList("sid", "ref_*"));
+
+        assertEquals("http://localhost/?utm_source=x", canonicalizer.canonicalize("http://localhost/?sid=1&ref_a=2&utm_source=x"));
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.nkonev.rendertron;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+
+public class WhitespaceCollapsingWriterTest {
+
+    private static String transform(String html, int chunkSize) throws IOException {
+        final StringWriter result = new StringWriter();
+        final Writer writer = new WhitespaceCollapsingWriter(result);
+        for (int i = 0; i < html.length(); i += chunkSize) {
+            writer.write(html, i, Math.min(chunkSize, html.length() - i));
+        }
+        writer.close();
+        return result.toString();
+    }
+
+    @Test
+    public void should_collapse_whitespace_of_text() throws Exception {
+        final String html = "<html>\n  <body>\n\n    <p>a    b\t\tc</p>  </body>\n</html>  ";
+        final String expected = "<html>\n<body>\n<p>a b c</p> </body>\n</html> ";
+        for (int chunkSize = 1; chunkSize <= html.length(); chunkSize++) {
+            assertEquals("chunk size " + chunkSize, expected, transform(html, chunkSize));
+        }
+    }
+
+    @Test
+    public void should_keep_whitespace_of_tags_and_preformatted_elements() throws Exception {
+        final String html = "<p  title=\"a  >  b\">x  y</p><PRE class='c'>\n  1\n  2</pre>  " +
+                "<textarea>a   b</textarea><script>var  a = '<b>';</script><style>a  { }</style><pretty>a  b</pretty>";
+        final String expected = "<p  title=\"a  >  b\">x y</p><PRE class='c'>\n  1\n  2</pre> " +
+                "<textarea>a   b</textarea><script>var  a = '<b>';</script><style>a  { }</style><pretty>a b</pretty>";
+        assertEquals(expected, transform(html, 4));
+    }
+}
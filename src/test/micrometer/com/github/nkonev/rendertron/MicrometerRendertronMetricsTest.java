@@ -0,0 +1,110 @@
+package com.github.nkonev.rendertron;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MicrometerRendertronMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MicrometerRendertronMetrics metrics = new MicrometerRendertronMetrics(registry, "first");
+
+    @Test
+    public void should_publish_counters_and_timers() throws Exception {
+        //given
+        metrics.bindConnectionPool(new PoolingHttpClientConnectionManager());
+
+        //when
+        metrics.onRejected(EligibilityStage.USER_AGENT);
+        metrics.onRejected(EligibilityStage.USER_AGENT);
+        metrics.onCacheLookup(RendertronMetrics.CacheResult.MISS);
+        metrics.onRender(200, TimeUnit.MILLISECONDS.toNanos(120));
+        metrics.onRender(RendertronMetrics.NO_RESPONSE, TimeUnit.MILLISECONDS.toNanos(3000));
+        metrics.onRenderedBody(2048);
+        metrics.onError(new IllegalStateException());
+
+        //then
+        assertEquals(2, registry.get("rendertron.rejections").tag("stage", "user_agent").functionCounter().count(), 0);
+        assertEquals(0, registry.get("rendertron.rejections").tag("stage", "method").functionCounter().count(), 0);
+        assertEquals(1, registry.get("rendertron.cache.lookups").tag("result", "miss").functionCounter().count(), 0);
+        assertEquals(1, registry.get("rendertron.errors").functionCounter().count(), 0);
+        assertEquals(1, registry.get("rendertron.renders").tag("status", "2xx").timer().count());
+        assertEquals(120, registry.get("rendertron.renders").tag("status", "2xx").timer().totalTime(TimeUnit.MILLISECONDS), 0);
+        assertEquals(1, registry.get("rendertron.renders").tag("status", "none").timer().count());
+        assertEquals(2048, registry.get("rendertron.rendered.body").summary().totalAmount(), 0);
+        assertEquals(0, registry.get("rendertron.connections").tag("state", "leased").gauge().value(), 0);
+        assertEquals(2, metrics.getRenderCount());
+    }
+
+    @Test
+    public void should_tell_instances_apart_and_remove_meters_on_close() throws Exception {
+        //given
+        final MicrometerRendertronMetrics second = new MicrometerRendertronMetrics(registry, "second");
+        second.bindConnectionPool(new PoolingHttpClientConnectionManager());
+
+        //when
+        metrics.onError(new IllegalStateException());
+        second.onError(new IllegalStateException());
+        second.onError(new IllegalStateException());
+
+        //then
+        assertEquals(1, registry.get("rendertron.errors").tag("instance", "first").functionCounter().count(), 0);
+        assertEquals(2, registry.get("rendertron.errors").tag("instance", "second").functionCounter().count(), 0);
+
+        //when
+        second.close();
+
+        //then
+        assertTrue(registry.find("rendertron.errors").tag("instance", "second").meters().isEmpty());
+        assertTrue(registry.find("rendertron.connections").meters().isEmpty());
+        assertEquals(1, registry.get("rendertron.errors").tag("instance", "first").functionCounter().count(), 0);
+    }
+
+    @Test
+    public void should_publish_bound_components() throws Exception {
+        //given
+        final ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(1, 1, 4);
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100, 0, 1000);
+        final RendertronLoadBalancer loadBalancer = new RendertronLoadBalancer(
+                Arrays.asList("http://rendertron-1:3000/render", "http://rendertron-2:3000/render"),
+                RendertronLoadBalancer.Strategy.LEAST_OUTSTANDING, 3, 1000);
+        final RenderRevalidator renderRevalidator = new RenderRevalidator(1, 1);
+        try {
+            metrics.bindConcurrencyLimiter(concurrencyLimiter);
+            metrics.bindCircuitBreaker(circuitBreaker);
+            metrics.bindLoadBalancer(loadBalancer);
+            metrics.bindRenderRevalidator(renderRevalidator);
+
+            //when
+            assertTrue(concurrencyLimiter.tryAcquire());
+            assertFalse(concurrencyLimiter.tryAcquire());
+            assertTrue(circuitBreaker.tryAcquire());
+            circuitBreaker.onResult(0, false);
+            assertFalse(circuitBreaker.tryAcquire());
+            final RendertronBackend backend = loadBalancer.select("http://localhost/");
+            loadBalancer.release(backend, TimeUnit.MILLISECONDS.toNanos(200), false);
+
+            //then
+            assertEquals(1, registry.get("rendertron.concurrency.limit").gauge().value(), 0);
+            assertEquals(1, registry.get("rendertron.concurrency.in.flight").gauge().value(), 0);
+            assertEquals(1, registry.get("rendertron.concurrency.shed").functionCounter().count(), 0);
+            assertEquals(1, registry.get("rendertron.circuit.breaker.state").tag("state", "open").gauge().value(), 0);
+            assertEquals(0, registry.get("rendertron.circuit.breaker.state").tag("state", "closed").gauge().value(), 0);
+            assertEquals(1, registry.get("rendertron.circuit.breaker.rejected").functionCounter().count(), 0);
+            assertEquals(1, registry.get("rendertron.backend.errors").tag("backend", backend.getServiceUrl())
+                    .functionCounter().count(), 0);
+            assertEquals(2, registry.find("rendertron.backend.requests").functionCounters().size());
+            assertEquals(0, registry.get("rendertron.revalidation.pending").gauge().value(), 0);
+            assertEquals(0, registry.get("rendertron.revalidation.dropped").functionCounter().count(), 0);
+        } finally {
+            renderRevalidator.destroy();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.nkonev.rendertron;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.testing.junit4.OpenTelemetryRule;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OpenTelemetryRenderTraceListenerTest {
+
+    @Rule
+    public final OpenTelemetryRule openTelemetry = OpenTelemetryRule.create();
+
+    @Test
+    public void should_export_trace_as_span_with_phase_attributes() throws Exception {
+        //given
+        final OpenTelemetryRenderTraceListener listener = new OpenTelemetryRenderTraceListener(openTelemetry.getOpenTelemetry());
+        final RenderTrace trace = new RenderTrace();
+        trace.setUrl("http://localhost/test");
+        trace.add(RenderTrace.Phase.TTFB, TimeUnit.MILLISECONDS.toNanos(1200));
+        trace.finish();
+
+        //when
+        listener.onTrace(trace);
+
+        //then
+        final List<SpanData> spans = openTelemetry.getSpans();
+        assertEquals(1, spans.size());
+        final SpanData span = spans.get(0);
+        assertEquals("rendertron.render", span.getName());
+        assertEquals("http://localhost/test", span.getAttributes().get(AttributeKey.stringKey("url.full")));
+        assertEquals(1200.0, span.getAttributes().get(AttributeKey.doubleKey("rendertron.ttfb.ms")), 0);
+        assertNull(span.getAttributes().get(AttributeKey.doubleKey("rendertron.download.ms")));
+        assertEquals(trace.getTotalNanos(), span.getEndEpochNanos() - span.getStartEpochNanos());
+    }
+}
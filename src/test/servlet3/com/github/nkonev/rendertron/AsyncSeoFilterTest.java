@@ -0,0 +1,470 @@
+package com.github.nkonev.rendertron;
+
+import org.apache.http.ContentTooLongException;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.github.nkonev.rendertron.SeoFilterTest.DEFAULT_RENDERTRON_URL;
+import static org.apache.http.HttpStatus.SC_OK;
+import static org.apache.http.HttpVersion.HTTP_1_1;
+import static org.apache.http.client.methods.HttpGet.METHOD_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncSeoFilterTest {
+
+    private AsyncSeoFilter seoFilter;
+
+    private AsyncSeoService seoService;
+
+    @Mock
+    private FilterConfig filterConfig;
+
+    @Mock
+    private CloseableHttpClient httpClient;
+
+    @Mock
+    private CloseableHttpAsyncClient httpAsyncClient;
+
+    @Mock
+    private HttpServletRequest servletRequest;
+
+    @Mock
+    private HttpServletResponse servletResponse;
+
+    @Mock
+    private AsyncContext asyncContext;
+
+    @Mock
+    private ExecutorService renderExecutor;
+
+    @Mock
+    private FilterChain filterChain;
+
+    @Captor
+    private ArgumentCaptor<HttpAsyncRequestProducer> producerCaptor;
+
+    @Captor
+    private ArgumentCaptor<FutureCallback<HttpResponse>> callbackCaptor;
+
+    @Captor
+    private ArgumentCaptor<Runnable> runnableCaptor;
+
+    @Captor
+    private ArgumentCaptor<AsyncListener> listenerCaptor;
+
+    @Captor
+    private ArgumentCaptor<Object> attributeCaptor;
+
+    @Before
+    public void setUp() throws Exception {
+        seoFilter = new AsyncSeoFilter() {
+            @Override
+            public void init(FilterConfig filterConfig) throws ServletException {
+                seoService = new AsyncSeoService(toMap(filterConfig)) {
+                    @Override
+                    protected CloseableHttpClient getHttpClient() {
+                        return httpClient;
+                    }
+
+                    @Override
+                    protected CloseableHttpAsyncClient getHttpAsyncClient() {
+                        return httpAsyncClient;
+                    }
+
+                    @Override
+                    protected ExecutorService getRenderExecutor() {
+                        return renderExecutor;
+                    }
+                };
+                setSeoService(seoService);
+            }
+        };
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDERTRON_SERVICE_URL)).thenReturn(DEFAULT_RENDERTRON_URL);
+        seoFilter.init(filterConfig);
+
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer("http://localhost/test"));
+        when(servletRequest.getMethod()).thenReturn(METHOD_NAME);
+        when(servletRequest.getHeader("User-Agent")).thenReturn("Googlebot");
+        when(servletRequest.getHeaderNames()).thenReturn(Collections.enumeration(Collections.<String>emptyList()));
+        when(servletRequest.isAsyncSupported()).thenReturn(true);
+        when(servletRequest.startAsync(servletRequest, servletResponse)).thenReturn(asyncContext);
+    }
+
+    @Test
+    public void should_release_container_thread_and_write_page_on_callback() throws Exception {
+        //given
+        final HttpResponse httpResponse = mock(HttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        final ServletOutputStream outputStream = mock(ServletOutputStream.class);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
+        when(httpResponse.getEntity()).thenReturn(new StringEntity("<html></html>"));
+        when(servletResponse.getOutputStream()).thenReturn(outputStream);
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(filterChain, never()).doFilter(servletRequest, servletResponse);
+        verify(httpAsyncClient).execute(producerCaptor.capture(), any(AsyncSeoService.CappedResponseConsumer.class),
+                callbackCaptor.capture());
+        verify(httpClient, never()).execute(any(HttpGet.class));
+        assertEquals(DEFAULT_RENDERTRON_URL + "/http://localhost/test",
+                producerCaptor.getValue().generateRequest().getRequestLine().getUri());
+        verify(servletResponse, never()).getOutputStream();
+
+        assertEquals(1, seoService.getParkedRenderCount());
+
+        //when
+        callbackCaptor.getValue().completed(httpResponse);
+        verify(asyncContext).start(runnableCaptor.capture());
+        runnableCaptor.getValue().run();
+
+        //then
+        verify(servletResponse).setStatus(SC_OK);
+        verify(outputStream).write(any(byte[].class), eq(0), eq(13));
+        verify(asyncContext).complete();
+        verify(asyncContext, never()).dispatch();
+        assertEquals(0, seoService.getParkedRenderCount());
+    }
+
+    @Test
+    public void should_render_with_blocking_client_on_render_executor_when_virtual_threads_are_enabled() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_ON_VIRTUAL_THREADS)).thenReturn("true");
+        seoFilter.init(filterConfig);
+        final CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        final ServletOutputStream outputStream = mock(ServletOutputStream.class);
+        when(httpClient.execute(any(HttpGet.class))).thenReturn(httpResponse);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
+        when(httpResponse.getEntity()).thenReturn(new StringEntity("<html></html>"));
+        when(servletResponse.getOutputStream()).thenReturn(outputStream);
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(filterChain, never()).doFilter(servletRequest, servletResponse);
+        verify(renderExecutor).submit(runnableCaptor.capture());
+        verify(httpClient, never()).execute(any(HttpGet.class));
+        assertEquals(1, seoService.getParkedRenderCount());
+
+        //when
+        runnableCaptor.getValue().run();
+
+        //then
+        verify(httpClient).execute(any(HttpGet.class));
+        verify(outputStream).write(any(byte[].class), eq(0), eq(13));
+        verify(asyncContext).complete();
+        assertEquals(0, seoService.getParkedRenderCount());
+    }
+
+    @Test
+    public void should_not_reset_response_on_container_timeout_once_render_on_executor_is_writing() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_ON_VIRTUAL_THREADS)).thenReturn("true");
+        seoFilter.init(filterConfig);
+        final CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        final ServletOutputStream outputStream = mock(ServletOutputStream.class);
+        when(httpClient.execute(any(HttpGet.class))).thenReturn(httpResponse);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
+        when(httpResponse.getEntity()).thenReturn(new StringEntity("<html></html>"));
+        when(servletResponse.getOutputStream()).thenReturn(outputStream);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        verify(renderExecutor).submit(runnableCaptor.capture());
+        verify(asyncContext).addListener(listenerCaptor.capture());
+        verify(servletRequest).setAttribute(eq(AsyncSeoService.PARKED_RENDER_ATTRIBUTE), attributeCaptor.capture());
+        when(servletRequest.getAttribute(AsyncSeoService.PARKED_RENDER_ATTRIBUTE)).thenReturn(attributeCaptor.getValue());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                listenerCaptor.getValue().onTimeout(mock(AsyncEvent.class));
+                return null;
+            }
+        }).when(outputStream).write(any(byte[].class), eq(0), eq(13));
+
+        //when
+        runnableCaptor.getValue().run();
+
+        //then
+        verify(outputStream).write(any(byte[].class), eq(0), eq(13));
+        verify(servletResponse, never()).reset();
+        verify(asyncContext, never()).dispatch();
+        verify(asyncContext).complete();
+        assertEquals(0, seoService.getParkedRenderCount());
+    }
+
+    @Test
+    public void should_not_write_response_when_container_timeout_precedes_render_on_executor() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_ON_VIRTUAL_THREADS)).thenReturn("true");
+        seoFilter.init(filterConfig);
+        final CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        verify(renderExecutor).submit(runnableCaptor.capture());
+        verify(asyncContext).addListener(listenerCaptor.capture());
+        verify(servletRequest).setAttribute(eq(AsyncSeoService.PARKED_RENDER_ATTRIBUTE), attributeCaptor.capture());
+        when(servletRequest.getAttribute(AsyncSeoService.PARKED_RENDER_ATTRIBUTE)).thenReturn(attributeCaptor.getValue());
+        when(httpClient.execute(any(HttpGet.class))).thenAnswer(new Answer<CloseableHttpResponse>() {
+            @Override
+            public CloseableHttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                listenerCaptor.getValue().onTimeout(mock(AsyncEvent.class));
+                return httpResponse;
+            }
+        });
+
+        //when
+        runnableCaptor.getValue().run();
+
+        //then
+        verify(servletResponse, never()).getOutputStream();
+        verify(servletResponse, never()).setStatus(anyInt());
+        verify(httpResponse).close();
+        verify(asyncContext, times(1)).dispatch();
+        verify(asyncContext, never()).complete();
+        assertEquals(0, seoService.getParkedRenderCount());
+    }
+
+    @Test
+    public void should_dispatch_to_filter_chain_when_render_fails() throws Exception {
+        //given
+        when(servletResponse.isCommitted()).thenReturn(false);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        verify(httpAsyncClient).execute(any(HttpAsyncRequestProducer.class), any(HttpAsyncResponseConsumer.class),
+                callbackCaptor.capture());
+
+        //when
+        callbackCaptor.getValue().failed(new IOException("Rendertron is down"));
+
+        //then
+        verify(servletRequest).setAttribute(AsyncSeoService.FALL_THROUGH_ATTRIBUTE, Boolean.TRUE);
+        verify(asyncContext).dispatch();
+        verify(asyncContext, never()).complete();
+
+        //when
+        when(servletRequest.getAttribute(AsyncSeoService.FALL_THROUGH_ATTRIBUTE)).thenReturn(Boolean.TRUE);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(filterChain).doFilter(servletRequest, servletResponse);
+        verify(httpAsyncClient, times(1)).execute(any(HttpAsyncRequestProducer.class), any(HttpAsyncResponseConsumer.class),
+                any(FutureCallback.class));
+    }
+
+    @Test
+    public void should_cancel_render_and_dispatch_to_filter_chain_on_container_timeout() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.SOCKET_TIMEOUT)).thenReturn("10000");
+        seoFilter.init(filterConfig);
+        final Future<HttpResponse> render = mock(Future.class);
+        when(httpAsyncClient.execute(any(HttpAsyncRequestProducer.class), any(HttpAsyncResponseConsumer.class),
+                any(FutureCallback.class))).thenReturn(render);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        verify(httpAsyncClient).execute(any(HttpAsyncRequestProducer.class), any(HttpAsyncResponseConsumer.class),
+                callbackCaptor.capture());
+        verify(asyncContext).setTimeout(15000);
+        verify(asyncContext).addListener(listenerCaptor.capture());
+        assertEquals(1, seoService.getParkedRenderCount());
+
+        //when
+        listenerCaptor.getValue().onTimeout(mock(AsyncEvent.class));
+
+        //then
+        verify(render).cancel(true);
+        verify(servletRequest).setAttribute(AsyncSeoService.FALL_THROUGH_ATTRIBUTE, Boolean.TRUE);
+        verify(asyncContext).dispatch();
+        assertEquals(0, seoService.getParkedRenderCount());
+
+        //when
+        callbackCaptor.getValue().cancelled();
+
+        //then
+        verify(asyncContext, times(1)).dispatch();
+        verify(asyncContext, never()).complete();
+        assertEquals(0, seoService.getParkedRenderCount());
+    }
+
+    @Test
+    public void should_release_render_and_complete_flight_on_container_error() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_COALESCING_TIMEOUT)).thenReturn("1000");
+        seoFilter.init(filterConfig);
+        final Future<HttpResponse> render = mock(Future.class);
+        when(httpAsyncClient.execute(any(HttpAsyncRequestProducer.class), any(HttpAsyncResponseConsumer.class),
+                any(FutureCallback.class))).thenReturn(render);
+        final HttpResponse httpResponse = mock(HttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        verify(httpAsyncClient).execute(any(HttpAsyncRequestProducer.class), any(HttpAsyncResponseConsumer.class),
+                callbackCaptor.capture());
+        verify(asyncContext).addListener(listenerCaptor.capture());
+        assertEquals(1, seoService.getRenderCoalescer().getInFlightCount());
+
+        //when
+        listenerCaptor.getValue().onError(mock(AsyncEvent.class));
+
+        //then
+        verify(render).cancel(true);
+        assertEquals(0, seoService.getRenderCoalescer().getInFlightCount());
+        assertEquals(0, seoService.getParkedRenderCount());
+
+        //when
+        callbackCaptor.getValue().completed(httpResponse);
+
+        //then
+        verify(asyncContext, never()).start(any(Runnable.class));
+        verify(asyncContext, never()).complete();
+        verify(asyncContext, never()).dispatch();
+        assertEquals(0, seoService.getParkedRenderCount());
+    }
+
+    @Test
+    public void should_complete_flight_when_container_has_ended_async_cycle() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_COALESCING_TIMEOUT)).thenReturn("1000");
+        seoFilter.init(filterConfig);
+        final HttpResponse httpResponse = mock(HttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        doThrow(new IllegalStateException("Async cycle is over")).when(asyncContext).start(any(Runnable.class));
+        doThrow(new IllegalStateException("Async cycle is over")).when(asyncContext).dispatch();
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        verify(httpAsyncClient).execute(any(HttpAsyncRequestProducer.class), any(HttpAsyncResponseConsumer.class),
+                callbackCaptor.capture());
+
+        //when
+        callbackCaptor.getValue().completed(httpResponse);
+
+        //then
+        assertEquals(0, seoService.getRenderCoalescer().getInFlightCount());
+        assertEquals(0, seoService.getParkedRenderCount());
+    }
+
+    @Test
+    public void should_park_coalesced_request_until_render_in_flight_completes() throws Exception {
+        //given
+        when(filterConfig.getInitParameter(Constants.InitFilterParams.RENDER_COALESCING_TIMEOUT)).thenReturn("1000");
+        seoFilter.init(filterConfig);
+        final HttpResponse httpResponse = mock(HttpResponse.class);
+        final StatusLine statusLine = mock(StatusLine.class);
+        final ServletOutputStream outputStream = mock(ServletOutputStream.class);
+        when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        when(statusLine.getStatusCode()).thenReturn(SC_OK);
+        when(httpResponse.getAllHeaders()).thenReturn(new Header[0]);
+        when(httpResponse.getEntity()).thenReturn(new StringEntity("<html></html>"));
+        when(servletResponse.getOutputStream()).thenReturn(outputStream);
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+        verify(httpAsyncClient).execute(any(HttpAsyncRequestProducer.class), any(HttpAsyncResponseConsumer.class),
+                callbackCaptor.capture());
+
+        //when
+        seoFilter.doFilter(servletRequest, servletResponse, filterChain);
+
+        //then
+        verify(asyncContext).setTimeout(1000);
+        verify(httpAsyncClient, times(1)).execute(any(HttpAsyncRequestProducer.class), any(HttpAsyncResponseConsumer.class),
+                any(FutureCallback.class));
+        verify(filterChain, never()).doFilter(servletRequest, servletResponse);
+        assertEquals(2, seoService.getParkedRenderCount());
+
+        //when
+        callbackCaptor.getValue().completed(httpResponse);
+        verify(asyncContext).start(runnableCaptor.capture());
+        runnableCaptor.getValue().run();
+        verify(asyncContext, times(2)).start(runnableCaptor.capture());
+        runnableCaptor.getValue().run();
+
+        //then
+        verify(outputStream, times(2)).write(any(byte[].class), eq(0), eq(13));
+        verify(asyncContext, times(2)).complete();
+        verify(asyncContext, never()).dispatch();
+        assertEquals(0, seoService.getParkedRenderCount());
+    }
+
+    @Test(expected = ContentTooLongException.class)
+    public void should_fail_render_when_content_length_is_over_max_body_bytes() throws Exception {
+        //given
+        final AsyncSeoService.CappedResponseConsumer consumer = new AsyncSeoService.CappedResponseConsumer(10);
+        final BasicHttpResponse response = new BasicHttpResponse(HTTP_1_1, SC_OK, "OK");
+        final BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContentLength(11);
+        response.setEntity(entity);
+
+        //when
+        consumer.responseReceived(response);
+    }
+
+    @Test(expected = ContentTooLongException.class)
+    public void should_fail_render_when_streamed_body_is_over_max_body_bytes() throws Exception {
+        //given
+        final AsyncSeoService.CappedResponseConsumer consumer = new AsyncSeoService.CappedResponseConsumer(10);
+        final BasicHttpResponse response = new BasicHttpResponse(HTTP_1_1, SC_OK, "OK");
+        response.setEntity(new BasicHttpEntity());
+        consumer.responseReceived(response);
+        final ContentDecoder decoder = mock(ContentDecoder.class);
+        when(decoder.read(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                ((ByteBuffer) invocation.getArguments()[0]).put(new byte[16]);
+                return 16;
+            }
+        }).thenReturn(-1);
+
+        //when
+        consumer.consumeContent(decoder, mock(IOControl.class));
+    }
+}